@@ -0,0 +1,171 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.AnnotationMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ConstructorMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.FieldMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.MethodMirror;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted indexes from annotation descriptors to the classes, fields, methods and constructors that are tagged with
+ * that annotation. Each URL is indexed once, in a single pass over its mirrors, after which every annotation query is a
+ * lookup.
+ *
+ * This class is not thread safe.
+ */
+class AnnotationIndex {
+
+	private final URLIndex<ClassMirror<?>> classes;
+	private final URLIndex<FieldMirror> fields;
+	private final URLIndex<MethodMirror> methods;
+	private final URLIndex<ConstructorMirror<?>> constructors;
+
+	public AnnotationIndex() {
+		this.classes = new URLIndex<>();
+		this.fields = new URLIndex<>();
+		this.methods = new URLIndex<>();
+		this.constructors = new URLIndex<>();
+	}
+
+	private AnnotationIndex(AnnotationIndex copy) {
+		this.classes = copy.classes.copy();
+		this.fields = copy.fields.copy();
+		this.methods = copy.methods.copy();
+		this.constructors = copy.constructors.copy();
+	}
+
+	/**
+	 * Returns a copy of this index, which can be modified without affecting this one. See {@link URLIndex#copy()}.
+	 *
+	 * @return
+	 */
+	public AnnotationIndex copy() {
+		return new AnnotationIndex(this);
+	}
+
+	/**
+	 * Indexes the annotations on the given classes, and their members, replacing the previous entries for the URL, if
+	 * any.
+	 *
+	 * @param url
+	 * @param mirrors
+	 */
+	public void add(URL url, Collection<ClassMirror<?>> mirrors) {
+		Map<String, Set<ClassMirror<?>>> classEntries = new HashMap<>();
+		Map<String, Set<FieldMirror>> fieldEntries = new HashMap<>();
+		Map<String, Set<MethodMirror>> methodEntries = new HashMap<>();
+		Map<String, Set<ConstructorMirror<?>>> constructorEntries = new HashMap<>();
+		for(ClassMirror<?> m : mirrors) {
+			put(classEntries, m.getAnnotations(), m);
+			if(!m.hasMemberAnnotations()) {
+				// Avoids reading the members of lazily loaded mirrors
+				continue;
+			}
+			for(FieldMirror f : m.getFields()) {
+				put(fieldEntries, f.getAnnotations(), f);
+			}
+			for(MethodMirror mm : m.getMethods()) {
+				put(methodEntries, mm.getAnnotations(), mm);
+			}
+			for(ConstructorMirror<?> c : m.getConstructors()) {
+				put(constructorEntries, c.getAnnotations(), c);
+			}
+		}
+		classes.put(url, classEntries);
+		fields.put(url, fieldEntries);
+		methods.put(url, methodEntries);
+		constructors.put(url, constructorEntries);
+	}
+
+	private static <V> void put(Map<String, Set<V>> entries, List<AnnotationMirror> annotations, V value) {
+		for(AnnotationMirror a : annotations) {
+			String name = a.getType().getJVMName();
+			Set<V> set = entries.get(name);
+			if(set == null) {
+				set = new LinkedHashSet<>();
+				entries.put(name, set);
+			}
+			set.add(value);
+		}
+	}
+
+	/**
+	 * Removes the entries for the given URL.
+	 *
+	 * @param url
+	 */
+	public void remove(URL url) {
+		classes.remove(url);
+		fields.remove(url);
+		methods.remove(url);
+		constructors.remove(url);
+	}
+
+	/**
+	 * Returns true if the given URL has been indexed.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean contains(URL url) {
+		return classes.contains(url);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		classes.clear();
+		fields.clear();
+		methods.clear();
+		constructors.clear();
+	}
+
+	/**
+	 * Returns the classes tagged with the given annotation. The returned set is a read only view.
+	 *
+	 * @param descriptor The JVM name of the annotation, for instance "Ljava/lang/Deprecated;"
+	 * @return
+	 */
+	public Set<ClassMirror<?>> getClasses(String descriptor) {
+		return classes.get(descriptor);
+	}
+
+	/**
+	 * Returns the fields tagged with the given annotation. The returned set is a read only view.
+	 *
+	 * @param descriptor The JVM name of the annotation
+	 * @return
+	 */
+	public Set<FieldMirror> getFields(String descriptor) {
+		return fields.get(descriptor);
+	}
+
+	/**
+	 * Returns the methods (not including constructors) tagged with the given annotation. The returned set is a read
+	 * only view.
+	 *
+	 * @param descriptor The JVM name of the annotation
+	 * @return
+	 */
+	public Set<MethodMirror> getMethods(String descriptor) {
+		return methods.get(descriptor);
+	}
+
+	/**
+	 * Returns the constructors tagged with the given annotation. The returned set is a read only view.
+	 *
+	 * @param descriptor The JVM name of the annotation
+	 * @return
+	 */
+	public Set<ConstructorMirror<?>> getConstructors(String descriptor) {
+		return constructors.get(descriptor);
+	}
+}
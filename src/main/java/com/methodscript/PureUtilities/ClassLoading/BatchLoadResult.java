@@ -0,0 +1,69 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of loading a batch of mirrors, for instance with
+ * {@link ClassDiscovery#batchLoadClassesThatExtend(java.lang.Class, java.lang.ClassLoader, boolean)}. Each mirror
+ * either loaded, or failed, and failures don't stop the rest of the batch from loading.
+ *
+ * @param <M> The type of the mirrors
+ * @param <T> The type of what they load, for instance Class or Method
+ */
+public final class BatchLoadResult<M, T> {
+
+	private final Map<M, T> loaded;
+	private final Map<M, Throwable> failures;
+
+	/* package */ BatchLoadResult(Map<M, T> loaded, Map<M, Throwable> failures) {
+		this.loaded = Collections.unmodifiableMap(new LinkedHashMap<>(loaded));
+		this.failures = Collections.unmodifiableMap(new LinkedHashMap<>(failures));
+	}
+
+	/**
+	 * Returns what each mirror that loaded successfully loaded, in the same order as the mirrors.
+	 *
+	 * @return
+	 */
+	public Map<M, T> getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns everything that was loaded successfully, in the same order as the mirrors.
+	 *
+	 * @return
+	 */
+	public Collection<T> getValues() {
+		return new ArrayList<>(loaded.values());
+	}
+
+	/**
+	 * Returns the error that each mirror that failed to load failed with, such as a {@link NoClassDefFoundError}, or
+	 * an {@link ExceptionInInitializerError} if the static initializer of the class failed.
+	 *
+	 * @return
+	 */
+	public Map<M, Throwable> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns true if any mirror failed to load.
+	 *
+	 * @return
+	 */
+	public boolean hasFailures() {
+		return !failures.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "[" + BatchLoadResult.class.getSimpleName() + ": " + loaded.size() + " loaded, " + failures.size()
+				+ " failed]";
+	}
+}
@@ -0,0 +1,223 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.Common.StringUtils;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Computes the cache keys for the files in a {@link ClassDiscoveryCache}. The key of a file is the SHA-256 of its full
+ * contents, so two files only share a cache entry if they are identical. Hashing a large jar isn't free though, so
+ * the key of each file is remembered in an index file in the cache directory, along with the size and modification
+ * time of the file when it was hashed. As long as the canonical path, size and modification time still match, the
+ * remembered key is used, and the file isn't read at all. The index is kept across restarts, so unchanged jars are
+ * never rehashed. New keys are only kept in memory until {@link #flush()} is called, so that a cold start with many
+ * jars writes the index once, rather than once per jar. Processes that share the cache directory each merge their new
+ * keys into the index on disk, under a lock, so they don't overwrite each other's keys. The keys of files that no
+ * longer exist, such as older versions of a jar that was redeployed under a new name, are dropped whenever the index
+ * is written, so the index doesn't keep growing.
+ *
+ * This class is thread safe.
+ */
+class CacheKeyIndex {
+
+	/**
+	 * The name of the index file within the cache directory.
+	 */
+	public static final String INDEX_FILENAME = "keys.index";
+
+	private static final String ALGORITHM = "SHA-256";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/**
+	 * File locks are held by the whole process, so flushes within one process have to take turns themselves.
+	 */
+	private static final Object FLUSH_LOCK = new Object();
+
+	private final File indexFile;
+	private Map<String, Entry> entries = null;
+	/**
+	 * The keys that were computed since the index was last written.
+	 */
+	private final Map<String, Entry> changed = new HashMap<>();
+
+	/**
+	 * Creates a new CacheKeyIndex, which stores its index in the given directory. The index is not read until it is
+	 * first needed.
+	 *
+	 * @param cacheDir
+	 */
+	public CacheKeyIndex(File cacheDir) {
+		this.indexFile = new File(cacheDir, INDEX_FILENAME);
+	}
+
+	/**
+	 * Returns the key for the given file, as a hex string. If the file hasn't changed since it was last hashed, this
+	 * is answered from the index, otherwise the file is hashed, and the index is updated in memory.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException If the file can't be read
+	 */
+	public synchronized String getKey(File file) throws IOException {
+		if(entries == null) {
+			entries = read();
+		}
+		String path = file.getCanonicalPath();
+		long size = file.length();
+		long modified = file.lastModified();
+		Entry entry = entries.get(path);
+		if(entry != null && entry.size == size && entry.modified == modified) {
+			return entry.key;
+		}
+		entry = new Entry(hash(file), size, modified);
+		entries.put(path, entry);
+		changed.put(path, entry);
+		return entry.key;
+	}
+
+	/**
+	 * Writes the index file, if any key was added since it was last written. The index on disk is read again first,
+	 * under a lock on the index, and the new keys are merged into it, so that the keys that other processes wrote in
+	 * the meantime are kept, and are known to this instance from then on. The keys of files that no longer exist are
+	 * dropped.
+	 *
+	 * @throws IOException If the index can't be written. The keys are still correct, they just have to be computed
+	 * again next time.
+	 */
+	public synchronized void flush() throws IOException {
+		if(changed.isEmpty()) {
+			return;
+		}
+		File dir = indexFile.getParentFile();
+		if(dir != null) {
+			dir.mkdirs();
+		}
+		File lockFile = new File(indexFile.getPath() + ".lock");
+		synchronized(FLUSH_LOCK) {
+			try(FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				FileLock lock = channel.lock();
+				try {
+					Map<String, Entry> merged = read();
+					merged.putAll(changed);
+					for(Iterator<String> it = merged.keySet().iterator(); it.hasNext();) {
+						if(!new File(it.next()).exists()) {
+							it.remove();
+						}
+					}
+					entries = merged;
+					write();
+				} finally {
+					lock.release();
+				}
+			}
+		}
+		changed.clear();
+	}
+
+	/**
+	 * Hashes the full contents of the file, in a single streaming pass.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(ALGORITHM);
+		} catch (NoSuchAlgorithmException ex) {
+			// Every JVM is required to support SHA-256
+			throw new Error(ex);
+		}
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try(InputStream in = Files.newInputStream(file.toPath())) {
+			int read;
+			while((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+			}
+		}
+		return StringUtils.toHex(digest.digest());
+	}
+
+	/**
+	 * Reads the index file. Each line is the key, size, modification time and canonical path, separated by tabs.
+	 * Lines that can't be parsed are skipped, and if the file can't be read at all, the index starts out empty.
+	 */
+	private Map<String, Entry> read() {
+		Map<String, Entry> map = new HashMap<>();
+		if(!indexFile.exists()) {
+			return map;
+		}
+		try(BufferedReader reader = Files.newBufferedReader(indexFile.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", 4);
+				if(parts.length != 4) {
+					continue;
+				}
+				try {
+					map.put(parts[3], new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+				} catch (NumberFormatException ex) {
+					// Skip it, it'll just be rehashed.
+				}
+			}
+		} catch (IOException ex) {
+			map.clear();
+		}
+		return map;
+	}
+
+	/**
+	 * Writes the index file. It is written to a temporary file first, and moved into place, so that a concurrent
+	 * reader never sees a partially written index.
+	 */
+	private void write() throws IOException {
+		File dir = indexFile.getParentFile();
+		File temp = File.createTempFile(INDEX_FILENAME, ".tmp", dir);
+		try {
+			try(BufferedWriter writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+				for(Map.Entry<String, Entry> e : entries.entrySet()) {
+					Entry entry = e.getValue();
+					writer.write(entry.key + "\t" + entry.size + "\t" + entry.modified + "\t" + e.getKey());
+					writer.newLine();
+				}
+			}
+			try {
+				Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static final class Entry {
+
+		private final String key;
+		private final long size;
+		private final long modified;
+
+		Entry(String key, long size, long modified) {
+			this.key = key;
+			this.size = size;
+			this.modified = modified;
+		}
+	}
+}
@@ -6,7 +6,10 @@ import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirrorVisito
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassReferenceMirror;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ConstructorMirror;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.FieldMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.MemberCache;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.MethodMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.MirrorInterner;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.PackageMirror;
 import com.methodscript.PureUtilities.Common.ClassUtils;
 import com.methodscript.PureUtilities.Common.FileUtil;
 import com.methodscript.PureUtilities.Common.StreamUtils;
@@ -14,30 +17,56 @@ import com.methodscript.PureUtilities.Common.StringUtils;
 import com.methodscript.PureUtilities.ProgressIterator;
 import com.methodscript.PureUtilities.ZipIterator;
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.util.ArrayDeque;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Deque;
+import java.util.Comparator;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.management.JMException;
 import org.objectweb.asm.ClassReader;
 
 /**
@@ -89,52 +118,60 @@ public class ClassDiscovery {
 		//
 	}
 
+	/*
+	 * Threading model: all the state below is only read or written while holding the lock on this instance. Queries
+	 * don't use it directly though, they read the last published Snapshot, which is never modified, so they don't need
+	 * the lock at all. When discovery finishes, the classCache, symbols, subtypeIndex and annotationIndex are published
+	 * as the new snapshot, and before they are next modified, they are copied, so the published snapshot is never
+	 * changed underneath a reader.
+	 */
 	/**
 	 * Stores the mapping of class name to ClassMirror object. At any given time, after doDiscovery is called, this will
-	 * be up to date with all known classes.
+	 * be up to date with all known classes. The set for each URL is replaced, not modified, when the URL is rescanned.
 	 */
-	private final Map<URL, Set<ClassMirror<?>>> classCache = new HashMap<>();
+	private Map<URL, Set<ClassMirror<?>>> classCache = new HashMap<>();
 	/**
-	 * This cache maps jvm name to the associated ClassMirror object, to speed up lookups.
+	 * All known classes, by JVM name and by class name. Each URL's classes are added as soon as it is discovered.
 	 */
-	private final Map<String, ClassMirror<?>> jvmNameToMirror = new HashMap<>();
+	private SymbolTable symbols = new SymbolTable();
 	/**
-	 * Maps the fuzzy class name to actual Class object.
+	 * The snapshot that queries are answered from. This is null while there are URLs waiting to be discovered or
+	 * reindexed, in which case the next query runs discovery and publishes a new one.
 	 */
-	private final Map<String, ClassMirror<?>> fuzzyClassCache = new HashMap<>();
+	private volatile Snapshot snapshot = null;
 	/**
-	 * Maps the forName cache.
+	 * True if the classCache and indexes are shared with the published snapshot, and so must be copied before they are
+	 * modified.
 	 */
-	private final Map<String, ClassMirror<?>> forNameCache = new HashMap<>();
+	private boolean published = false;
 	/**
 	 * List of all URLs from which to pull classes.
 	 */
-	private final Set<URL> urlCache = new HashSet<>();
+	private final Set<URL> urlCache = new LinkedHashSet<>();
 	/**
 	 * When a URL is added to urlCache, it is also initially added here. If there are any URLs in this set, they must be
-	 * resolved first.
-	 */
-	private final Set<URL> dirtyURLs = new HashSet<>();
-	/**
-	 * Cache for class subtypes. Whenever a new URL is added to the URL cache, this is cleared.
+	 * resolved first. They are discovered in the order they were added.
 	 */
-	private final Map<Class<?>, Set<ClassMirror<?>>> classSubtypeCache = new HashMap<>();
+	private final Set<URL> dirtyURLs = new LinkedHashSet<>();
 	/**
-	 * Cache for class annotations. Whenever a new URL is added to the URL cache, this is cleared.
+	 * While discovery is running, the classes of each URL that is being discovered, which are completed as soon as that
+	 * URL is done, so that queries about a single URL don't have to wait for the others.
 	 */
-	private final Map<Class<? extends Annotation>, Set<ClassMirror<?>>> classAnnotationCache = new HashMap<>();
+	private final ConcurrentMap<URL, CompletableFuture<Set<ClassMirror<?>>>> pendingURLs = new ConcurrentHashMap<>();
 	/**
-	 * Cache for field annotations. Whenever a new URL is added to the URL cache, this is cleared.
+	 * Maps each supertype to all known classes that extend it. Each URL is indexed after it is discovered.
 	 */
-	private final Map<Class<? extends Annotation>, Set<FieldMirror>> fieldAnnotationCache = new HashMap<>();
+	private SubtypeIndex subtypeIndex = new SubtypeIndex();
 	/**
-	 * Cache for method annotations. Whenever a new URL is added to the URL cache, this is cleared.
+	 * URLs whose classes need to be (re)added to the subtypeIndex, either because they were just discovered, or
+	 * because a URL that their hierarchy went through was added or removed.
 	 */
-	private final Map<Class<? extends Annotation>, Set<MethodMirror>> methodAnnotationCache = new HashMap<>();
+	private final Set<URL> unindexedURLs = new LinkedHashSet<>();
 	/**
-	 * Cache for constructor annotations. Whenever a new URL is added to the URL cache, this is cleared.
+	 * Maps each annotation to the classes, fields, methods and constructors tagged with it. Each URL is indexed as soon
+	 * as it is discovered.
 	 */
-	private final Map<Class<? extends Annotation>, Set<ConstructorMirror<?>>> constructorAnnotationCache = new HashMap<>();
+	private AnnotationIndex annotationIndex = new AnnotationIndex();
 	/**
 	 * By default null, but this can be set per instance.
 	 */
@@ -144,6 +181,26 @@ public class ClassDiscovery {
 	 * entirely for a given URL.
 	 */
 	private final Map<URL, ClassDiscoveryURLCache> preCaches = new HashMap<>();
+	/**
+	 * The classes of the URLs that were restored with {@link #restoreState(java.io.File)}, and haven't been discovered
+	 * yet.
+	 */
+	private final Map<URL, ClassDiscoveryURLCache> restoredCaches = new HashMap<>();
+	/**
+	 * The subtype index entries of the URLs that were restored with {@link #restoreState(java.io.File)}, and haven't
+	 * been indexed yet. These are only kept if every URL in the saved state was unchanged.
+	 */
+	private final Map<URL, DiscoveryStateFile.LocationState> restoredSubtypes = new HashMap<>();
+	/**
+	 * The fingerprint of each URL, as of when its classes were scanned or restored. See
+	 * {@link #saveState(java.io.File)}.
+	 */
+	private final Map<URL, String> fingerprints = new HashMap<>();
+	/**
+	 * The number of bytes each URL's last discovery read, or null if they aren't counted. See
+	 * {@link #countBytesRead()}.
+	 */
+	private volatile Map<URL, Long> bytesRead = null;
 	/**
 	 * If true, debug information will be printed out.
 	 */
@@ -154,6 +211,71 @@ public class ClassDiscovery {
 	 */
 	private ClassDiscoveryCache classDiscoveryCache;
 
+	/**
+	 * The number of threads each URL is scanned with. See {@link #setParallelism(int)}.
+	 */
+	private int parallelism = 1;
+	/**
+	 * The number of threads that the batch load methods use.
+	 */
+	private volatile int loadParallelism = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * If true, directory URLs are rescanned incrementally. See {@link #setIncrementalDirectoryScanning(boolean)}.
+	 */
+	private boolean incremental = false;
+
+	/**
+	 * If true, only the class headers are read during the scan. See {@link #setLazyMembers(boolean)}.
+	 */
+	private boolean lazyMembers = false;
+
+	/**
+	 * If not null, only the classes that reference one of these types are read in full. See
+	 * {@link #setPrefilterDescriptors(java.lang.String...)}.
+	 */
+	private Prefilter prefilter = null;
+
+	/**
+	 * The pool that the mirrors of all scanned classes share their names, descriptors and references from.
+	 */
+	private final MirrorInterner interner = new MirrorInterner();
+
+	/**
+	 * Bounds the number of classes whose members are held at once. See {@link #setMemberCacheSize(int)}.
+	 */
+	private final MemberCache memberCache = new MemberCache(0);
+
+	/**
+	 * For directory URLs scanned in incremental mode, the state of each class file as of the last scan.
+	 */
+	private final Map<URL, Map<File, ClassFileState>> directoryStates = new HashMap<>();
+	/**
+	 * For jar URLs scanned with lazy members, the jar that the members of their classes are read from.
+	 */
+	private final Map<URL, SharedJar> sharedJars = new ConcurrentHashMap<>();
+
+	/**
+	 * The compiled package patterns used by {@link #forFuzzyName(java.lang.String, java.lang.String)}. These don't
+	 * depend on the discovery locations, so they're kept across snapshots.
+	 */
+	private final ConcurrentMap<String, Pattern> packagePatterns = new ConcurrentHashMap<>();
+
+	/**
+	 * The metrics, or null if metrics are disabled.
+	 */
+	private volatile DiscoveryMetrics metrics = null;
+
+	/**
+	 * Anonymous classes are not scanned.
+	 */
+	private static final Pattern ANONYMOUS_CLASS_FILE = Pattern.compile(".*\\$(?:\\d)*\\.class");
+
+	/**
+	 * The number of jar entries each task scans, when scanning a jar in parallel.
+	 */
+	private static final int JAR_SCAN_GRANULARITY = 32;
+
 	/**
 	 * Turns debug mode on. If true, data about what is happening is printed out, as well as timing information.
 	 *
@@ -163,13 +285,69 @@ public class ClassDiscovery {
 		debug = on;
 	}
 
+	/**
+	 * Turns on metrics for this instance, if they aren't on already, and returns them. See {@link DiscoveryMetrics}.
+	 *
+	 * @return
+	 */
+	public synchronized DiscoveryMetrics enableMetrics() {
+		if(metrics == null) {
+			metrics = new DiscoveryMetrics(this);
+		}
+		return metrics;
+	}
+
+	/**
+	 * Turns off metrics for this instance. The metrics that were collected so far are discarded, and if they were
+	 * registered as an MBean, they are unregistered.
+	 */
+	public synchronized void disableMetrics() {
+		if(metrics != null) {
+			try {
+				metrics.unregisterMBean();
+			} catch (JMException ex) {
+				Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+			}
+			metrics = null;
+		}
+	}
+
+	/**
+	 * Returns the metrics for this instance, or null if they haven't been turned on with {@link #enableMetrics()}.
+	 *
+	 * @return
+	 */
+	public DiscoveryMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Returns the current size of each cache, as of the most recently published discovery. This doesn't trigger
+	 * discovery.
+	 *
+	 * @return
+	 */
+	/* package */ Map<String, Integer> getCacheSizes() {
+		Snapshot s = snapshot;
+		Map<String, Integer> sizes = new TreeMap<>();
+		sizes.put("discoveryLocations", s == null ? 0 : s.urls.size());
+		sizes.put("knownClasses", s == null ? 0 : s.symbols.getJVMNames().size());
+		sizes.put("fuzzyClassCache", s == null ? 0 : s.fuzzyClassCache.size());
+		sizes.put("queryPlans", s == null ? 0 : s.queryPlans.size());
+		sizes.put("packagePatterns", packagePatterns.size());
+		sizes.put("internedStrings", interner.getStringCount());
+		sizes.put("internedReferences", interner.getReferenceCount());
+		sizes.put("memberCache", memberCache.size());
+		return sizes;
+	}
+
 	/**
 	 * Removes the cache for this URL. After calling this, it is ensured that the discovery methods won't be pulling
 	 * from a cache. This is used during initial cache creation.
 	 *
 	 * @param url
 	 */
-	public void removePreCache(URL url) {
+	public synchronized void removePreCache(URL url) {
 		if(url == null) {
 			throw new NullPointerException("url cannot be null");
 		}
@@ -182,7 +360,7 @@ public class ClassDiscovery {
 	 * @param url
 	 * @param cache
 	 */
-	public void addPreCache(URL url, ClassDiscoveryURLCache cache) {
+	public synchronized void addPreCache(URL url, ClassDiscoveryURLCache cache) {
 		if(url == null) {
 			throw new NullPointerException("url cannot be null");
 		}
@@ -211,32 +389,314 @@ public class ClassDiscovery {
 	}
 
 	/**
-	 * Looks through all the URLs and pulls out all known classes, and caches them in the classCache object.
+	 * Returns the current snapshot, running discovery first if any URLs are waiting to be discovered. If nothing has
+	 * changed since the last snapshot was published, this doesn't lock.
+	 *
+	 * @return
 	 */
-	private synchronized void doDiscovery() {
+	private Snapshot getSnapshot() {
+		Snapshot s = snapshot;
+		if(s != null) {
+			return s;
+		}
+		return doDiscovery();
+	}
+
+	/**
+	 * Makes the classCache and indexes safe to modify, by copying them if they're shared with the published snapshot.
+	 * The snapshot is then cleared, so that queries wait for the modification to be published. This must be called
+	 * while holding the lock, before any of them are modified.
+	 */
+	private void beginModification() {
+		snapshot = null;
+		if(published) {
+			classCache = new HashMap<>(classCache);
+			symbols = symbols.copy();
+			subtypeIndex = subtypeIndex.copy();
+			annotationIndex = annotationIndex.copy();
+			published = false;
+		}
+	}
+
+	/**
+	 * Looks through all the URLs and pulls out all known classes, and caches them in the classCache object, then
+	 * publishes the result as the new snapshot.
+	 *
+	 * @return The new snapshot
+	 */
+	private synchronized Snapshot doDiscovery() {
+		if(snapshot != null) {
+			//Another thread already finished discovery while we were waiting for the lock.
+			return snapshot;
+		}
+		beginModification();
 		if(!dirtyURLs.isEmpty()) {
-			Iterator<URL> it = dirtyURLs.iterator();
-			while(it.hasNext()) {
-				discover(it.next());
-				it.remove();
+			ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+			for(URL url : dirtyURLs) {
+				pendingURLs.putIfAbsent(url, new CompletableFuture<>());
+			}
+			try {
+				Iterator<URL> it = dirtyURLs.iterator();
+				while(it.hasNext()) {
+					URL url = it.next();
+					it.remove();
+					//The URLs whose hierarchy went through classes that this URL no longer declares need to be
+					//reindexed too, but this can only be known before the URL is rescanned.
+					Set<String> previous = new HashSet<>();
+					if(classCache.containsKey(url)) {
+						for(ClassMirror<?> m : classCache.get(url)) {
+							previous.add(m.getJVMClassName());
+						}
+					}
+					boolean changed = discover(url, pool);
+					completePendingURL(url);
+					if(!changed && annotationIndex.contains(url)) {
+						//Nothing changed, so the indexes are still up to date.
+						continue;
+					}
+					if(classCache.containsKey(url)) {
+						//Building the member annotation index reads the members of many classes, so the jar is
+						//kept open for all of them
+						List<SharedJar> held = holdJars(Collections.singleton(url));
+						try {
+							for(ClassMirror<?> m : classCache.get(url)) {
+								memberCache.attach(m);
+							}
+							symbols.put(url, classCache.get(url));
+							annotationIndex.add(url, classCache.get(url));
+						} finally {
+							releaseJars(held);
+						}
+					}
+					unindexedURLs.add(url);
+					unindexedURLs.addAll(subtypeIndex.getDependentURLs(previous));
+				}
+			} finally {
+				if(pool != null) {
+					pool.shutdown();
+				}
+				if(classDiscoveryCache != null) {
+					classDiscoveryCache.flushKeys();
+				}
+				//If discovery failed part way, the URLs that are still dirty are retried by the next discovery, but
+				//anyone waiting on the others, which weren't completed, has to wait for that instead.
+				for(Map.Entry<URL, CompletableFuture<Set<ClassMirror<?>>>> e : pendingURLs.entrySet()) {
+					if(!dirtyURLs.contains(e.getKey()) && pendingURLs.remove(e.getKey(), e.getValue())) {
+						e.getValue().completeExceptionally(new IllegalStateException("Discovery of " + e.getKey()
+								+ " failed"));
+					}
+				}
 			}
 		}
+		if(!unindexedURLs.isEmpty()) {
+			updateSubtypeIndex();
+		}
+		Snapshot s = new Snapshot(new ArrayList<>(urlCache), classCache, symbols, subtypeIndex, annotationIndex,
+				new HashMap<>(fingerprints));
+		published = true;
+		snapshot = s;
+		return s;
+	}
+
+	/**
+	 * Everything that queries need, as of the end of one round of discovery. A snapshot is never modified once it is
+	 * published, except for the fuzzy name cache, which is concurrent, so any number of threads can query it at once,
+	 * without locking.
+	 */
+	private static final class Snapshot {
+
+		private final List<URL> urls;
+		private final Map<URL, Set<ClassMirror<?>>> classes;
+		private final SymbolTable symbols;
+		private final SubtypeIndex subtypes;
+		private final AnnotationIndex annotations;
+		private final Map<URL, String> fingerprints;
+		private final ConcurrentMap<String, Optional<ClassMirror<?>>> fuzzyClassCache = new ConcurrentHashMap<>();
+		/**
+		 * The indexes that each shape of {@link ClassQuery} uses, smallest first.
+		 */
+		private final ConcurrentMap<String, List<Set<ClassMirror<?>>>> queryPlans = new ConcurrentHashMap<>();
+
+		Snapshot(List<URL> urls, Map<URL, Set<ClassMirror<?>>> classes, SymbolTable symbols, SubtypeIndex subtypes,
+				AnnotationIndex annotations, Map<URL, String> fingerprints) {
+			this.urls = urls;
+			this.classes = classes;
+			this.symbols = symbols;
+			this.subtypes = subtypes;
+			this.annotations = annotations;
+			this.fingerprints = fingerprints;
+		}
+
+		Set<ClassMirror<?>> getKnownClasses() {
+			Set<ClassMirror<?>> ret = new LinkedHashSet<>();
+			for(URL url : urls) {
+				ret.addAll(classes.get(url));
+			}
+			return ret;
+		}
+	}
+
+	/**
+	 * Adds the unindexed URLs to the subtype index. All the dirty URLs must already have been discovered, since the
+	 * hierarchy of a class in one URL may go through classes in any other URL. URLs that were indexed before, but whose
+	 * hierarchy went through any of the newly discovered classes, are reindexed as well.
+	 */
+	private void updateSubtypeIndex() {
+		Map<String, ClassMirror<?>> known = symbols.getJVMNames();
+		Set<String> declared = new HashSet<>();
+		for(URL url : unindexedURLs) {
+			if(classCache.containsKey(url)) {
+				for(ClassMirror<?> m : classCache.get(url)) {
+					declared.add(m.getJVMClassName());
+				}
+			}
+		}
+		Set<URL> toIndex = new LinkedHashSet<>(unindexedURLs);
+		toIndex.addAll(subtypeIndex.getDependentURLs(declared));
+		//A restored closure is still correct, unless it went through a class declared by one of the URLs that wasn't
+		//restored along with it.
+		Set<String> declaredElsewhere = new HashSet<>();
+		for(URL url : toIndex) {
+			if(!restoredSubtypes.containsKey(url) && classCache.containsKey(url)) {
+				for(ClassMirror<?> m : classCache.get(url)) {
+					declaredElsewhere.add(m.getJVMClassName());
+				}
+			}
+		}
+		for(URL url : toIndex) {
+			if(urlCache.contains(url)) {
+				DiscoveryStateFile.LocationState restored = restoredSubtypes.remove(url);
+				if(restored != null && Collections.disjoint(restored.getDependencies(), declaredElsewhere)) {
+					subtypeIndex.restore(url, classCache.get(url), restored.getSubtypes(),
+							restored.getDependencies());
+				} else {
+					subtypeIndex.add(url, classCache.get(url), known, getDefaultClassLoader());
+				}
+			}
+		}
+		unindexedURLs.clear();
+	}
+
+	/**
+	 * Hands the classes of the given URL, which was just discovered, to anyone waiting for them.
+	 *
+	 * @param url
+	 */
+	private void completePendingURL(URL url) {
+		//The future stays registered until this discovery is done, since until then, there is no snapshot to get the
+		//classes from instead.
+		CompletableFuture<Set<ClassMirror<?>>> pending = pendingURLs.get(url);
+		if(pending != null) {
+			Set<ClassMirror<?>> classes = classCache.get(url);
+			pending.complete(classes == null ? Collections.<ClassMirror<?>>emptySet()
+					: Collections.unmodifiableSet(new LinkedHashSet<>(classes)));
+		}
+	}
+
+	/**
+	 * Starts discovering all the discovery locations that haven't been discovered yet, on a new background thread.
+	 * This is meant to be called at startup, right after the discovery locations are added, so that the first query
+	 * doesn't have to wait for the whole discovery. Queries that arrive while discovery is running still wait for it,
+	 * except for {@link #getKnownClasses(java.net.URL)}, which only waits for the given URL.
+	 *
+	 * @param queries Queries to run once discovery is done, so that the indexes they use are already looked up when
+	 * they're run again.
+	 * @return A future which completes once discovery is done, and the queries have run.
+	 */
+	public CompletableFuture<Void> warmUp(ClassQuery<?>... queries) {
+		return warmUp(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				Thread t = new Thread(command, "ClassDiscovery warm-up");
+				t.setDaemon(true);
+				t.start();
+			}
+		}, queries);
+	}
+
+	/**
+	 * Starts discovering all the discovery locations that haven't been discovered yet, with the given executor. See
+	 * {@link #warmUp(com.methodscript.PureUtilities.ClassLoading.ClassQuery...)}.
+	 *
+	 * @param executor
+	 * @param queries Queries to run once discovery is done.
+	 * @return A future which completes once discovery is done, and the queries have run.
+	 */
+	public CompletableFuture<Void> warmUp(Executor executor, final ClassQuery<?>... queries) {
+		//Registered before the task is handed off, so that a query about a single URL that arrives before the task
+		//starts waits for it, rather than running the whole discovery itself
+		List<URL> registered = new ArrayList<>();
+		synchronized(this) {
+			for(URL url : dirtyURLs) {
+				if(pendingURLs.putIfAbsent(url, new CompletableFuture<>()) == null) {
+					registered.add(url);
+				}
+			}
+		}
+		try {
+			return CompletableFuture.runAsync(new Runnable() {
+				@Override
+				public void run() {
+					getSnapshot();
+					for(ClassQuery<?> query : queries) {
+						query.asSet();
+					}
+				}
+			}, executor);
+		} catch (RuntimeException ex) {
+			//Nothing will complete them, so anyone waiting on them runs the discovery instead
+			for(URL url : registered) {
+				CompletableFuture<Set<ClassMirror<?>>> pending = pendingURLs.remove(url);
+				if(pending != null) {
+					pending.completeExceptionally(ex);
+				}
+			}
+			throw ex;
+		}
 	}
 
 	/**
 	 * Does the class discovery for this particular URL. This should only be called by doDiscovery. Other internal
 	 * methods should call doDiscovery, which handles looking through the dirtyURLs.
+	 *
+	 * @param rootLocation The URL to scan
+	 * @param pool The pool to split the scan across, or null if the scan should happen on this thread.
+	 * @return False if the URL was rescanned incrementally, and no class in it changed. In that case, the mirrors are
+	 * the same instances as before. Otherwise true.
 	 */
-	private synchronized void discover(URL rootLocation) {
+	private synchronized boolean discover(URL rootLocation, ForkJoinPool pool) {
 		long start = System.currentTimeMillis();
+		DiscoveryMetrics metrics = this.metrics;
+		long startNanos = metrics == null ? 0 : System.nanoTime();
+		Map<URL, Long> bytesRead = this.bytesRead;
+		AtomicLong bytes = metrics == null && bytesRead == null ? null : new AtomicLong();
+		final Prefilter prefilter = this.prefilter;
+		DiscoveryMetrics.ScanSource scanSource = DiscoveryMetrics.ScanSource.SCAN;
+		int scanned = 0;
 		if(debug) {
-			StreamUtils.GetSystemOut().println("Beginning discovery of " + rootLocation);
+			StreamUtils.GetSystemOut().println("Beginning discovery of " + rootLocation
+					+ (pool == null ? "" : " with a parallelism of " + pool.getParallelism()));
 		}
+		//The members of the new mirrors, if any, are read from a new jar
+		sharedJars.remove(rootLocation);
 		try {
+			//A location restored from a saved state is only used once, so that rescanning it reads the location itself.
+			ClassDiscoveryURLCache restored = restoredCaches.remove(rootLocation);
+			if(restored == null) {
+				//A restored URL keeps the fingerprint it was restored with. Otherwise, it is taken before the URL is
+				//read, so that if the URL changes while it is read, a saved state would be out of date, but never
+				//wrong. Jars and directories that are scanned record it when they're scanned.
+				fingerprints.remove(rootLocation);
+				if(classDiscoveryCache != null || preCaches.containsKey(rootLocation)) {
+					recordFingerprint(rootLocation);
+				}
+			}
 			//If the ClassDiscoveryCache is set, just use this.
-			if(classDiscoveryCache != null) {
+			boolean fromDiscoveryCache = false;
+			if(restored == null && classDiscoveryCache != null) {
 				ClassDiscoveryURLCache cduc = classDiscoveryCache.getURLCache(rootLocation);
 				preCaches.put(rootLocation, cduc);
+				fromDiscoveryCache = true;
 			}
 
 			String url;
@@ -251,19 +711,25 @@ public class ClassDiscovery {
 				url = GetClassContainer(ClassDiscovery.class).toString();
 			}
 			final File rootLocationFile;
-			if(!classCache.containsKey(rootLocation)) {
-				classCache.put(rootLocation, Collections.synchronizedSet(new HashSet<>()));
-			} else {
-				classCache.get(rootLocation).clear();
-			}
-			final Set<ClassMirror<?>> mirrors = classCache.get(rootLocation);
-			if(preCaches.containsKey(rootLocation)) {
+			final Set<ClassMirror<?>> mirrors = Collections.synchronizedSet(new LinkedHashSet<>());
+			classCache.put(rootLocation, mirrors);
+			if(restored != null || preCaches.containsKey(rootLocation)) {
 				if(debug) {
-					StreamUtils.GetSystemOut().println("Precache already contains this URL, so using it");
+					StreamUtils.GetSystemOut().println(restored != null ? "Restoring this URL from the saved state"
+							: "Precache already contains this URL, so using it");
 				}
 				//No need, already got a cache for this url
-				mirrors.addAll(preCaches.get(rootLocation).getClasses());
-				return;
+				ClassDiscoveryURLCache cache = restored != null ? restored : preCaches.get(rootLocation);
+				mirrors.addAll(cache.getClasses());
+				if(bytes != null) {
+					bytes.set(cache.getBytesRead());
+				}
+				if(metrics != null) {
+					scanSource = restored != null || fromDiscoveryCache ? cache.getSource()
+							: DiscoveryMetrics.ScanSource.PRECACHE;
+					scanned = cache.getClasses().size();
+				}
+				return true;
 			}
 			if(debug) {
 				StreamUtils.GetSystemOut().println("Precache does not contain data for this URL, so scanning now.");
@@ -273,88 +739,760 @@ public class ClassDiscovery {
 				url = StringUtils.replaceLast(url, "!/", "");
 			}
 			if(url.startsWith("file:") && !url.endsWith(".jar")) {
-				final AtomicInteger id = new AtomicInteger(0);
-//				ExecutorService service = Executors.newFixedThreadPool(10, new ThreadFactory() {
-//					@Override
-//					public Thread newThread(Runnable r) {
-//						return new Thread(r, "ClassDiscovery-Async-" + id.incrementAndGet());
-//					}
-//				});
-
 				//Remove file: from the front
 				String root = url.substring(5);
 				rootLocationFile = new File(root);
 				List<File> fileList = new ArrayList<>();
-				descend(new File(root), fileList);
-
-				//Now, we have all the class files in the package. But, it's the absolute path
-				//to all of them. We have to first remove the "front" part
-				for(File f : fileList) {
-					String file = f.toString();
-					if(!file.matches(".*\\$(?:\\d)*\\.class") && file.endsWith(".class")) {
-						InputStream stream = null;
-						try {
-							stream = FileUtil.readAsStream(new File(rootLocationFile,
-									f.getAbsolutePath().replaceFirst(Pattern.quote(new File(root).getAbsolutePath() + File.separator), "")));
-							ClassReader reader = new ClassReader(stream);
-							ClassMirrorVisitor mirrorVisitor = new ClassMirrorVisitor();
-							reader.accept(mirrorVisitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
-							mirrors.add(mirrorVisitor.getMirror(new URL(url)));
-						} catch (IOException ex) {
-							Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
-						} finally {
-							if(stream != null) {
-								try {
-									stream.close();
-								} catch (IOException ex) {
-									Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
-								}
-							}
-						}
+				descend(rootLocationFile, fileList);
+				//Sort the files, so that the mirrors are always added in the same order, regardless of the
+				//order the file system lists them in, or the order the parallel scan finishes them in.
+				Collections.sort(fileList);
+				final URL source = new URL(url);
+				final ScanContext context = new ScanContext(source, bytes, prefilter, interner);
+				//In incremental mode, files that haven't changed since the last scan reuse their mirror, so only
+				//the new and modified files are parsed. Deleted files are simply not carried over.
+				Map<File, ClassFileState> previous = incremental ? directoryStates.get(rootLocation) : null;
+				List<File> classFiles = new ArrayList<>();
+				List<ClassFileState> states = new ArrayList<>();
+				List<File> changed = new ArrayList<>();
+				List<ClassSource> sources = new ArrayList<>();
+				//A class file in a directory can simply be read again, so its source is also its member source
+				List<ClassSource> memberSources = lazyMembers ? sources : null;
+				DiscoveryStateFile.DirectoryFingerprint fingerprint
+						= new DiscoveryStateFile.DirectoryFingerprint(rootLocationFile);
+				for(final File f : fileList) {
+					if(!isScannableClass(f.getName())) {
+						continue;
+					}
+					classFiles.add(f);
+					ClassFileState state = new ClassFileState(f.lastModified(), f.length());
+					fingerprint.add(f, state.size, state.modified);
+					ClassFileState old = previous == null ? null : previous.get(f);
+					if(old != null && old.modified == state.modified && old.size == state.size) {
+						state.mirror = old.mirror;
+					} else {
+						changed.add(f);
+						sources.add(classFile(f, state));
+					}
+					states.add(state);
+				}
+				fingerprints.put(rootLocation, fingerprint.get());
+				List<ClassMirror<?>> parsed;
+				if(pool == null) {
+					parsed = new ArrayList<>(sources.size());
+					for(ClassSource s : sources) {
+						parsed.add(parseClass(s, lazyMembers ? s : null, context));
+					}
+				} else {
+					//Directories are split all the way down to individual files
+					parsed = pool.invoke(new ClassScanTask(sources, memberSources, 0, sources.size(), 1, null,
+							context));
+				}
+				scanned = sources.size();
+				Map<File, ClassFileState> current = new HashMap<>();
+				int next = 0;
+				for(int i = 0; i < classFiles.size(); i++) {
+					ClassFileState state = states.get(i);
+					if(next < changed.size() && changed.get(next) == classFiles.get(i)) {
+						state.mirror = parsed.get(next++);
+					}
+					if(state.mirror != null) {
+						mirrors.add(state.mirror);
+					}
+					current.put(classFiles.get(i), state);
+				}
+				if(debug && previous != null) {
+					StreamUtils.GetSystemOut().println("Rescanned " + changed.size() + " changed class files, out of "
+							+ classFiles.size() + ", in " + rootLocation);
+				}
+				if(incremental) {
+					directoryStates.put(rootLocation, current);
+					if(previous != null && changed.isEmpty() && previous.size() == current.size()) {
+						return false;
 					}
 				}
-//				service.shutdown();
-//				try {
-//					//Doesn't look like 0 is an option, so we'll just wait a day.
-//					service.awaitTermination(1, TimeUnit.DAYS);
-//				} catch (InterruptedException ex) {
-//					Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
-//				}
 			} else if(url.startsWith("file:") && url.endsWith(".jar")) {
 				//We are running from a jar
 				url = url.replaceFirst("file:", "");
 				rootLocationFile = new File(url);
-				ZipIterator zi = new ZipIterator(rootLocationFile);
-				try {
-					zi.iterate(new ZipIterator.ZipIteratorCallback() {
-						@Override
-						public void handle(String filename, InputStream in) {
-							if(!filename.matches(".*\\$(?:\\d)*\\.class") && filename.endsWith(".class")) {
-								try {
-									ClassReader reader = new ClassReader(in);
-									ClassMirrorVisitor mirrorVisitor = new ClassMirrorVisitor();
-									reader.accept(mirrorVisitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
-									mirrors.add(mirrorVisitor.getMirror(rootLocationFile.toURI().toURL()));
-								} catch (IOException ex) {
-									Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+				final URL source = rootLocationFile.toURI().toURL();
+				final ScanContext context = new ScanContext(source, bytes, prefilter, interner);
+				recordFingerprint(rootLocation);
+				final SharedJar sharedJar = lazyMembers ? new SharedJar(rootLocationFile) : null;
+				if(sharedJar != null) {
+					sharedJars.put(rootLocation, sharedJar);
+				}
+				if(pool == null) {
+					ZipIterator zi = new ZipIterator(rootLocationFile);
+					try {
+						zi.iterate(new ZipIterator.ZipIteratorCallback() {
+							@Override
+							public void handle(String filename, final InputStream in) {
+								if(isScannableClass(filename)) {
+									ClassMirror<?> mirror = parseClass(new ClassSource() {
+										@Override
+										public InputStream open() throws IOException {
+											return in;
+										}
+									}, sharedJar == null ? null : sharedJar.entry(filename), context);
+									if(mirror != null) {
+										mirrors.add(mirror);
+									}
+								}
+							}
+						}, progressIterator);
+					} catch (IOException ex) {
+						Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+					}
+				} else {
+					try(final ZipFile zip = new ZipFile(rootLocationFile)) {
+						//Entries are kept in central directory order, and each task gets a contiguous range of them,
+						//reading each entry through the ZipFile's random access.
+						List<ClassSource> sources = new ArrayList<>();
+						List<ClassSource> memberSources = sharedJar == null ? null : new ArrayList<>();
+						for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+							final ZipEntry entry = e.nextElement();
+							if(!entry.isDirectory() && isScannableClass(entry.getName())) {
+								sources.add(new ClassSource() {
+									@Override
+									public InputStream open() throws IOException {
+										return zip.getInputStream(entry);
+									}
+								});
+								if(memberSources != null) {
+									memberSources.add(sharedJar.entry(entry.getName()));
 								}
-
 							}
 						}
-					}, progressIterator);
-				} catch (IOException ex) {
-					Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+						for(ClassMirror<?> mirror : pool.invoke(new ClassScanTask(sources, memberSources, 0,
+								sources.size(), JAR_SCAN_GRANULARITY,
+								progressIterator == null ? null : new ScanProgress(progressIterator, sources.size()),
+								context))) {
+							if(mirror != null) {
+								mirrors.add(mirror);
+							}
+						}
+					} catch (IOException ex) {
+						Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+					}
 				}
+				scanned = mirrors.size();
 			} else {
 				throw new RuntimeException("Unknown url type: " + rootLocation);
 			}
+		} catch (MalformedURLException ex) {
+			Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
 		} catch (RuntimeException e) {
 			e.printStackTrace(System.err);
 		} finally {
 			if(debug) {
 				StreamUtils.GetSystemOut().println("Scans finished for " + rootLocation + ", taking " + (System.currentTimeMillis() - start) + " ms.");
 			}
+			if(metrics != null) {
+				metrics.recordScan(rootLocation, scanSource, System.nanoTime() - startNanos, bytes.get(), scanned);
+			}
+			if(bytesRead != null) {
+				bytesRead.put(rootLocation, bytes.get());
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the bytes that each discovery reads, for {@link #getBytesRead(java.net.URL)}, without enabling the rest
+	 * of the metrics. This must be called before discovery.
+	 */
+	/* package */ void countBytesRead() {
+		bytesRead = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the number of bytes the last discovery of the given URL read, or 0 if it wasn't discovered since
+	 * {@link #countBytesRead()} was called.
+	 *
+	 * @param url
+	 * @return
+	 */
+	/* package */ long getBytesRead(URL url) {
+		Map<URL, Long> bytesRead = this.bytesRead;
+		Long bytes = bytesRead == null ? null : bytesRead.get(url);
+		return bytes == null ? 0 : bytes;
+	}
+
+	/**
+	 * Records the current fingerprint of the given URL, for {@link #saveState(java.io.File)}. If it can't be taken,
+	 * the URL is saved without its classes.
+	 *
+	 * @param url
+	 */
+	private void recordFingerprint(URL url) {
+		try {
+			String fingerprint = DiscoveryStateFile.fingerprint(url);
+			if(fingerprint != null) {
+				fingerprints.put(url, fingerprint);
+			}
+		} catch (IOException ex) {
+			//It is simply scanned again after a restore
+		}
+	}
+
+	/**
+	 * Returns true if the given file name is a class file that should be scanned. Anonymous classes are skipped, as
+	 * are module descriptors, which aren't actually classes.
+	 *
+	 * @param filename
+	 * @return
+	 */
+	/* package */ static boolean isScannableClass(String filename) {
+		return filename.endsWith(".class") && !filename.endsWith("module-info.class")
+				&& !ANONYMOUS_CLASS_FILE.matcher(filename).matches();
+	}
+
+	/**
+	 * Reads in a single class file, and returns the mirror for it. If the class can't be read, the error is logged, and
+	 * null is returned.
+	 *
+	 * @param classSource
+	 * @param memberSource If not null, only the header of the class is read, and the members are read from this
+	 * source the first time they are needed
+	 * @param context
+	 * @return
+	 */
+	private static ClassMirror<?> parseClass(ClassSource classSource, ClassSource memberSource,
+			ScanContext context) {
+		try(InputStream stream = classSource.open()) {
+			ClassReader reader = new ClassReader(stream);
+			if(context.bytes != null) {
+				context.bytes.addAndGet(reader.b.length);
+			}
+			if(context.prefilter != null && !context.prefilter.matches(reader)) {
+				return ClassMirrorVisitor.getSupertypeMirror(reader, context.source, context.interner);
+			}
+			ClassMirrorVisitor mirrorVisitor = new ClassMirrorVisitor(context.interner, memberSource);
+			reader.accept(mirrorVisitor, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+			return mirrorVisitor.getMirror(context.source);
+		} catch (IOException ex) {
+			Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, null, ex);
+			return null;
+		}
+	}
+
+	/**
+	 * The settings that all the class files of one URL are parsed with.
+	 */
+	private static final class ScanContext {
+
+		/**
+		 * The URL that the classes are contained in.
+		 */
+		private final URL source;
+		/**
+		 * If not null, the size of each class file is added to this.
+		 */
+		private final AtomicLong bytes;
+		/**
+		 * If not null, only the supertypes are read for classes that don't match this.
+		 */
+		private final Prefilter prefilter;
+		private final MirrorInterner interner;
+
+		ScanContext(URL source, AtomicLong bytes, Prefilter prefilter, MirrorInterner interner) {
+			this.source = source;
+			this.bytes = bytes;
+			this.prefilter = prefilter;
+			this.interner = interner;
+		}
+	}
+
+	/**
+	 * The state of a single class file in a directory, as of the last time it was scanned.
+	 */
+	private static final class ClassFileState {
+
+		private final long modified;
+		private final long size;
+		private ClassMirror<?> mirror;
+
+		ClassFileState(long modified, long size) {
+			this.modified = modified;
+			this.size = size;
+		}
+	}
+
+	/**
+	 * A single class file, which may be opened for reading.
+	 */
+	private static interface ClassSource extends ClassMirrorVisitor.ClassFileSource {
+	}
+
+	/**
+	 * Matches class files whose constant pool references any of a set of types. Both the descriptor form, as used by
+	 * annotations and field types, and the internal name form, as used by the supertypes, are searched for. The UTF8
+	 * entries of the constant pool are compared byte by byte, so no strings are created.
+	 */
+	private static final class Prefilter {
+
+		private static final int CONSTANT_UTF8 = 1;
+
+		private final Set<String> descriptors;
+		private final byte[][] targets;
+
+		Prefilter(String... descriptors) {
+			Set<String> set = new LinkedHashSet<>();
+			List<byte[]> list = new ArrayList<>();
+			for(String descriptor : descriptors) {
+				if(!descriptor.startsWith("L") || !descriptor.endsWith(";")) {
+					throw new IllegalArgumentException("Not a JVM class name: " + descriptor);
+				}
+				if(set.add(descriptor)) {
+					list.add(descriptor.getBytes(StandardCharsets.UTF_8));
+					list.add(descriptor.substring(1, descriptor.length() - 1).getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			this.descriptors = Collections.unmodifiableSet(set);
+			this.targets = list.toArray(new byte[list.size()][]);
+		}
+
+		Set<String> getDescriptors() {
+			return descriptors;
+		}
+
+		boolean matches(ClassReader reader) {
+			byte[] b = reader.b;
+			for(int i = 1; i < reader.getItemCount(); i++) {
+				int offset = reader.getItem(i);
+				//The second slot of longs and doubles has no offset
+				if(offset == 0 || b[offset - 1] != CONSTANT_UTF8) {
+					continue;
+				}
+				int length = reader.readUnsignedShort(offset);
+				for(byte[] target : targets) {
+					if(target.length == length && regionMatches(b, offset + 2, target)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private static boolean regionMatches(byte[] b, int offset, byte[] target) {
+			for(int i = 0; i < target.length; i++) {
+				if(b[offset + i] != target[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Returns a source for the given class file, which fails if the file has changed since it had the given state.
+	 *
+	 * @param file
+	 * @param state
+	 * @return
+	 */
+	private static ClassSource classFile(final File file, final ClassFileState state) {
+		return new ClassSource() {
+			@Override
+			public InputStream open() throws IOException {
+				checkUnchanged(file, state.modified, state.size);
+				return FileUtil.readAsStream(file);
+			}
+		};
+	}
+
+	/**
+	 * Throws an IOException if the given file doesn't have the given modification time and size anymore, which means
+	 * that it was changed or deleted since it was scanned.
+	 *
+	 * @param file
+	 * @param modified
+	 * @param size
+	 * @throws IOException
+	 */
+	private static void checkUnchanged(File file, long modified, long size) throws IOException {
+		if(file.lastModified() != modified || file.length() != size) {
+			throw new IOException(file + " has changed or was deleted since it was scanned");
+		}
+	}
+
+	/**
+	 * A jar that the members of lazily read classes are read from. Rather than opening the jar, and parsing its central
+	 * directory, for every class, the jar is opened once, and shared by all the reads that overlap. It is closed again
+	 * once nothing holds it anymore, so that it isn't held open for the life of the mirrors, which means that bulk
+	 * readers, such as building the member annotation index, should hold it for the whole batch. Each time it is
+	 * acquired, the jar is checked against its size and modification time as of the scan, and if it has changed, it
+	 * isn't read.
+	 */
+	private static final class SharedJar {
+
+		private final File file;
+		private final long modified;
+		private final long size;
+		private ZipFile zip;
+		private int references;
+
+		SharedJar(File file) {
+			this.file = file;
+			this.modified = file.lastModified();
+			this.size = file.length();
+		}
+
+		/**
+		 * Takes a reference to the jar, opening it if nothing else holds it. Each call must be matched by a call to
+		 * {@link #release()}.
+		 *
+		 * @return
+		 * @throws IOException If the jar has changed since the scan, or can't be opened
+		 */
+		synchronized ZipFile acquire() throws IOException {
+			checkUnchanged(file, modified, size);
+			if(zip == null) {
+				zip = new ZipFile(file);
+			}
+			references++;
+			return zip;
+		}
+
+		/**
+		 * Releases a reference to the jar, closing it if that was the last one.
+		 */
+		synchronized void release() {
+			if(--references == 0) {
+				try {
+					zip.close();
+				} catch (IOException ex) {
+					//Nothing more will be read from it anyways
+				}
+				zip = null;
+			}
+		}
+
+		/**
+		 * Returns a source for the given entry in this jar. The jar is held until the stream is closed.
+		 *
+		 * @param name
+		 * @return
+		 */
+		ClassSource entry(final String name) {
+			return new ClassSource() {
+				@Override
+				public InputStream open() throws IOException {
+					ZipFile zip = acquire();
+					boolean opened = false;
+					try {
+						ZipEntry entry = zip.getEntry(name);
+						if(entry == null) {
+							throw new FileNotFoundException(name + " is no longer in " + file);
+						}
+						InputStream in = new FilterInputStream(zip.getInputStream(entry)) {
+							private boolean closed = false;
+
+							@Override
+							public void close() throws IOException {
+								if(closed) {
+									return;
+								}
+								closed = true;
+								try {
+									super.close();
+								} finally {
+									release();
+								}
+							}
+						};
+						opened = true;
+						return in;
+					} finally {
+						if(!opened) {
+							release();
+						}
+					}
+				}
+			};
+		}
+	}
+
+	/**
+	 * Takes a reference to the shared jars of the given URLs, so that they stay open while the members of many of their
+	 * classes are read. The jars that have changed since they were scanned are skipped, since reading their classes
+	 * fails anyways.
+	 *
+	 * @param urls
+	 * @return The jars that were taken, which must be passed to {@link #releaseJars(java.util.List)}
+	 */
+	private List<SharedJar> holdJars(Collection<URL> urls) {
+		List<SharedJar> held = new ArrayList<>();
+		for(URL url : urls) {
+			SharedJar jar = sharedJars.get(url);
+			if(jar != null) {
+				try {
+					jar.acquire();
+					held.add(jar);
+				} catch (IOException ex) {
+					//Reading its classes reports this
+				}
+			}
+		}
+		return held;
+	}
+
+	private static void releaseJars(List<SharedJar> held) {
+		for(SharedJar jar : held) {
+			jar.release();
+		}
+	}
+
+	/**
+	 * Reports progress for a parallel scan, which finishes class files in no particular order.
+	 */
+	private static final class ScanProgress {
+
+		private final ProgressIterator progressIterator;
+		private final AtomicInteger done = new AtomicInteger(0);
+		private final int total;
+
+		ScanProgress(ProgressIterator progressIterator, int total) {
+			this.progressIterator = progressIterator;
+			this.total = total;
+		}
+
+		void finished(int count) {
+			progressIterator.progressChanged(done.addAndGet(count), total);
+		}
+	}
+
+	/**
+	 * Scans a contiguous range of class files. If the range is larger than the granularity, it is split in half, and
+	 * both halves are scanned in parallel. Each task returns its own list, and the lists are concatenated in order when
+	 * joined, so the mirrors come back in the same order as the sources, and no locking is needed to collect them. Files
+	 * that couldn't be read are returned as null, so that each mirror is at the same index as its source.
+	 */
+	private static final class ClassScanTask extends RecursiveTask<List<ClassMirror<?>>> {
+
+		private static final long serialVersionUID = 1L;
+		private final List<ClassSource> sources;
+		private final List<ClassSource> memberSources;
+		private final int from;
+		private final int to;
+		private final int granularity;
+		private final ScanProgress progress;
+		private final ScanContext context;
+
+		ClassScanTask(List<ClassSource> sources, List<ClassSource> memberSources, int from, int to, int granularity,
+				ScanProgress progress, ScanContext context) {
+			this.sources = sources;
+			this.memberSources = memberSources;
+			this.from = from;
+			this.to = to;
+			this.granularity = granularity;
+			this.progress = progress;
+			this.context = context;
+		}
+
+		@Override
+		protected List<ClassMirror<?>> compute() {
+			if(to - from <= granularity) {
+				List<ClassMirror<?>> list = new ArrayList<>(to - from);
+				for(int i = from; i < to; i++) {
+					list.add(parseClass(sources.get(i), memberSources == null ? null : memberSources.get(i),
+							context));
+				}
+				if(progress != null) {
+					progress.finished(to - from);
+				}
+				return list;
+			}
+			int middle = (from + to) >>> 1;
+			ClassScanTask left = new ClassScanTask(sources, memberSources, from, middle, granularity, progress, context);
+			ClassScanTask right = new ClassScanTask(sources, memberSources, middle, to, granularity, progress, context);
+			left.fork();
+			List<ClassMirror<?>> rightList = right.compute();
+			List<ClassMirror<?>> list = left.join();
+			list.addAll(rightList);
+			return list;
+		}
+	}
+
+	/**
+	 * Sets the number of threads that are used to scan each URL. By default, this is 1, meaning each URL is scanned on
+	 * the thread that triggers the discovery. If greater than 1, the class files in directories and jars are split
+	 * across a fork-join pool of this size. The mirrors are returned in the same order either way.
+	 *
+	 * @param parallelism The number of threads to use, which must be at least 1.
+	 */
+	public void setParallelism(int parallelism) {
+		if(parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the number of threads used to scan each URL.
+	 *
+	 * @return
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the maximum number of threads that the batch load methods, such as
+	 * {@link #batchLoadClassesThatExtend(java.lang.Class, java.lang.ClassLoader, boolean)}, use. By default, this is
+	 * the number of processors. If 1, classes are always loaded on the calling thread.
+	 *
+	 * @param loadParallelism The number of threads to use, which must be at least 1.
+	 */
+	public void setLoadParallelism(int loadParallelism) {
+		if(loadParallelism < 1) {
+			throw new IllegalArgumentException("loadParallelism must be at least 1");
+		}
+		this.loadParallelism = loadParallelism;
+	}
+
+	/**
+	 * Returns the maximum number of threads used by the batch load methods.
+	 *
+	 * @return
+	 */
+	public int getLoadParallelism() {
+		return loadParallelism;
+	}
+
+	/**
+	 * Sets whether directory URLs are rescanned incrementally. If true, the modification time and size of each class
+	 * file in a directory is remembered, and when the directory is rescanned, either by
+	 * {@link #rescanDiscoveryLocation(java.net.URL)} or {@link #invalidateCaches()}, only new and modified class files
+	 * are parsed again, and the mirrors for deleted ones are dropped. The annotation and subtype indexes are then
+	 * updated for just the changed URLs, rather than being rebuilt from scratch. Jars are rescanned in full either
+	 * way. This is useful during development, where a directory such as target/classes is rescanned often, but only
+	 * a few files change each time.
+	 *
+	 * @param incremental
+	 */
+	public synchronized void setIncrementalDirectoryScanning(boolean incremental) {
+		this.incremental = incremental;
+		if(!incremental) {
+			directoryStates.clear();
+		}
+	}
+
+	/**
+	 * Returns whether directory URLs are rescanned incrementally.
+	 *
+	 * @return
+	 */
+	public boolean isIncrementalDirectoryScanning() {
+		return incremental;
+	}
+
+	/**
+	 * Sets whether the fields and methods of scanned classes are read lazily. If true, a scan only reads the header of
+	 * each class file, that is, its name, modifiers, supertypes and annotations, and notes whether any member is
+	 * annotated. The fields and methods of a class are read from the class file again, the first time they are asked
+	 * for, which in practice only happens for a small fraction of the classes. Classes with annotated members are still
+	 * read in full when the member annotation index is built. If false, which is the default, each class file is read
+	 * in full during the scan, which is better if the members of most classes are going to be used.
+	 *
+	 * Lazy members require the class files to stay as they were when they were scanned. If a class file, or the jar it
+	 * is in, is changed or deleted afterwards, asking for the members of its classes throws an
+	 * IllegalStateException, rather than returning the members of a different class file.
+	 *
+	 * This does not affect classes that come from a cache, which have their own lazy loading.
+	 *
+	 * @param lazyMembers
+	 */
+	public synchronized void setLazyMembers(boolean lazyMembers) {
+		this.lazyMembers = lazyMembers;
+	}
+
+	/**
+	 * Returns whether the fields and methods of scanned classes are read lazily.
+	 *
+	 * @return
+	 */
+	public boolean isLazyMembers() {
+		return lazyMembers;
+	}
+
+	/**
+	 * Bounds the number of classes whose fields and methods are held in memory at once. The class headers, that is,
+	 * the names, supertypes and annotations, which all the indexes are built from, always stay in memory, as do the
+	 * members that the member annotation index refers to. But the full list of fields and methods of each class is
+	 * only kept for the given number of most recently used classes. The members of other classes are read again from
+	 * their original source the next time they are needed, which is either the class file, for scanned classes, or the
+	 * cache file, for classes that came from a lazily read {@link ClassDiscoveryCache}. This trades some parsing time
+	 * for a bounded footprint, which is useful for tools that scan very large classpaths.
+	 *
+	 * This only applies to classes whose members are read on demand, so for scanned classes, lazy members have to be
+	 * turned on, see {@link #setLazyMembers(boolean)}. If the source of a class has changed or is gone by the time its
+	 * members are read again, an IllegalStateException is thrown.
+	 *
+	 * @param size The maximum number of classes whose members are held, or 0, the default, for no limit.
+	 */
+	public void setMemberCacheSize(int size) {
+		memberCache.setMaximumSize(size);
+	}
+
+	/**
+	 * Returns the maximum number of classes whose fields and methods are held in memory at once, or 0 if there is no
+	 * limit.
+	 *
+	 * @return
+	 */
+	public int getMemberCacheSize() {
+		return memberCache.getMaximumSize();
+	}
+
+	/**
+	 * Sets the types that scanned classes must reference in order to be read in full. This is useful when only classes
+	 * that are tagged with a few known annotations, or that implement a few known interfaces, are of interest, for
+	 * instance when scanning large third party jars. Before each class file is visited, its constant pool is searched
+	 * for the names of these types, which is much cheaper than visiting it. Classes that don't reference any of them
+	 * are only recorded with their name, modifiers and supertypes, so they still take part in the subtype queries, but
+	 * have no annotations, generics, fields or methods.
+	 *
+	 * Note that the constant pool only contains the types that a class references itself, so a class that only
+	 * inherits one of these types from a supertype, or that is tagged with an annotation which is meta-annotated with
+	 * one of them, does not match.
+	 *
+	 * This only applies to classes that are scanned after this is called, so {@link #invalidateCaches()} should be
+	 * called if discovery has already happened. Classes that come from a cache are not affected.
+	 *
+	 * @param descriptors The JVM names of the types, for instance "Lcom/example/Api;". If none are given, the
+	 * prefilter is turned off, and every class is read in full, which is the default.
+	 */
+	public synchronized void setPrefilterDescriptors(String... descriptors) {
+		prefilter = descriptors.length == 0 ? null : new Prefilter(descriptors);
+		//Unchanged class files would otherwise keep the mirrors read with the old prefilter
+		directoryStates.clear();
+	}
+
+	/**
+	 * Sets the types that scanned classes must reference in order to be read in full. See
+	 * {@link #setPrefilterDescriptors(java.lang.String...)}.
+	 *
+	 * @param types The types. If none are given, the prefilter is turned off.
+	 */
+	public void setPrefilter(Class<?>... types) {
+		String[] descriptors = new String[types.length];
+		for(int i = 0; i < types.length; i++) {
+			descriptors[i] = ClassUtils.getJVMName(types[i]);
 		}
+		setPrefilterDescriptors(descriptors);
+	}
+
+	/**
+	 * Returns the JVM names of the types that scanned classes must reference in order to be read in full, or an empty
+	 * set if there is no prefilter.
+	 *
+	 * @return
+	 */
+	public Set<String> getPrefilter() {
+		Prefilter p = prefilter;
+		return p == null ? Collections.<String>emptySet() : p.getDescriptors();
 	}
 	private ClassLoader defaultClassLoader = null;
 
@@ -397,9 +1535,10 @@ public class ClassDiscovery {
 			//Already here, so just return.
 			return this;
 		}
+		beginModification();
 		urlCache.add(url);
 		dirtyURLs.add(url);
-		classCache.put(url, new HashSet<>());
+		classCache.put(url, new LinkedHashSet<>());
 		return this;
 	}
 
@@ -424,7 +1563,8 @@ public class ClassDiscovery {
 	}
 
 	/**
-	 * Remove a discovery URL. Will invalidate caches.
+	 * Remove a discovery URL. The lookup caches are cleared, but the other URLs are not rediscovered. Only the URLs
+	 * whose class hierarchy went through a class in the removed URL have their subtypes reindexed.
 	 *
 	 * @param url
 	 */
@@ -438,31 +1578,192 @@ public class ClassDiscovery {
 			return;
 		}
 
+		beginModification();
 		urlCache.remove(url);
 		dirtyURLs.remove(url);
+		CompletableFuture<Set<ClassMirror<?>>> pending = pendingURLs.remove(url);
+		if(pending != null) {
+			pending.completeExceptionally(new IllegalStateException(url + " was removed"));
+		}
 		preCaches.remove(url);
+		restoredCaches.remove(url);
+		//The other restored closures may have gone through this URL's classes
+		restoredSubtypes.clear();
+		directoryStates.remove(url);
+		sharedJars.remove(url);
+		fingerprints.remove(url);
+
+		Set<ClassMirror<?>> removed = classCache.remove(url);
+		symbols.remove(url);
+		annotationIndex.remove(url);
+		subtypeIndex.remove(url);
+		unindexedURLs.remove(url);
+		if(removed != null) {
+			Set<String> names = new HashSet<>();
+			for(ClassMirror<?> m : removed) {
+				names.add(m.getJVMClassName());
+			}
+			unindexedURLs.addAll(subtypeIndex.getDependentURLs(names));
+		}
+	}
 
-		invalidateCaches();
+	/**
+	 * Causes the given URL to be scanned again, the next time it is needed. Unlike {@link #invalidateCaches()}, the
+	 * other URLs are not rescanned, and only the index entries that the URL affects are updated. If the URL is a
+	 * directory, and {@link #setIncrementalDirectoryScanning(boolean)} is on, only the class files that changed since
+	 * the last scan are parsed. If the URL was never added, this has no effect.
+	 *
+	 * @param url
+	 */
+	public synchronized void rescanDiscoveryLocation(URL url) {
+		if(url == null) {
+			throw new NullPointerException("url cannot be null");
+		}
+		if(urlCache.contains(url)) {
+			snapshot = null;
+			dirtyURLs.add(url);
+			restoredCaches.remove(url);
+			restoredSubtypes.clear();
+		}
 	}
 
 	/**
 	 * Clears the internal caches. This is called automatically when a new discovery location is added with
 	 * addDiscoveryLocation, but this should be called if the caches could have become invalidated since the last load,
 	 * as well as if the reference to any of the class loaders that loaded any classes during the course of using this
-	 * instance need to be garbage collected.
-	 */
-	public void invalidateCaches() {
-		classCache.clear();
-		forNameCache.clear();
-		jvmNameToMirror.clear();
-		fuzzyClassCache.clear();
-		classAnnotationCache.clear();
-		fieldAnnotationCache.clear();
-		methodAnnotationCache.clear();
-		constructorAnnotationCache.clear();
+	 * instance need to be garbage collected. In incremental mode, every URL is rescanned, as with
+	 * {@link #rescanDiscoveryLocation(java.net.URL)}, but the indexes are only updated for the URLs that changed.
+	 */
+	public synchronized void invalidateCaches() {
+		restoredCaches.clear();
+		restoredSubtypes.clear();
+		if(incremental) {
+			snapshot = null;
+			dirtyURLs.addAll(urlCache);
+			return;
+		}
+		//The old ones may still be in use by readers, so new ones are made, rather than clearing them.
+		snapshot = null;
+		published = false;
+		classCache = new HashMap<>();
+		symbols = new SymbolTable();
+		annotationIndex = new AnnotationIndex();
+		subtypeIndex = new SubtypeIndex();
+		//Every class is about to be scanned again, so nothing in the pool needs to be kept
+		interner.clear();
+		unindexedURLs.clear();
 		dirtyURLs.addAll(urlCache);
 	}
 
+	/**
+	 * Saves the whole state of this instance to the given file, that is, every discovery location, along with a
+	 * fingerprint of it, its classes, and the subtype index, so that a later run can get back to the same state with
+	 * {@link #restoreState(java.io.File)}, without scanning or hashing anything. The fingerprint of each location is
+	 * the one it had when it was scanned, and the locations that changed since are saved without their classes, so
+	 * that they are scanned again after the restore. Discovery is run first, if it is pending. Every class is written
+	 * in full, so the members of classes that are read lazily are read here, which makes this best called in the
+	 * background, once the application is up.
+	 *
+	 * @param file
+	 * @throws IOException If the file can't be written
+	 */
+	public void saveState(File file) throws IOException {
+		Snapshot s = getSnapshot();
+		List<SharedJar> held = holdJars(s.urls);
+		try {
+			DiscoveryStateFile.write(file, s.urls, s.classes, s.subtypes, s.fingerprints);
+		} finally {
+			releaseJars(held);
+		}
+	}
+
+	/**
+	 * Restores a state that was saved with {@link #saveState(java.io.File)}. Every discovery location in the file is
+	 * added, in the same order as before. The locations whose fingerprint still matches get their classes from the
+	 * file, which is memory mapped, so they aren't scanned at all, and only the class headers are read up front. The
+	 * locations that changed since, or whose part of the file can't be read, are scanned as usual, and those that no
+	 * longer exist are skipped. If every location
+	 * still matches, and none were added to this instance before, the subtype index is restored from the file as well,
+	 * rather than being computed again. Either way, the indexes are still only built the next time they are needed,
+	 * so this can be followed by {@link #warmUp(ClassQuery...)}.
+	 *
+	 * No exceptions are thrown, if the file doesn't exist, or can't be read, this simply does nothing, and the
+	 * discovery locations need to be added as usual.
+	 *
+	 * @param file
+	 * @return The discovery locations that were restored from the file, rather than queued to be scanned
+	 */
+	public synchronized Set<URL> restoreState(File file) {
+		Set<URL> restored = new LinkedHashSet<>();
+		if(!file.exists()) {
+			return restored;
+		}
+		List<DiscoveryStateFile.LocationState> states;
+		try {
+			states = DiscoveryStateFile.read(file);
+		} catch (IOException ex) {
+			Logger.getLogger(ClassDiscovery.class.getName()).log(Level.SEVERE, "Could not restore " + file, ex);
+			return restored;
+		}
+		//The saved closures are only correct if they are restored along with everything they were computed from
+		boolean restoreSubtypes = urlCache.isEmpty();
+		for(DiscoveryStateFile.LocationState state : states) {
+			if(state.getClasses() == null) {
+				restoreSubtypes = false;
+			}
+		}
+		for(DiscoveryStateFile.LocationState state : states) {
+			URL url = state.getURL();
+			if(urlCache.contains(url) || !state.exists()) {
+				continue;
+			}
+			if(state.getClasses() != null) {
+				restoredCaches.put(url, state.getClasses());
+				fingerprints.put(url, state.getFingerprint());
+				if(restoreSubtypes) {
+					restoredSubtypes.put(url, state);
+				}
+				restored.add(url);
+			}
+			addDiscoveryLocation(url);
+		}
+		return restored;
+	}
+
+	/**
+	 * A query, which is timed by {@link #timeQuery}.
+	 *
+	 * @param <R> The result of the query
+	 * @param <E> The exception the query may throw
+	 */
+	private static interface TimedQuery<R, E extends Exception> {
+
+		R run() throws E;
+	}
+
+	/**
+	 * Runs the given query, and if metrics are enabled, records how long it took under the given type.
+	 *
+	 * @param <R>
+	 * @param <E>
+	 * @param type
+	 * @param query
+	 * @return The result of the query
+	 * @throws E If the query throws it
+	 */
+	private <R, E extends Exception> R timeQuery(DiscoveryMetrics.QueryType type, TimedQuery<R, E> query) throws E {
+		DiscoveryMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return query.run();
+		}
+		long start = System.nanoTime();
+		try {
+			return query.run();
+		} finally {
+			metrics.recordQuery(type, start);
+		}
+	}
+
 	/**
 	 * Returns a list of all known classes. The ClassMirror for each class is returned, and further examination can be
 	 * done on each class, or loadClass can be called on the ClassMirror to get the actual Class object. No ClassLoaders
@@ -471,12 +1772,7 @@ public class ClassDiscovery {
 	 * @return A list of ClassMirror objects for all known classes
 	 */
 	public Set<ClassMirror<?>> getKnownClasses() {
-		doDiscovery();
-		Set<ClassMirror<?>> ret = new HashSet<>();
-		for(URL url : urlCache) {
-			ret.addAll(getKnownClasses(url));
-		}
-		return ret;
+		return timeQuery(DiscoveryMetrics.QueryType.KNOWN_CLASSES, () -> getSnapshot().getKnownClasses());
 	}
 
 	/**
@@ -490,150 +1786,157 @@ public class ClassDiscovery {
 		if(url == null) {
 			throw new NullPointerException("url cannot be null");
 		}
-		if(!classCache.containsKey(url)) {
+		Snapshot s = snapshot;
+		if(s == null) {
+			CompletableFuture<Set<ClassMirror<?>>> pending = pendingURLs.get(url);
+			if(pending != null) {
+				try {
+					return new ArrayList<>(pending.join());
+				} catch (CompletionException ex) {
+					//Wait for the next discovery to finish instead
+				}
+			}
+			s = getSnapshot();
+		}
+		if(!s.classes.containsKey(url)) {
 			addDiscoveryLocation(url);
+			s = getSnapshot();
 		}
-		doDiscovery();
-		return new ArrayList<>(classCache.get(url));
+		return new ArrayList<>(s.classes.get(url));
 	}
 
 	/**
-	 * Returns a list of known classes that extend the given superclass, or implement the given interface.
+	 * Returns a list of known classes that extend the given superclass, or implement the given interface. The
+	 * subtypes of every known class are indexed once, when its URL is discovered, so this is a lookup, rather than a
+	 * search through all known classes.
 	 *
 	 * @param <T>
 	 * @param superType
 	 * @return
 	 */
-	@SuppressWarnings("unchecked")
 	public <T> Set<ClassMirror<T>> getClassesThatExtend(Class<T> superType) {
+		Set<ClassMirror<T>> subtypes = getSubtypes(superType);
 		if(superType == java.lang.Object.class) {
-			//To avoid complication down the road, if this is the case,
-			//just return all known classes here.
-			// Ugh, this double cast though. This is definitely safe, since
-			// everything extends Object in java, but to get the compiler to
-			// shut up, we have to supress warnings and double cast it.
-			return (Set<ClassMirror<T>>) (Set<?>) getKnownClasses();
-		}
-		if(classSubtypeCache.containsKey(superType)) {
-			return new HashSet<>((Set) classSubtypeCache.get(superType));
-		}
-		doDiscovery();
-		Set<ClassMirror<?>> mirrors = new HashSet<>();
-		Set<ClassMirror<T>> knownClasses = (Set) getKnownClasses();
-		outer:
-		for(ClassMirror<T> m : knownClasses) {
-			if(doesClassExtend(m, superType)) {
-				mirrors.add(m);
-			}
+			//This is already a new set
+			return subtypes;
 		}
-		classSubtypeCache.put(superType, mirrors);
-		return (Set) mirrors;
+		return new HashSet<>(subtypes);
 	}
 
 	/**
-	 * Returns true if subClass extends, implements, or is superClass. This searches the entire known class ecosystem,
-	 * including the known ClassMirrors for this information.
+	 * Returns the classes that extend the given type, without copying the index, for the callers that only iterate
+	 * over them. The returned set is a read only view.
 	 *
-	 * @param subClass
-	 * @param superClass
+	 * @param <T>
+	 * @param superType
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
-	public boolean doesClassExtend(ClassMirror<?> subClass, Class<?> superClass) {
-		if(subClass.directlyExtendsFrom(superClass)) {
-			//Trivial case, so just add this now, then continue.
-			return true;
-		}
-		//Well, crap, more complicated. Ok, so, the list of supers
-		//can probably be walked up even further, so we need to find
-		//the supers of these (and make sure it's not in the ClassMirror
-		//cache, to avoid loading classes unneccessarily) and then load
-		//the actual Class object for them. Essentially, this falls back
-		//to loading the class when it
-		//can't be found in the mirrors pool.
-		Set<ClassReferenceMirror<?>> supers = new HashSet<>();
-		// Interfaces don't have a superclass. If they extend something, that's different.
-		if(!subClass.isInterface()) {
-			//Get the superclass. If it's java.lang.Object, we're done.
-			ClassReferenceMirror<?> su = subClass.getSuperClass();
-			while(!"Ljava/lang/Object;".equals(su.getJVMName())) {
-				supers.add(su);
-				ClassMirror<?> find = getClassMirrorFromJVMName(su.getJVMName());
-				if(find == null) {
-					try {
-						//Ok, have to Class.forName this one
-						Class<?> clazz = ClassUtils.forCanonicalName(su.toString(), false, defaultClassLoader);
-						//We can just use isAssignableFrom now
-						if(superClass.isAssignableFrom(clazz)) {
-							return true;
-						} else {
-							//We need to add change the reference to su
-							su = new ClassReferenceMirror<>("L" + clazz.getSuperclass().getName().replace('.', '/') + ";");
-						}
-					} catch (ClassNotFoundException ex) {
-						//Hmm, ok? I guess something bad happened, so let's break
-						//the loop and give up on this class.
-						return false;
-					}
-				} else {
-					su = find.getSuperClass();
-				}
+	private <T> Set<ClassMirror<T>> getSubtypes(Class<T> superType) {
+		return timeQuery(DiscoveryMetrics.QueryType.CLASSES_THAT_EXTEND, () -> {
+			if(superType == java.lang.Object.class) {
+				//To avoid complication down the road, if this is the case,
+				//just return all known classes here.
+				// Ugh, this double cast though. This is definitely safe, since
+				// everything extends Object in java, but to get the compiler to
+				// shut up, we have to supress warnings and double cast it.
+				return (Set<ClassMirror<T>>) (Set<?>) getSnapshot().getKnownClasses();
 			}
-			for(ClassReferenceMirror<?> r : supers) {
-				// Look through the supers. If any of them equal the search class, return true
-				if(r.getJVMName().equals(ClassUtils.getJVMName(superClass))) {
-					return true;
-				}
+			return (Set<ClassMirror<T>>) (Set<?>) getSnapshot().subtypes.getSubtypes(
+					ClassUtils.getJVMName(superType));
+		});
+	}
+
+	/**
+	 * Creates a new query over the known classes, which can combine several criteria, such as supertypes, annotations
+	 * and packages. See {@link ClassQuery}.
+	 *
+	 * @return
+	 */
+	public ClassQuery<Object> query() {
+		return new ClassQuery<>(this);
+	}
+
+	/**
+	 * Returns the classes that match the indexed criteria of the given query. The indexes are intersected, walking
+	 * only the smallest one, and checking each class in it against the others.
+	 *
+	 * @param query
+	 * @return
+	 */
+	/* package */ Stream<ClassMirror<?>> query(ClassQuery<?> query) {
+		return timeQuery(DiscoveryMetrics.QueryType.QUERY, () -> runQuery(query));
+	}
+
+	/**
+	 * Does the work of {@link #query(com.methodscript.PureUtilities.ClassLoading.ClassQuery)}, without recording it in
+	 * the metrics, for the queries that are part of another query.
+	 *
+	 * @param query
+	 * @return
+	 */
+	private Stream<ClassMirror<?>> runQuery(ClassQuery<?> query) {
+		Snapshot s = getSnapshot();
+		String key = query.getPlanKey();
+		List<Set<ClassMirror<?>>> plan = s.queryPlans.get(key);
+		if(plan == null) {
+			plan = new ArrayList<>();
+			for(String supertype : query.getSupertypes()) {
+				plan.add(s.subtypes.getSubtypes(supertype));
+			}
+			for(String annotation : query.getAnnotations()) {
+				plan.add(s.annotations.getClasses(annotation));
 			}
+			Collections.sort(plan, new Comparator<Set<ClassMirror<?>>>() {
+				@Override
+				public int compare(Set<ClassMirror<?>> o1, Set<ClassMirror<?>> o2) {
+					return Integer.compare(o1.size(), o2.size());
+				}
+			});
+			s.queryPlans.put(key, plan);
 		}
-		//Same thing now, but for interfaces
-		Deque<ClassReferenceMirror<?>> interfaces = new ArrayDeque<>();
-		Set<ClassReferenceMirror<?>> handled = new HashSet<>();
-		interfaces.addAll(subClass.getInterfaces());
-		//Also have to add all the supers' interfaces too
-		for(ClassReferenceMirror<?> r : supers) {
-			ClassMirror<?> find = getClassMirrorFromJVMName(r.getJVMName());
-			if(find == null) {
-				try {
-					Class<?> clazz = Class.forName(r.toString());
-					for(Class<?> c : clazz.getInterfaces()) {
-						interfaces.add(new ClassReferenceMirror<>("L" + c.getName().replace('.', '/') + ";"));
+		if(plan.isEmpty()) {
+			return s.getKnownClasses().stream();
+		}
+		final List<Set<ClassMirror<?>>> others = plan.subList(1, plan.size());
+		Stream<ClassMirror<?>> results = plan.get(0).stream();
+		if(!others.isEmpty()) {
+			results = results.filter(new Predicate<ClassMirror<?>>() {
+				@Override
+				public boolean test(ClassMirror<?> m) {
+					for(Set<ClassMirror<?>> set : others) {
+						if(!set.contains(m)) {
+							return false;
+						}
 					}
-				} catch (ClassNotFoundException ex) {
-					return false;
+					return true;
 				}
-			} else {
-				interfaces.addAll(find.getInterfaces());
-			}
+			});
 		}
-		while(!interfaces.isEmpty()) {
-			ClassReferenceMirror<?> in = interfaces.pop();
-			if(ClassUtils.getJVMName(superClass).equals(in.getJVMName())) {
-				//Early short circuit. We know it's in the the list already.
+		return results;
+	}
+
+	/**
+	 * Returns true if subClass extends, implements, or is superClass. This searches the entire known class ecosystem,
+	 * including the known ClassMirrors for this information.
+	 *
+	 * @param subClass
+	 * @param superClass
+	 * @return
+	 */
+	public boolean doesClassExtend(ClassMirror<?> subClass, Class<?> superClass) {
+		return timeQuery(DiscoveryMetrics.QueryType.DOES_CLASS_EXTEND, () -> {
+			String superName = ClassUtils.getJVMName(superClass);
+			if(superClass == java.lang.Object.class || superName.equals(subClass.getJVMClassName())
+					|| subClass.directlyExtendsFrom(superClass)) {
 				return true;
 			}
-			if(handled.contains(in)) {
-				continue;
-			}
-			handled.add(in);
-			supers.add(in);
-			ClassMirror<?> find = getClassMirrorFromJVMName(in.getJVMName());
-			if(find != null) {
-				interfaces.addAll(find.getInterfaces());
-			} else {
-				try {
-					//Again, have to check Class.forName
-					Class<?> clazz = ClassUtils.forCanonicalName(in.toString(), false, getDefaultClassLoader());
-					if(superClass.isAssignableFrom(clazz)) {
-						return true;
-					}
-				} catch (ClassNotFoundException ex) {
-					return false;
-				}
-			}
-		}
-		//Nope.
-		return false;
+			// The full hierarchy of every known class is precomputed when it is discovered, so for those this is a bit
+			// test. For other classes, the hierarchy is walked through the known classes, and classes are only loaded
+			// (uninitialized) if they haven't already been looked at in the default ClassLoader.
+			Snapshot s = getSnapshot();
+			return s.subtypes.isSubtype(subClass, superName, s.symbols.getJVMNames(), getDefaultClassLoader());
+		});
 	}
 
 	/**
@@ -662,25 +1965,14 @@ public class ClassDiscovery {
 	 */
 	public <T> Set<Class<T>> loadClassesThatExtend(Class<T> superType, ClassLoader loader, boolean initialize) {
 		Set<Class<T>> set = new HashSet<>();
-		for(ClassMirror<T> cm : getClassesThatExtend(superType)) {
+		for(ClassMirror<T> cm : getSubtypes(superType)) {
 			set.add(cm.loadClass(loader, initialize));
 		}
 		return set;
 	}
 
 	private ClassMirror<?> getClassMirrorFromJVMName(String className) {
-		if(jvmNameToMirror.containsKey(className)) {
-			return jvmNameToMirror.get(className);
-		}
-		for(ClassMirror<?> c : getKnownClasses()) {
-			if(c.getJVMClassName().equals(className)) {
-				jvmNameToMirror.put(c.getJVMClassName(), c);
-				return c;
-			}
-		}
-		//Still not found? Return null then.
-		jvmNameToMirror.put(className, null);
-		return null;
+		return getSnapshot().symbols.getByJVMName(className);
 	}
 
 	/**
@@ -691,18 +1983,9 @@ public class ClassDiscovery {
 	 * @return
 	 */
 	public Set<ClassMirror<?>> getClassesWithAnnotation(Class<? extends Annotation> annotation) {
-		if(classAnnotationCache.containsKey(annotation)) {
-			return new HashSet<>(classAnnotationCache.get(annotation));
-		}
-		doDiscovery();
-		Set<ClassMirror<?>> mirrors = new HashSet<>();
-		for(ClassMirror<?> m : getKnownClasses()) {
-			if(m.hasAnnotation(annotation)) {
-				mirrors.add(m);
-			}
-		}
-		classAnnotationCache.put(annotation, mirrors);
-		return mirrors;
+		return timeQuery(DiscoveryMetrics.QueryType.CLASSES_WITH_ANNOTATION, () -> {
+			return new HashSet<>(getSnapshot().annotations.getClasses(ClassUtils.getJVMName(annotation)));
+		});
 	}
 
 	/**
@@ -715,18 +1998,21 @@ public class ClassDiscovery {
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> Set<ClassMirror<? extends T>> getClassesWithAnnotationThatExtend(Class<? extends Annotation> annotation, Class<T> superClass) {
-		Set<ClassMirror<? extends T>> mirrors = new HashSet<>();
-		for(ClassMirror<?> c : getClassesWithAnnotation(annotation)) {
-			if(doesClassExtend(c, superClass)) {
-				mirrors.add((ClassMirror<T>) c);
+		return timeQuery(DiscoveryMetrics.QueryType.CLASSES_WITH_ANNOTATION_THAT_EXTEND, () -> {
+			Set<ClassMirror<? extends T>> mirrors = new HashSet<>();
+			//Run the query directly, so that this isn't recorded as a separate query as well
+			Iterator<ClassMirror<?>> it = runQuery(query().withAnnotation(annotation).thatExtend(superClass))
+					.iterator();
+			while(it.hasNext()) {
+				mirrors.add((ClassMirror<? extends T>) it.next());
 			}
-		}
-		if(superClass.getAnnotation(annotation) != null) {
-			// The mechanism above won't automatically add this class, so we need to add it
-			// ourselves here.
-			mirrors.add(new ClassMirror<>(superClass));
-		}
-		return mirrors;
+			if(superClass.getAnnotation(annotation) != null) {
+				// The mechanism above won't automatically add this class, so we need to add it
+				// ourselves here.
+				mirrors.add(new ClassMirror<>(superClass));
+			}
+			return mirrors;
+		});
 	}
 
 	/**
@@ -811,20 +2097,9 @@ public class ClassDiscovery {
 	 * @return
 	 */
 	public Set<FieldMirror> getFieldsWithAnnotation(Class<? extends Annotation> annotation) {
-		if(fieldAnnotationCache.containsKey(annotation)) {
-			return new HashSet<>(fieldAnnotationCache.get(annotation));
-		}
-		doDiscovery();
-		Set<FieldMirror> mirrors = new HashSet<>();
-		for(ClassMirror<?> m : getKnownClasses()) {
-			for(FieldMirror f : m.getFields()) {
-				if(f.hasAnnotation(annotation)) {
-					mirrors.add(f);
-				}
-			}
-		}
-		fieldAnnotationCache.put(annotation, mirrors);
-		return mirrors;
+		return timeQuery(DiscoveryMetrics.QueryType.FIELDS_WITH_ANNOTATION, () -> {
+			return new HashSet<>(getSnapshot().annotations.getFields(ClassUtils.getJVMName(annotation)));
+		});
 	}
 
 	/**
@@ -834,20 +2109,9 @@ public class ClassDiscovery {
 	 * @return
 	 */
 	public Set<MethodMirror> getMethodsWithAnnotation(Class<? extends Annotation> annotation) {
-		if(methodAnnotationCache.containsKey(annotation)) {
-			return new HashSet<>(methodAnnotationCache.get(annotation));
-		}
-		doDiscovery();
-		Set<MethodMirror> mirrors = new HashSet<>();
-		for(ClassMirror<?> m : getKnownClasses()) {
-			for(MethodMirror mm : m.getMethods()) {
-				if(mm.hasAnnotation(annotation)) {
-					mirrors.add(mm);
-				}
-			}
-		}
-		methodAnnotationCache.put(annotation, mirrors);
-		return mirrors;
+		return timeQuery(DiscoveryMetrics.QueryType.METHODS_WITH_ANNOTATION, () -> {
+			return new HashSet<>(getSnapshot().annotations.getMethods(ClassUtils.getJVMName(annotation)));
+		});
 	}
 
 	/**
@@ -885,26 +2149,212 @@ public class ClassDiscovery {
 	}
 
 	/**
-	 * Returns all ConstructorMirrors with the given annotation.
+	 * Loads, and optionally initializes, all the classes that extend the given type, as
+	 * {@link #loadClassesThatExtend(java.lang.Class, java.lang.ClassLoader, boolean)} does, except that if the
+	 * ClassLoader is parallel capable, the classes are loaded in parallel, on up to
+	 * {@link #getLoadParallelism()} threads. This is worth it when there are many classes, and their static
+	 * initializers are slow. Classes that fail to load don't stop the others from loading, and are reported in the
+	 * result, along with why they failed.
+	 *
+	 * Note that static initializers that depend on each other in a cycle can deadlock when they run on different
+	 * threads, so if that is a possibility, pass false for initialize.
+	 *
+	 * @param <T>
+	 * @param superType
+	 * @param loader
+	 * @param initialize
+	 * @return
+	 */
+	public <T> BatchLoadResult<ClassMirror<T>, Class<T>> batchLoadClassesThatExtend(Class<T> superType,
+			final ClassLoader loader, final boolean initialize) {
+		return batchLoad(getSubtypes(superType), loader, new BatchLoader<ClassMirror<T>, Class<T>>() {
+			@Override
+			public Class<T> load(ClassMirror<T> mirror) {
+				return mirror.loadClass(loader, initialize);
+			}
+		});
+	}
+
+	/**
+	 * Loads, and optionally initializes, all the classes with the given annotation, in parallel if the ClassLoader
+	 * allows it. See {@link #batchLoadClassesThatExtend(java.lang.Class, java.lang.ClassLoader, boolean)}.
+	 *
+	 * @param annotation
+	 * @param loader
+	 * @param initialize
+	 * @return
+	 */
+	public BatchLoadResult<ClassMirror<?>, Class<?>> batchLoadClassesWithAnnotation(
+			Class<? extends Annotation> annotation, final ClassLoader loader, final boolean initialize) {
+		return batchLoad(getClassesWithAnnotation(annotation), loader, new BatchLoader<ClassMirror<?>, Class<?>>() {
+			@Override
+			public Class<?> load(ClassMirror<?> mirror) {
+				return mirror.loadClass(loader, initialize);
+			}
+		});
+	}
+
+	/**
+	 * Loads all the methods with the given annotation, and optionally initializes their classes, in parallel if the
+	 * ClassLoader allows it. See {@link #batchLoadClassesThatExtend(java.lang.Class, java.lang.ClassLoader, boolean)}.
 	 *
 	 * @param annotation
+	 * @param loader
+	 * @param initialize
 	 * @return
 	 */
-	public Set<ConstructorMirror<?>> getConstructorsWithAnnotation(Class<? extends Annotation> annotation) {
-		if(constructorAnnotationCache.containsKey(annotation)) {
-			return new HashSet<>(constructorAnnotationCache.get(annotation));
-		}
-		doDiscovery();
-		Set<ConstructorMirror<?>> mirrors = new HashSet<>();
-		for(ClassMirror<?> m : getKnownClasses()) {
-			for(ConstructorMirror<?> mm : m.getConstructors()) {
-				if(mm.hasAnnotation(annotation)) {
-					mirrors.add(mm);
+	public BatchLoadResult<MethodMirror, Method> batchLoadMethodsWithAnnotation(Class<? extends Annotation> annotation,
+			final ClassLoader loader, final boolean initialize) {
+		return batchLoad(getMethodsWithAnnotation(annotation), loader, new BatchLoader<MethodMirror, Method>() {
+			@Override
+			public Method load(MethodMirror mirror) throws ClassNotFoundException {
+				return mirror.loadMethod(loader, initialize);
+			}
+		});
+	}
+
+	/**
+	 * Loads one mirror of a batch.
+	 */
+	private static interface BatchLoader<M, T> {
+
+		T load(M mirror) throws Exception;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <M, T> BatchLoadResult<M, T> batchLoad(Collection<? extends M> mirrors, ClassLoader loader,
+			final BatchLoader<M, T> batchLoader) {
+		final List<M> list = new ArrayList<>(mirrors);
+		final Object[] loaded = new Object[list.size()];
+		final Throwable[] failures = new Throwable[list.size()];
+		int threads = Math.min(loadParallelism, list.size());
+		if(threads > 1 && isParallelCapable(loader)) {
+			final ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+			ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "ClassDiscovery loader " + count.incrementAndGet());
+					t.setDaemon(true);
+					//Static initializers see the same context as they would on the calling thread
+					t.setContextClassLoader(contextLoader);
+					return t;
+				}
+			});
+			try {
+				List<Callable<Void>> tasks = new ArrayList<>(list.size());
+				for(int i = 0; i < list.size(); i++) {
+					final int index = i;
+					tasks.add(new Callable<Void>() {
+						@Override
+						public Void call() {
+							loadOne(batchLoader, list.get(index), index, loaded, failures);
+							return null;
+						}
+					});
 				}
+				pool.invokeAll(tasks);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while loading classes", ex);
+			} finally {
+				pool.shutdownNow();
+			}
+		} else {
+			for(int i = 0; i < list.size(); i++) {
+				loadOne(batchLoader, list.get(i), i, loaded, failures);
+			}
+		}
+		Map<M, T> loadedMap = new LinkedHashMap<>();
+		Map<M, Throwable> failureMap = new LinkedHashMap<>();
+		for(int i = 0; i < list.size(); i++) {
+			if(failures[i] != null) {
+				failureMap.put(list.get(i), failures[i]);
+			} else {
+				loadedMap.put(list.get(i), (T) loaded[i]);
+			}
+		}
+		return new BatchLoadResult<>(loadedMap, failureMap);
+	}
+
+	private static <M, T> void loadOne(BatchLoader<M, T> batchLoader, M mirror, int index, Object[] loaded,
+			Throwable[] failures) {
+		try {
+			loaded[index] = batchLoader.load(mirror);
+		} catch (Throwable ex) {
+			//Errors from a static initializer (an AssertionError, say) would otherwise be lost in the pool's Future
+			failures[index] = ex;
+		}
+	}
+
+	/**
+	 * ClassLoader.isRegisteredAsParallelCapable, which exists on Java 9 and later, or null.
+	 */
+	private static final Method IS_REGISTERED_AS_PARALLEL_CAPABLE;
+	/**
+	 * The private ClassLoader.parallelLockMap field, used on Java 8, or null if neither it nor the method exist.
+	 */
+	private static final Field PARALLEL_LOCK_MAP;
+
+	static {
+		Method method = null;
+		Field field = null;
+		try {
+			method = ClassLoader.class.getMethod("isRegisteredAsParallelCapable");
+		} catch (NoSuchMethodException ex) {
+			try {
+				field = ClassLoader.class.getDeclaredField("parallelLockMap");
+				field.setAccessible(true);
+			} catch (ReflectiveOperationException | RuntimeException ex1) {
+				field = null;
+			}
+		}
+		IS_REGISTERED_AS_PARALLEL_CAPABLE = method;
+		PARALLEL_LOCK_MAP = field;
+	}
+
+	/**
+	 * Returns true if the given ClassLoader is registered as parallel capable, that is, if it can load several
+	 * classes at once, rather than locking the whole loader for each class.
+	 * <p>
+	 * On Java 9 and later this asks ClassLoader.isRegisteredAsParallelCapable. Java 8 has no public way to ask, so
+	 * there this reads the private ClassLoader.parallelLockMap field, which is only set for parallel capable loaders.
+	 * That is a JDK 8 implementation detail; if neither is available, or the field can't be read, this returns false,
+	 * and batch loads fall back to loading serially. The reflective lookup is done once, when this class is
+	 * initialized.
+	 *
+	 * @param loader
+	 * @return
+	 */
+	/* package */ static boolean isParallelCapable(ClassLoader loader) {
+		if(loader == null) {
+			//The bootstrap loader
+			return true;
+		}
+		try {
+			if(IS_REGISTERED_AS_PARALLEL_CAPABLE != null) {
+				return (Boolean) IS_REGISTERED_AS_PARALLEL_CAPABLE.invoke(loader);
 			}
+			if(PARALLEL_LOCK_MAP != null) {
+				return PARALLEL_LOCK_MAP.get(loader) != null;
+			}
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			//Fall back to loading serially
 		}
-		constructorAnnotationCache.put(annotation, mirrors);
-		return mirrors;
+		return false;
+	}
+
+	/**
+	 * Returns all ConstructorMirrors with the given annotation.
+	 *
+	 * @param annotation
+	 * @return
+	 */
+	public Set<ConstructorMirror<?>> getConstructorsWithAnnotation(Class<? extends Annotation> annotation) {
+		return timeQuery(DiscoveryMetrics.QueryType.CONSTRUCTORS_WITH_ANNOTATION, () -> {
+			return new HashSet<>(getSnapshot().annotations.getConstructors(ClassUtils.getJVMName(annotation)));
+		});
 	}
 
 	/**
@@ -960,16 +2410,17 @@ public class ClassDiscovery {
 	 * @throws java.lang.ClassNotFoundException
 	 */
 	public ClassMirror<?> forName(String className) throws ClassNotFoundException {
-		if(forNameCache.containsKey(className)) {
-			return forNameCache.get(className);
-		}
-		for(ClassMirror<?> c : getKnownClasses()) {
-			if(c.getClassName().equals(className) || c.getJVMClassName().equals(className)) {
-				forNameCache.put(className, c);
-				return c;
+		return timeQuery(DiscoveryMetrics.QueryType.FOR_NAME, () -> {
+			Snapshot s = getSnapshot();
+			ClassMirror<?> c = s.symbols.getByClassName(className);
+			if(c == null) {
+				c = s.symbols.getByJVMName(className);
 			}
-		}
-		throw new ClassNotFoundException(className);
+			if(c == null) {
+				throw new ClassNotFoundException(className);
+			}
+			return c;
+		});
 	}
 
 	/**
@@ -995,39 +2446,50 @@ public class ClassDiscovery {
 	 * @return
 	 */
 	public ClassMirror<?> forFuzzyName(String packageRegex, String className, boolean initialize, ClassLoader classLoader) {
-		String index = packageRegex + className;
-		if(fuzzyClassCache.containsKey(index)) {
-			return fuzzyClassCache.get(index);
-		}
-		Set<ClassMirror<?>> found = new HashSet<>();
-		Set<ClassMirror<?>> searchSpace = getKnownClasses();
-		for(ClassMirror<?> c : searchSpace) {
-			if(c.getPackage().getName().matches(packageRegex) && c.getSimpleName().equals(className)) {
-				found.add(c);
-			}
-		}
-		ClassMirror<?> find;
-		if(found.size() == 1) {
-			find = found.iterator().next();
-		} else if(found.isEmpty()) {
-			find = null;
-		} else {
-			ClassMirror<?> candidate = null;
-			int max = Integer.MAX_VALUE;
-			for(ClassMirror<?> f : found) {
-				int distance = StringUtils.LevenshteinDistance(f.getPackage().getName(), packageRegex);
-				if(distance < max) {
-					candidate = f;
-					max = distance;
+		return timeQuery(DiscoveryMetrics.QueryType.FOR_FUZZY_NAME, () -> {
+			String index = packageRegex + className;
+			Snapshot s = getSnapshot();
+			Optional<ClassMirror<?>> cached = s.fuzzyClassCache.get(index);
+			if(cached != null) {
+				return cached.orElse(null);
+			}
+			Pattern pattern = packagePatterns.get(packageRegex);
+			if(pattern == null) {
+				pattern = Pattern.compile(packageRegex);
+				packagePatterns.put(packageRegex, pattern);
+			}
+			//Only the classes with the right simple name need to be checked against the package regex
+			Set<ClassMirror<?>> found = new HashSet<>();
+			for(ClassMirror<?> c : s.symbols.getBySimpleName(className)) {
+				PackageMirror p = c.getPackage();
+				if(pattern.matcher(p == null ? "" : p.getName()).matches()) {
+					found.add(c);
 				}
 			}
-			find = candidate;
-		}
-		fuzzyClassCache.put(index, find);
-		return find;
+			ClassMirror<?> find;
+			if(found.size() == 1) {
+				find = found.iterator().next();
+			} else if(found.isEmpty()) {
+				find = null;
+			} else {
+				ClassMirror<?> candidate = null;
+				int max = Integer.MAX_VALUE;
+				for(ClassMirror<?> f : found) {
+					PackageMirror p = f.getPackage();
+					int distance = StringUtils.LevenshteinDistance(p == null ? "" : p.getName(), packageRegex);
+					if(distance < max) {
+						candidate = f;
+						max = distance;
+					}
+				}
+				find = candidate;
+			}
+			s.fuzzyClassCache.put(index, Optional.ofNullable(find));
+			return find;
+		});
 	}
 
-	private static void descend(File start, List<File> fileList) {
+	/* package */ static void descend(File start, List<File> fileList) {
 		if(start.isFile()) {
 			if(start.getName().endsWith(".class")) {
 				fileList.add(start);
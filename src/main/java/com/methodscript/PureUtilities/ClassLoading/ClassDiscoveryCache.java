@@ -1,17 +1,35 @@
 package com.methodscript.PureUtilities.ClassLoading;
 
-import com.methodscript.PureUtilities.Common.StringUtils;
 import com.methodscript.PureUtilities.ProgressIterator;
 import com.methodscript.PureUtilities.ZipReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FilenameFilter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLDecoder;
-import java.security.MessageDigest;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.logging.Level;
@@ -23,6 +41,9 @@ import java.util.zip.ZipOutputStream;
  * This file represents a location on disk that can be used by the ClassDiscovery class to facilitate caching. Files
  * will be automatically managed by this class, and it provides high level functions for getting a cache, regardless of
  * whether or not it actually exists yet.
+ *
+ * The cache directory can be shared by several processes at once. Only one of them scans any given jar, while the
+ * others wait for it to publish the cache file, and then read that.
  */
 public class ClassDiscoveryCache {
 
@@ -35,17 +56,30 @@ public class ClassDiscoveryCache {
 	public static final String OUTPUT_FILENAME = "jarInfo.ser";
 
 	/**
-	 * How much of the file we read in to hash to check for collisions.
-	 *
-	 * TODO: This is probably bugged. It would be better to read the full
-	 * central directory from the zip file, and hash that instead, as that
-	 * is a guaranteed accurate summary of the whole zip file.
+	 * The extension of cache files that are written uncompressed, so that they can be memory mapped.
+	 */
+	private static final String MAPPED_EXTENSION = ".mirrors";
+	/**
+	 * The extension of the lock file for each cache file.
+	 */
+	private static final String LOCK_EXTENSION = ".lock";
+	/**
+	 * The extension of cache files that are still being written.
 	 */
-	private static final int READ_SIZE = 2048;
+	private static final String TEMP_EXTENSION = ".tmp";
+	private static final long LOCK_POLL_INTERVAL = 50;
 
 	private final File cacheDir;
+	private final CacheKeyIndex keys;
 	private ProgressIterator progress;
 	private Logger logger;
+	private boolean memoryMapped = false;
+	/**
+	 * The cache files that are queued or being written, by file.
+	 */
+	private final Map<File, Future<?>> pendingWrites = new HashMap<>();
+	private ExecutorService writer;
+	private volatile long lockTimeout = 30000;
 
 	/**
 	 * Creates a new ClassDiscoveryCache. The File is the location on disk which is used to write the cache files to.
@@ -54,6 +88,7 @@ public class ClassDiscoveryCache {
 	 */
 	public ClassDiscoveryCache(File cacheDir) {
 		this.cacheDir = cacheDir;
+		this.keys = new CacheKeyIndex(cacheDir);
 	}
 
 	/**
@@ -65,11 +100,35 @@ public class ClassDiscoveryCache {
 		this.logger = logger;
 	}
 
+	/**
+	 * Sets whether or not the cache files are memory mapped. If true, cache files are written uncompressed, and when
+	 * read back in, are mapped into memory rather than read. Only the class headers are read up front, and the
+	 * fields, methods and generics of each class are read from the mapped file the first time they are needed, so
+	 * loading a cached jar is nearly free, and classes that are never inspected closely never take up heap. The
+	 * mapped and compressed cache files are stored separately, so switching modes will cause a one time rescan.
+	 *
+	 * @param memoryMapped
+	 */
+	public void setMemoryMapped(boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * Returns whether or not the cache files are memory mapped.
+	 *
+	 * @return
+	 */
+	public boolean isMemoryMapped() {
+		return memoryMapped;
+	}
+
 	/**
 	 * Given a file location, retrieves the ClassDiscoveryURLCache from it. If it is a jar, the file is hashed, and
-	 * checked for a local cache copy, and if one exists, that cache is returned. If not, the jar is scanned for a
-	 * jarInfo.ser. If one exists, it is returned. Otherwise, the jar is scanned, a local cache is saved to disk, then
-	 * returned.
+	 * checked for a local cache copy, and if one exists, that cache is returned. The full contents of the jar are
+	 * hashed, but the hash is remembered along with the size and modification time of the jar, so unchanged jars are
+	 * only hashed once, even across restarts. If not, the jar is scanned for a
+	 * jarInfo.ser. If one exists, it is returned. Otherwise, the jar is scanned, and returned right away, while the
+	 * local cache is saved to disk in the background. See {@link #flush()}.
 	 *
 	 * No exceptions will be thrown from this class, if something fails, it will fall back to ultimately just
 	 * regenerating the cache from source.
@@ -85,24 +144,14 @@ public class ClassDiscoveryCache {
 			try {
 				File jarFile = new File(URLDecoder.decode(fromClassLocation.getFile(), "UTF8"));
 
-				byte[] data;
-				try(FileInputStream fis = new FileInputStream(jarFile)) {
-					data = new byte[READ_SIZE];
-					fis.read(data);
-				}
-
-				MessageDigest digest = java.security.MessageDigest.getInstance("MD5");
-				digest.update(data);
-
-				String fileName = StringUtils.toHex(digest.digest());
-				cacheOutputName = new File(cacheDir, fileName);
-				if(cacheOutputName.exists()) {
-					//Cool, already exists, so we'll just return this.
-					//Note that we write the data out as a zip, since it is
-					//huge otherwise, and compresses quite well, so we have
-					//to read it in as a zip now.
-					ZipReader cacheReader = new ZipReader(new File(cacheOutputName, "data"));
-					return new ClassDiscoveryURLCache(fromClassLocation, cacheReader.getInputStream());
+				String fileName = keys.getKey(jarFile);
+				//If the cache for this jar is still being written, it is quicker to wait for it than to scan again
+				awaitWrite(new File(cacheDir, fileName + MAPPED_EXTENSION));
+				awaitWrite(new File(cacheDir, fileName));
+				cacheOutputName = new File(cacheDir, fileName + (memoryMapped ? MAPPED_EXTENSION : ""));
+				ClassDiscoveryURLCache cache = read(fromClassLocation, cacheOutputName);
+				if(cache != null) {
+					return cache;
 				}
 				//Doesn't exist, but we set cacheOutputName, so it will save it there
 				//after it scans.
@@ -121,7 +170,9 @@ public class ClassDiscoveryCache {
 						InputStream is = jfile.getInputStream(entry);
 
 						try {
-							return new ClassDiscoveryURLCache(fromClassLocation, is);
+							ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(fromClassLocation, is);
+							cache.setSource(DiscoveryMetrics.ScanSource.JAR_INDEX);
+							return cache;
 						} catch (Exception ex) {
 							//Do nothing, we'll just re-load from disk.
 						}
@@ -131,27 +182,42 @@ public class ClassDiscoveryCache {
 				Logger.getLogger(ClassDiscoveryCache.class.getName()).log(Level.SEVERE, null, ex);
 			}
 
+			CacheLock lock = null;
+			if(cacheOutputName != null) {
+				//Another process that shares the cache directory may be scanning this jar right now, in which case
+				//it's quicker to wait for it to publish the cache, than to scan the jar again.
+				lock = lock(cacheOutputName);
+				try {
+					ClassDiscoveryURLCache published = read(fromClassLocation, cacheOutputName);
+					if(published != null) {
+						if(lock != null) {
+							lock.release();
+						}
+						return published;
+					}
+				} catch (Exception ex) {
+					//Scan it after all
+				}
+			}
+
 			if(logger != null) {
 				logger.log(Level.INFO, "Performing one time scan of {0}, this may take a few moments.", fromClassLocation);
 			}
 
-			ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(fromClassLocation, progress);
+			ClassDiscoveryURLCache cache;
+			try {
+				cache = new ClassDiscoveryURLCache(fromClassLocation, progress);
+			} catch (RuntimeException | Error ex) {
+				if(lock != null) {
+					lock.release();
+				}
+				throw ex;
+			}
 
 			if(cacheOutputName != null) {
-				try {
-					try(ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(cacheOutputName, false))) {
-						zos.putNextEntry(new ZipEntry("data"));
-						cache.writeDescriptor(zos);
-					}
-				} catch (IOException ex) {
-					//Well, we couldn't write it out, so report the error, but continue anyways.
-					if(logger != null) {
-						logger.log(Level.SEVERE, null, ex);
-					} else {
-						//Report errors even if the logger passed in is null.
-						Logger.getLogger(ClassDiscoveryCache.class.getName()).log(Level.SEVERE, null, ex);
-					}
-				}
+				//The caller doesn't need the file, so compressing and writing it is left to the background. The lock
+				//is held until the file is published.
+				write(cache, cacheOutputName, memoryMapped, lock);
 			}
 
 			return cache;
@@ -163,4 +229,295 @@ public class ClassDiscoveryCache {
 	public void setProgressIterator(ProgressIterator progress) {
 		this.progress = progress;
 	}
+
+	/**
+	 * Sets how long to wait for another process (or thread) that is scanning the same jar to publish its cache,
+	 * before giving up, and scanning the jar here as well. The default is 30 seconds.
+	 *
+	 * @param lockTimeout The timeout, in milliseconds
+	 */
+	public void setLockTimeout(long lockTimeout) {
+		this.lockTimeout = lockTimeout;
+	}
+
+	/**
+	 * Returns how long to wait for another process that is scanning the same jar, in milliseconds.
+	 *
+	 * @return
+	 */
+	public long getLockTimeout() {
+		return lockTimeout;
+	}
+
+	/**
+	 * Reads the given cache file, or returns null if it doesn't exist.
+	 */
+	private static ClassDiscoveryURLCache read(URL fromClassLocation, File cacheOutputName) throws Exception {
+		if(!cacheOutputName.exists()) {
+			return null;
+		}
+		ClassDiscoveryURLCache cache;
+		if(cacheOutputName.getName().endsWith(MAPPED_EXTENSION)) {
+			//The mapped files aren't compressed, so the members can be read
+			//straight out of the mapping, only when they're needed.
+			cache = new ClassDiscoveryURLCache(fromClassLocation, map(cacheOutputName));
+		} else {
+			//Cool, already exists, so we'll just return this.
+			//Note that we write the data out as a zip, since it is
+			//huge otherwise, and compresses quite well, so we have
+			//to read it in as a zip now.
+			ZipReader cacheReader = new ZipReader(new File(cacheOutputName, "data"));
+			cache = new ClassDiscoveryURLCache(fromClassLocation, cacheReader.getInputStream());
+		}
+		cache.setSource(DiscoveryMetrics.ScanSource.DISK_CACHE);
+		return cache;
+	}
+
+	/**
+	 * Takes the lock for the given cache file, which is held by whoever is scanning the jar and writing the file, in
+	 * any process that shares the cache directory. If someone else holds it, this waits until they release it, or the
+	 * file is published, or the lock timeout elapses, whichever comes first.
+	 *
+	 * Locks are taken with {@link FileLock} on a separate lock file, which is never deleted. The operating system
+	 * releases the lock if the process holding it dies, so a crashed process can't leave a stale lock behind, and a
+	 * process that hangs is only waited for until the timeout. Temporary files that a crashed process left behind are
+	 * deleted once the lock is taken.
+	 *
+	 * @param output
+	 * @return The lock, or null if the file was published in the meantime, or the lock couldn't be taken.
+	 */
+	private CacheLock lock(File output) {
+		File lockFile = new File(output.getPath() + LOCK_EXTENSION);
+		long deadline = System.currentTimeMillis() + lockTimeout;
+		try {
+			cacheDir.mkdirs();
+			while(true) {
+				FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE,
+						StandardOpenOption.WRITE);
+				FileLock lock = null;
+				try {
+					lock = channel.tryLock();
+				} catch (OverlappingFileLockException ex) {
+					//Another thread in this process holds it
+				} finally {
+					if(lock == null) {
+						channel.close();
+					}
+				}
+				if(lock != null) {
+					deleteAbandonedFiles(output);
+					return new CacheLock(channel, lock);
+				}
+				if(output.exists() || System.currentTimeMillis() >= deadline) {
+					return null;
+				}
+				Thread.sleep(LOCK_POLL_INTERVAL);
+			}
+		} catch (IOException ex) {
+			//Locking isn't supported here, so just go without.
+			return null;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+
+	/**
+	 * Deletes the temporary files that were left behind by writers of the given file that didn't finish. Only files
+	 * older than the lock timeout are deleted, since a process that gave up waiting for the lock may still be writing
+	 * its own.
+	 */
+	private void deleteAbandonedFiles(final File output) {
+		File[] abandoned = cacheDir.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(output.getName()) && name.endsWith(TEMP_EXTENSION);
+			}
+		});
+		if(abandoned != null) {
+			for(File f : abandoned) {
+				if(f.lastModified() < System.currentTimeMillis() - lockTimeout) {
+					f.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A lock taken by {@link #lock(java.io.File)}.
+	 */
+	private static final class CacheLock {
+
+		private final FileChannel channel;
+		private final FileLock lock;
+
+		CacheLock(FileChannel channel, FileLock lock) {
+			this.channel = channel;
+			this.lock = lock;
+		}
+
+		void release() {
+			try {
+				lock.release();
+				channel.close();
+			} catch (IOException ex) {
+				//Closing the channel releases the lock anyways
+				try {
+					channel.close();
+				} catch (IOException ex1) {
+					//
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queues the given cache to be written to the given file, on the writer thread. The cache is written to a
+	 * temporary file first, and moved into place once it is complete, so that if the process exits part way through,
+	 * or the write fails, the file is either complete or doesn't exist at all.
+	 */
+	private void write(final ClassDiscoveryURLCache cache, final File output, final boolean uncompressed,
+			final CacheLock lock) {
+		synchronized(pendingWrites) {
+			if(writer == null) {
+				writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "ClassDiscoveryCache writer");
+						//Writes that haven't finished by exit are simply done again next time.
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+			pendingWrites.put(output, writer.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						writeNow(cache, output, uncompressed);
+					} catch (IOException ex) {
+						//Well, we couldn't write it out, so report the error, but continue anyways.
+						if(logger != null) {
+							logger.log(Level.SEVERE, null, ex);
+						} else {
+							//Report errors even if the logger passed in is null.
+							Logger.getLogger(ClassDiscoveryCache.class.getName()).log(Level.SEVERE, null, ex);
+						}
+					} finally {
+						if(lock != null) {
+							lock.release();
+						}
+						synchronized(pendingWrites) {
+							pendingWrites.remove(output);
+						}
+					}
+				}
+			}));
+		}
+	}
+
+	private static void writeNow(ClassDiscoveryURLCache cache, File output, boolean uncompressed) throws IOException {
+		File dir = output.getParentFile();
+		dir.mkdirs();
+		File temp = File.createTempFile(output.getName(), TEMP_EXTENSION, dir);
+		try {
+			if(uncompressed) {
+				cache.writeDescriptor(new BufferedOutputStream(new FileOutputStream(temp, false)));
+			} else {
+				try(ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(temp, false))) {
+					zos.putNextEntry(new ZipEntry("data"));
+					cache.writeDescriptor(zos);
+				}
+			}
+			try {
+				Files.move(temp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Waits for the given file to be written, if it is queued or being written.
+	 */
+	private void awaitWrite(File output) {
+		Future<?> pending;
+		synchronized(pendingWrites) {
+			pending = pendingWrites.get(output);
+		}
+		if(pending != null) {
+			try {
+				pending.get();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				//Already reported by the writer
+			}
+		}
+	}
+
+	/**
+	 * Cache files are written in the background, so that {@link #getURLCache(java.net.URL)} doesn't have to wait for
+	 * them. This waits until all the cache files that were queued so far are on disk. Tools that exit right after
+	 * discovery should call this first, otherwise the files that were still being written are simply written again
+	 * the next time.
+	 *
+	 * @throws InterruptedException
+	 */
+	public void flush() throws InterruptedException {
+		flush(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Writes the index of the keys of the jars, if any were added since it was last written. This is done once
+	 * discovery is done, rather than for every jar, and by {@link #flush()}.
+	 */
+	/* package */ void flushKeys() {
+		try {
+			keys.flush();
+		} catch (IOException ex) {
+			//The keys are just computed again next time.
+			if(logger != null) {
+				logger.log(Level.WARNING, null, ex);
+			}
+		}
+	}
+
+	/**
+	 * Waits until all the cache files that were queued so far are on disk, or the timeout elapses, after writing the
+	 * index of the keys of the jars. See {@link #flush()}.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return True if all the files were written, false if the timeout elapsed first
+	 * @throws InterruptedException
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		flushKeys();
+		List<Future<?>> pending;
+		synchronized(pendingWrites) {
+			pending = new ArrayList<>(pendingWrites.values());
+		}
+		long deadline = System.nanoTime() + Math.min(unit.toNanos(timeout), Long.MAX_VALUE / 2);
+		for(Future<?> f : pending) {
+			try {
+				f.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			} catch (ExecutionException ex) {
+				//Already reported by the writer
+			} catch (TimeoutException ex) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
 }
@@ -0,0 +1,66 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.Common.StreamUtils;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Generates the {@link ClassDiscoveryCache#OUTPUT_FILENAME} file for a directory of compiled classes, at build time.
+ * When the file is placed in the root of the classes directory before the jar is built, it ships inside the jar, and
+ * {@link ClassDiscoveryCache#getURLCache(java.net.URL)} reads it instead of scanning the jar, so that even the first
+ * start on a new machine doesn't have to scan it.
+ *
+ * This is meant to be run from the build, for instance with the exec-maven-plugin in the process-classes phase, with
+ * the classes directory as both arguments. See the README for details.
+ */
+public class ClassDiscoveryCacheGenerator {
+
+	private ClassDiscoveryCacheGenerator() {
+	}
+
+	/**
+	 * The first argument is the directory to write the file to, the second is the directory of classes to scan. If
+	 * only one argument is given, it is used for both.
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 1 || args.length > 2) {
+			StreamUtils.GetSystemErr().println("Usage: " + ClassDiscoveryCacheGenerator.class.getName()
+					+ " <output directory> [<classes directory>]");
+			System.exit(1);
+		}
+		File outputDir = new File(args[0]);
+		File scanDir = new File(args.length == 2 ? args[1] : args[0]);
+		generate(scanDir, outputDir);
+	}
+
+	/**
+	 * Scans the given directory of classes, and writes the {@link ClassDiscoveryCache#OUTPUT_FILENAME} file for it to
+	 * the output directory.
+	 *
+	 * @param scanDir The directory of classes to scan
+	 * @param outputDir The directory to write the file to. This is usually the same as scanDir, so that the file ends
+	 * up in the root of the jar.
+	 * @return The cache that was written
+	 * @throws IOException If the file can't be written
+	 */
+	public static ClassDiscoveryURLCache generate(File scanDir, File outputDir) throws IOException {
+		StreamUtils.GetSystemOut().println("-- Caching class discovery information --");
+		StreamUtils.GetSystemOut().println("Scanning for classes in " + scanDir.getAbsolutePath());
+		StreamUtils.GetSystemOut().println("Outputting file to directory " + outputDir.getAbsolutePath());
+		long start = System.currentTimeMillis();
+		URL url = new URL("file:" + scanDir.getCanonicalPath());
+		ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(url);
+		outputDir.mkdirs();
+		File output = new File(outputDir, ClassDiscoveryCache.OUTPUT_FILENAME);
+		cache.writeDescriptor(new BufferedOutputStream(new FileOutputStream(output)));
+		StreamUtils.GetSystemOut().println("Done writing " + ClassDiscoveryCache.OUTPUT_FILENAME + " ("
+				+ cache.getClasses().size() + " classes), which took " + (System.currentTimeMillis() - start) + " ms.");
+		return cache;
+	}
+}
@@ -1,24 +1,30 @@
 package com.methodscript.PureUtilities.ClassLoading;
 
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirrorFormat;
 import com.methodscript.PureUtilities.Common.ReflectionUtils;
+import com.methodscript.PureUtilities.Common.StreamUtils;
 import com.methodscript.PureUtilities.ProgressIterator;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * This file represents a jar, and can tell you what annotations are available on each class, method, and field. This
- * class has methods to serialize and deserialize from json, a descriptor, which can be used to rebuild this class with.
+ * class has methods to serialize and deserialize a descriptor, which can be used to rebuild this class with. The
+ * descriptor is written in the compact {@link ClassMirrorFormat}.
  */
 public class ClassDiscoveryURLCache {
 
 	private final List<ClassMirror<?>> list;
+	private DiscoveryMetrics.ScanSource source = DiscoveryMetrics.ScanSource.PRECACHE;
+	private long bytesRead = 0;
 
 	/**
 	 * Creates a new ClassDiscoveryURLCache. This operation may take a long time, depending on the size of the url that
@@ -45,17 +51,23 @@ public class ClassDiscoveryURLCache {
 		//Double check to ensure that this is null, otherwise
 		//we would get stuck in an infinite loop.
 		discovery.setClassDiscoveryCache(null);
+		//Every class is written to the cache in full, so reading the members lazily would just read each file twice
+		discovery.setLazyMembers(false);
+		discovery.countBytesRead();
 		discovery.addDiscoveryLocation(url);
 
 		for(ClassMirror m : discovery.getKnownClasses(url)) {
 			ReflectionUtils.set(ClassMirror.class, m, "originalURL", url);
 			list.add(m);
 		}
+		source = DiscoveryMetrics.ScanSource.SCAN;
+		bytesRead = discovery.getBytesRead(url);
 	}
 
 	/**
 	 * Creates a new ClassDiscoveryURLCache object from a descriptor that was created earlier with writeDescriptor. The
 	 * url may be null, but if provided, will be used as a fallback in case an error occurs with the descriptor.
+	 * Descriptors written by older versions, using java serialization, are still accepted.
 	 *
 	 * @param url
 	 * @param descriptor
@@ -63,9 +75,99 @@ public class ClassDiscoveryURLCache {
 	 * @throws java.lang.ClassNotFoundException
 	 */
 	public ClassDiscoveryURLCache(URL url, InputStream descriptor) throws IOException, ClassNotFoundException {
+		byte[] data;
+		try {
+			data = StreamUtils.GetBytes(descriptor);
+		} finally {
+			descriptor.close();
+		}
+		bytesRead = data.length;
+		ByteBuffer buffer = ByteBuffer.wrap(data);
 		List<ClassMirror<?>> list;
-		ObjectInputStream ois = new ObjectInputStream(descriptor);
+		if(ClassMirrorFormat.hasMagic(buffer)) {
+			list = readMirrors(url, buffer, false, true);
+		} else {
+			list = readLegacy(url, data);
+		}
+		this.list = list;
+	}
+
+	/**
+	 * Creates a new ClassDiscoveryURLCache object from a descriptor that was created earlier with writeDescriptor,
+	 * which is already in memory, or is memory mapped. Only the class headers are read immediately, the fields,
+	 * methods and generics of each class are read from the buffer when they are first needed, so the buffer must not
+	 * be modified afterwards. The url may be null, but if provided, will be used as a fallback in case the descriptor
+	 * was written by a different version.
+	 *
+	 * @param url
+	 * @param descriptor
+	 * @throws IOException
+	 */
+	public ClassDiscoveryURLCache(URL url, ByteBuffer descriptor) throws IOException {
+		this(url, descriptor, true);
+	}
+
+	/**
+	 * Creates a new ClassDiscoveryURLCache object from a descriptor which is already in memory, as with
+	 * {@link #ClassDiscoveryURLCache(java.net.URL, java.nio.ByteBuffer)}, but the url is only used as the container
+	 * of the classes if rescan is false, so a descriptor that can't be read causes an IOException, rather than the url
+	 * being scanned.
+	 *
+	 * @param url
+	 * @param descriptor
+	 * @param rescan Whether to scan the url if the descriptor can't be read
+	 * @throws IOException
+	 */
+	/* package */ ClassDiscoveryURLCache(URL url, ByteBuffer descriptor, boolean rescan) throws IOException {
+		bytesRead = descriptor.remaining();
+		this.list = readMirrors(url, descriptor, true, rescan);
+	}
+
+	/**
+	 * Where the classes in this cache came from. Caches created from a descriptor are assumed to be a
+	 * {@link DiscoveryMetrics.ScanSource#PRECACHE}, unless whoever created them says otherwise.
+	 */
+	/* package */ DiscoveryMetrics.ScanSource getSource() {
+		return source;
+	}
+
+	/* package */ void setSource(DiscoveryMetrics.ScanSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * The number of bytes that were read to create this cache, either of the descriptor, or of the class files.
+	 */
+	/* package */ long getBytesRead() {
+		return bytesRead;
+	}
+
+	private static List<ClassMirror<?>> readMirrors(URL url, ByteBuffer buffer, boolean lazyMembers, boolean rescan)
+			throws IOException {
+		ClassMirrorFormat.Reader reader;
 		try {
+			reader = new ClassMirrorFormat.Reader(buffer, url, lazyMembers);
+		} catch (IOException ex) {
+			if(url != null && rescan) {
+				//Probably written by a different version, we can recover from this one, but it won't be instant.
+				return new ClassDiscoveryURLCache(url).list;
+			}
+			throw ex;
+		}
+		List<ClassMirror<?>> list = new ArrayList<>(reader.size());
+		try {
+			while(reader.hasNext()) {
+				list.add(reader.next());
+			}
+		} catch (IllegalStateException ex) {
+			throw new IOException(ex);
+		}
+		return list;
+	}
+
+	private static List<ClassMirror<?>> readLegacy(URL url, byte[] data) throws IOException, ClassNotFoundException {
+		List<ClassMirror<?>> list;
+		try(ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
 			list = (List<ClassMirror<?>>) ois.readObject();
 		} catch (ClassNotFoundException ex) {
 			if(url != null) {
@@ -75,19 +177,26 @@ public class ClassDiscoveryURLCache {
 				throw ex;
 			}
 		}
-		ois.close();
 
 		for(ClassMirror m : list) {
 			ReflectionUtils.set(ClassMirror.class, m, "originalURL", url);
 		}
-
-		this.list = list;
+		return list;
 	}
 
+	/**
+	 * Writes this cache out in the {@link ClassMirrorFormat} format, which can be read back in with
+	 * {@link #ClassDiscoveryURLCache(java.net.URL, java.io.InputStream)}. The stream is closed afterwards.
+	 *
+	 * @param out
+	 * @throws IOException
+	 */
 	public void writeDescriptor(OutputStream out) throws IOException {
-		ObjectOutputStream oos = new ObjectOutputStream(out);
-		oos.writeObject(this.list);
-		oos.close();
+		try {
+			ClassMirrorFormat.write(this.list, out);
+		} finally {
+			out.close();
+		}
 	}
 
 	@Override
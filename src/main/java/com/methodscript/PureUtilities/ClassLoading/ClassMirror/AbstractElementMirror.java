@@ -193,9 +193,19 @@ abstract class AbstractElementMirror implements Serializable {
 	}
 
 	/* package */ void addAnnotation(AnnotationMirror annotation) {
+		if(!(annotations instanceof ArrayList)) {
+			annotations = new ArrayList<>(annotations);
+		}
 		annotations.add(annotation);
 	}
 
+	/**
+	 * Replaces the list of annotations with a compact copy, once all the annotations have been added.
+	 */
+	/* package */ void compact() {
+		annotations = MirrorInterner.compact(annotations);
+	}
+
 	@Override
 	public int hashCode() {
 		int hash = 5;
@@ -22,7 +22,7 @@ public class AnnotationMirror implements Serializable {
 	private static final long serialVersionUID = 1L;
 	private final ClassReferenceMirror type;
 	private final boolean visible;
-	private final List<AnnotationValue> values;
+	private List<AnnotationValue> values;
 
 	/**
 	 * Creates a new AnnotationMirror based an a loaded {@link Annotation}.
@@ -49,9 +49,19 @@ public class AnnotationMirror implements Serializable {
 	}
 
 	/* package */ void addAnnotationValue(String name, Object value) {
+		if(!(values instanceof ArrayList)) {
+			values = new ArrayList<>(values);
+		}
 		values.add(new AnnotationValue(name, value));
 	}
 
+	/**
+	 * Replaces the list of values with a compact copy, once all the values have been added.
+	 */
+	/* package */ void compact() {
+		values = MirrorInterner.compact(values);
+	}
+
 	/**
 	 * Returns the value for this annotation. Note that this won't resolve default annotations, as that requires
 	 * actually loading the annotation class into memory. See {@link #getValueWithDefault} if you are ok with loading
@@ -3,6 +3,8 @@ package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
 import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
 import com.methodscript.PureUtilities.Common.ClassUtils;
 import com.methodscript.PureUtilities.Common.StringUtils;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.annotation.RetentionPolicy;
@@ -306,7 +308,8 @@ public class ClassMirror<T> implements Serializable {
 			}
 			return fields;
 		}
-		return info.fields.toArray(new FieldMirror[info.fields.size()]);
+		List<FieldMirror> fields = info.getFieldList();
+		return fields.toArray(new FieldMirror[fields.size()]);
 	}
 
 	/**
@@ -328,8 +331,9 @@ public class ClassMirror<T> implements Serializable {
 		if(underlyingClass != null) {
 			throw new IllegalArgumentException("Cannot get generics of a real class");
 		}
-		Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> map = new HashMap<>(info.genericParameters.size());
-		for(Map.Entry<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> k : info.genericParameters.entrySet()) {
+		Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> generics = info.getGenericParameters();
+		Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> map = new HashMap<>(generics.size());
+		for(Map.Entry<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> k : generics.entrySet()) {
 			map.put(k.getKey(), new ArrayList<>(k.getValue()));
 		}
 		return map;
@@ -398,7 +402,31 @@ public class ClassMirror<T> implements Serializable {
 			}
 			return mirrors;
 		}
-		return info.methods.toArray(new AbstractMethodMirror[info.methods.size()]);
+		List<AbstractMethodMirror> methods = info.getMethodList();
+		return methods.toArray(new AbstractMethodMirror[methods.size()]);
+	}
+
+	/**
+	 * Returns true if any field, method or constructor in this class has an annotation. For mirrors whose members
+	 * haven't been read yet, this is answered without reading them.
+	 *
+	 * @return
+	 */
+	public boolean hasMemberAnnotations() {
+		if(underlyingClass == null && info.memberLoader != null) {
+			return info.hasMemberAnnotations;
+		}
+		for(FieldMirror f : getFields()) {
+			if(!f.getAnnotations().isEmpty()) {
+				return true;
+			}
+		}
+		for(AbstractMethodMirror m : getAllMethods()) {
+			if(!m.getAnnotations().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -605,6 +633,29 @@ public class ClassMirror<T> implements Serializable {
 		return Objects.equals(this.getJVMClassName(), other.getJVMClassName());
 	}
 
+	/**
+	 * Returns the underlying ClassInfo, or null if this mirror wraps an already loaded Class.
+	 *
+	 * @return
+	 */
+	/* package */ ClassInfo<T> getInfo() {
+		if(underlyingClass != null) {
+			return null;
+		}
+		info.ensureMembers();
+		return info;
+	}
+
+	/**
+	 * Returns the underlying ClassInfo, without reading its members, or null if this mirror wraps an already loaded
+	 * Class.
+	 *
+	 * @return
+	 */
+	/* package */ ClassInfo<T> getHeaderInfo() {
+		return underlyingClass == null ? info : null;
+	}
+
 	protected static class ClassInfo<T> implements Serializable {
 
 		private static final long serialVersionUID = 1L;
@@ -626,5 +677,134 @@ public class ClassMirror<T> implements Serializable {
 		 */
 		public Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> genericParameters
 				= new HashMap<>();
+		/**
+		 * If not null, the fields, methods and generic parameters haven't been read yet, and this is used to read
+		 * them the first time any of them are needed.
+		 */
+		public transient volatile MemberLoader memberLoader;
+		/**
+		 * Whether any member has annotations. This is only used while the members haven't been read yet.
+		 */
+		public transient boolean hasMemberAnnotations = false;
+		/**
+		 * If not null, the members may be dropped again after they are read, see {@link MemberCache}.
+		 */
+		public transient volatile MemberCache memberCache;
+
+		/**
+		 * Reads the fields, methods and generic parameters, if they haven't been read yet.
+		 */
+		public void ensureMembers() {
+			MemberCache cache = memberCache;
+			if(memberLoader == null) {
+				if(cache != null) {
+					cache.touch(this);
+				}
+				return;
+			}
+			MemberLoader loaded = null;
+			synchronized(this) {
+				MemberLoader loader = memberLoader;
+				if(loader != null) {
+					loader.load(this);
+					memberLoader = null;
+					loaded = loader;
+				}
+			}
+			if(cache != null && loaded != null) {
+				cache.loaded(this, loaded);
+			}
+		}
+
+		/**
+		 * Returns the fields, reading them first if needed. If the members may be dropped by a {@link MemberCache},
+		 * this must be used rather than the field, because the members could be dropped between reading them, and
+		 * accessing the field.
+		 *
+		 * @return
+		 */
+		public List<FieldMirror> getFieldList() {
+			while(true) {
+				ensureMembers();
+				synchronized(this) {
+					if(memberLoader == null) {
+						return fields;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the methods, reading them first if needed. See {@link #getFieldList()}.
+		 *
+		 * @return
+		 */
+		public List<AbstractMethodMirror> getMethodList() {
+			while(true) {
+				ensureMembers();
+				synchronized(this) {
+					if(memberLoader == null) {
+						return methods;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Returns the generic parameters, reading them first if needed. See {@link #getFieldList()}.
+		 *
+		 * @return
+		 */
+		public Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> getGenericParameters() {
+			while(true) {
+				ensureMembers();
+				synchronized(this) {
+					if(memberLoader == null) {
+						return genericParameters;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Drops the fields and methods, so that they are read again with the given loader the next time they are
+		 * needed. The generic parameters are kept, since they are part of the header of scanned classes. If the members
+		 * haven't been read, this does nothing.
+		 *
+		 * @param loader
+		 */
+		/* package */ synchronized void evictMembers(MemberLoader loader) {
+			if(memberLoader != null) {
+				return;
+			}
+			fields = new ArrayList<>();
+			methods = new ArrayList<>();
+			memberLoader = loader;
+		}
+
+		private void writeObject(ObjectOutputStream out) throws IOException {
+			while(true) {
+				ensureMembers();
+				synchronized(this) {
+					if(memberLoader == null) {
+						out.defaultWriteObject();
+						return;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills in the members of a ClassInfo whose members are read on demand.
+	 */
+	protected interface MemberLoader {
+
+		/**
+		 * Adds the fields, methods and generic parameters to the given ClassInfo.
+		 *
+		 * @param info
+		 */
+		void load(ClassInfo<?> info);
 	}
 }
@@ -0,0 +1,749 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, versioned binary format for a list of {@link ClassMirror}s. This is used by the discovery caches, and is
+ * much smaller and faster to read than java serialization of the same mirrors. It also doesn't depend on the
+ * serialVersionUIDs of the mirror classes, so changes to those classes don't invalidate existing caches, only a change
+ * to {@link #VERSION} does.
+ *
+ * <p>
+ * The {@link Reader} can also leave the members of each class in the buffer, and only read them when they're first
+ * needed. Combined with a memory mapped buffer, this means that only the class headers, which are what the discovery
+ * indexes use, are ever read for most classes.
+ *
+ * <p>
+ * The layout is:
+ * <pre>
+ * u4 magic, u2 version
+ * varint string count, then for each string: varint byte length, UTF-8 bytes
+ * varint class count, then for each class:
+ *	header: name, superclass, interfaces, modifiers, flags, class annotations
+ *	varint body length, body: generics, fields, methods
+ * </pre>
+ * All names and descriptors are written as varint indexes into the string table, so each distinct string, such as
+ * "Ljava/lang/String;", is only stored once per file. The body of each class is prefixed with its length, so readers
+ * that only need the header can skip over it. The flags in the header record whether any member has annotations, so
+ * that annotation queries can also skip the body of classes that have none.
+ */
+public final class ClassMirrorFormat {
+
+	/**
+	 * The first four bytes of every file in this format, "CDMF".
+	 */
+	public static final int MAGIC = 0x43444D46;
+	/**
+	 * The current version of the format. This must be incremented whenever the layout changes, and readers reject
+	 * any other version.
+	 */
+	public static final int VERSION = 2;
+
+	private static final int FLAG_INTERFACE = 1;
+	private static final int FLAG_ENUM = 2;
+	private static final int FLAG_MEMBER_ANNOTATIONS = 4;
+	private static final int FLAG_VARARGS = 1;
+	private static final int FLAG_SYNTHETIC = 2;
+	private static final int KIND_METHOD = 0;
+	private static final int KIND_CONSTRUCTOR = 1;
+
+	private static final int VALUE_NULL = 0;
+	private static final int VALUE_STRING = 1;
+	private static final int VALUE_INT = 2;
+	private static final int VALUE_LONG = 3;
+	private static final int VALUE_FLOAT = 4;
+	private static final int VALUE_DOUBLE = 5;
+	private static final int VALUE_BOOLEAN = 6;
+	private static final int VALUE_BYTE = 7;
+	private static final int VALUE_CHAR = 8;
+	private static final int VALUE_SHORT = 9;
+	private static final int VALUE_ARRAY = 10;
+	private static final int VALUE_SERIALIZED = 11;
+
+	private ClassMirrorFormat() {
+	}
+
+	/**
+	 * Returns true if the buffer starts with the magic number of this format. The position of the buffer is not
+	 * changed.
+	 *
+	 * @param buffer
+	 * @return
+	 */
+	public static boolean hasMagic(ByteBuffer buffer) {
+		return buffer.remaining() >= 4 && buffer.getInt(buffer.position()) == MAGIC;
+	}
+
+	/**
+	 * Writes the given mirrors to the output stream. The stream is not closed. Only mirrors that were created from
+	 * class files may be written, not ones that wrap a loaded Class.
+	 *
+	 * @param mirrors
+	 * @param out
+	 * @throws IOException
+	 */
+	public static void write(Collection<? extends ClassMirror<?>> mirrors, OutputStream out) throws IOException {
+		Encoder records = new Encoder();
+		records.writeVarInt(mirrors.size());
+		Encoder body = new Encoder(records.strings);
+		for(ClassMirror<?> mirror : mirrors) {
+			ClassMirror.ClassInfo<?> info = mirror.getInfo();
+			if(info == null) {
+				throw new IllegalArgumentException(mirror + " wraps a loaded class, and cannot be written");
+			}
+			records.writeString(info.name);
+			records.writeNullableString(info.superClass);
+			String[] interfaces = info.interfaces == null ? new String[0] : info.interfaces;
+			records.writeVarInt(interfaces.length);
+			for(String i : interfaces) {
+				records.writeString(i);
+			}
+			records.writeVarInt(info.modifiers.getModifiers());
+			records.write((info.isInterface ? FLAG_INTERFACE : 0) | (info.isEnum ? FLAG_ENUM : 0)
+					| (mirror.hasMemberAnnotations() ? FLAG_MEMBER_ANNOTATIONS : 0));
+			records.writeAnnotations(info.annotations);
+
+			body.reset();
+			Map<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> generics = info.getGenericParameters();
+			body.writeVarInt(generics.size());
+			for(Map.Entry<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> e : generics.entrySet()) {
+				body.writeString(e.getKey().getJVMName());
+				body.writeVarInt(e.getValue().size());
+				for(ClassReferenceMirror<?> r : e.getValue()) {
+					body.writeString(r.getJVMName());
+				}
+			}
+			List<FieldMirror> fields = info.getFieldList();
+			body.writeVarInt(fields.size());
+			for(FieldMirror f : fields) {
+				body.writeVarInt(f.getModifiers().getModifiers());
+				body.writeString(f.getType().getJVMName());
+				body.writeString(f.getName());
+				body.writeValue(f.getValue());
+				body.writeAnnotations(f.getAnnotations());
+			}
+			List<AbstractMethodMirror> methods = info.getMethodList();
+			body.writeVarInt(methods.size());
+			for(AbstractMethodMirror m : methods) {
+				body.write(m instanceof ConstructorMirror ? KIND_CONSTRUCTOR : KIND_METHOD);
+				body.writeVarInt(m.getModifiers().getModifiers());
+				body.writeString(m.getType().getJVMName());
+				body.writeString(m.getName());
+				List<ClassReferenceMirror> params = m.getParams();
+				body.writeVarInt(params.size());
+				for(ClassReferenceMirror p : params) {
+					body.writeString(p.getJVMName());
+				}
+				body.write((m.isVararg() ? FLAG_VARARGS : 0) | (m.isSynthetic() ? FLAG_SYNTHETIC : 0));
+				body.writeAnnotations(m.getAnnotations());
+			}
+			records.writeVarInt(body.size());
+			body.writeTo(records);
+		}
+
+		Encoder header = new Encoder();
+		header.writeInt(MAGIC);
+		header.writeShort(VERSION);
+		List<String> table = records.strings.list;
+		header.writeVarInt(table.size());
+		for(String s : table) {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			header.writeVarInt(bytes.length);
+			header.write(bytes, 0, bytes.length);
+		}
+		header.writeTo(out);
+		records.writeTo(out);
+		out.flush();
+	}
+
+	/**
+	 * Reads mirrors written by {@link #write}, one class at a time. Strings from the string table are only decoded
+	 * when a record that uses them is read, and each class is only decoded when {@link #next()} is called, so no more
+	 * of the object graph than the caller asks for is ever built. If lazy members are requested, the returned mirrors
+	 * keep a reference to this reader, and read their members from the buffer when first needed, so the buffer must
+	 * stay valid for as long as the mirrors are in use.
+	 */
+	public static final class Reader implements Iterator<ClassMirror<?>> {
+
+		private final ByteBuffer buffer;
+		private final URL source;
+		private final int[] stringOffsets;
+		private final int[] stringLengths;
+		private final String[] strings;
+		/**
+		 * The class references read so far, by string index, so that each one is only created once per file.
+		 */
+		private final ClassReferenceMirror<?>[] references;
+		private final int classCount;
+		private final boolean lazyMembers;
+		private int read = 0;
+
+		/**
+		 * Creates a new Reader. The header and the string table offsets are read immediately.
+		 *
+		 * @param buffer The buffer to read from, starting at its current position. The reader takes ownership of the
+		 * buffer's position.
+		 * @param source The URL that the classes were originally scanned from. This is what {@link
+		 * ClassMirror#getContainer()} returns for the mirrors.
+		 * @throws IOException If the buffer isn't in this format, or is a different version of it.
+		 */
+		public Reader(ByteBuffer buffer, URL source) throws IOException {
+			this(buffer, source, false);
+		}
+
+		/**
+		 * Creates a new Reader. The header and the string table offsets are read immediately.
+		 *
+		 * @param buffer The buffer to read from, starting at its current position. The reader takes ownership of the
+		 * buffer's position.
+		 * @param source The URL that the classes were originally scanned from.
+		 * @param lazyMembers If true, the fields, methods and generics of each class are only read when first needed.
+		 * @throws IOException If the buffer isn't in this format, or is a different version of it.
+		 */
+		public Reader(ByteBuffer buffer, URL source, boolean lazyMembers) throws IOException {
+			this.buffer = buffer;
+			this.source = source;
+			this.lazyMembers = lazyMembers;
+			if(buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+				throw new IOException("Not a class mirror file");
+			}
+			int version = buffer.getShort() & 0xFFFF;
+			if(version != VERSION) {
+				throw new IOException("Unsupported class mirror file version " + version + ", expected " + VERSION);
+			}
+			int count = readVarInt();
+			stringOffsets = new int[count];
+			stringLengths = new int[count];
+			strings = new String[count];
+			references = new ClassReferenceMirror<?>[count];
+			for(int i = 0; i < count; i++) {
+				stringLengths[i] = readVarInt();
+				stringOffsets[i] = buffer.position();
+				buffer.position(buffer.position() + stringLengths[i]);
+			}
+			classCount = readVarInt();
+		}
+
+		/**
+		 * Returns the total number of classes in this file.
+		 *
+		 * @return
+		 */
+		public int size() {
+			return classCount;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return read < classCount;
+		}
+
+		@Override
+		public synchronized ClassMirror<?> next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			read++;
+			try {
+				ClassMirror.ClassInfo<Object> info = new ClassMirror.ClassInfo<>();
+				info.name = readString();
+				info.superClass = readNullableString();
+				String[] interfaces = new String[readVarInt()];
+				for(int i = 0; i < interfaces.length; i++) {
+					interfaces[i] = readString();
+				}
+				info.interfaces = interfaces;
+				info.modifiers = new ModifierMirror(readVarInt());
+				int flags = buffer.get();
+				info.isInterface = (flags & FLAG_INTERFACE) != 0;
+				info.isEnum = (flags & FLAG_ENUM) != 0;
+				info.classReferenceMirror = new ClassReferenceMirror<>("L" + info.name + ";");
+				info.annotations = MirrorInterner.compact(readAnnotations());
+				int bodyLength = readVarInt();
+				if(lazyMembers) {
+					final int bodyOffset = buffer.position();
+					buffer.position(bodyOffset + bodyLength);
+					info.hasMemberAnnotations = (flags & FLAG_MEMBER_ANNOTATIONS) != 0;
+					info.memberLoader = new ClassMirror.MemberLoader() {
+						@Override
+						public void load(ClassMirror.ClassInfo<?> info) {
+							loadBody(bodyOffset, info);
+						}
+					};
+				} else {
+					readBody(info);
+				}
+				return new ClassMirror<>(info, source);
+			} catch (IOException | RuntimeException ex) {
+				throw new IllegalStateException("Corrupt class mirror file", ex);
+			}
+		}
+
+		private synchronized void loadBody(int offset, ClassMirror.ClassInfo<?> info) {
+			int position = buffer.position();
+			try {
+				buffer.position(offset);
+				readBody(info);
+			} catch (IOException | RuntimeException ex) {
+				throw new IllegalStateException("Corrupt class mirror file", ex);
+			} finally {
+				buffer.position(position);
+			}
+		}
+
+		private void readBody(ClassMirror.ClassInfo<?> info) throws IOException {
+			int generics = readVarInt();
+			for(int i = 0; i < generics; i++) {
+				ClassReferenceMirror<?> key = readReference();
+				int count = readVarInt();
+				List<ClassReferenceMirror<?>> list = new ArrayList<>(count);
+				for(int j = 0; j < count; j++) {
+					list.add(readReference());
+				}
+				info.genericParameters.put(key, MirrorInterner.compact(list));
+			}
+			info.genericParameters = MirrorInterner.compact(info.genericParameters);
+			int fields = readVarInt();
+			for(int i = 0; i < fields; i++) {
+				ModifierMirror modifiers = new ModifierMirror(readVarInt());
+				ClassReferenceMirror type = readReference();
+				String name = readString();
+				Object value = readValue();
+				FieldMirror f = new FieldMirror(info.classReferenceMirror, modifiers, type, name, value);
+				for(AnnotationMirror a : readAnnotations()) {
+					f.addAnnotation(a);
+				}
+				f.compact();
+				info.fields.add(f);
+			}
+			info.fields = MirrorInterner.compact(info.fields);
+			int methods = readVarInt();
+			for(int i = 0; i < methods; i++) {
+				int kind = buffer.get();
+				ModifierMirror modifiers = new ModifierMirror(readVarInt());
+				ClassReferenceMirror type = readReference();
+				String name = readString();
+				int paramCount = readVarInt();
+				List<ClassReferenceMirror> params = new ArrayList<>(paramCount);
+				for(int j = 0; j < paramCount; j++) {
+					params.add(readReference());
+				}
+				params = MirrorInterner.compact(params);
+				int flags = buffer.get();
+				boolean isVararg = (flags & FLAG_VARARGS) != 0;
+				boolean isSynthetic = (flags & FLAG_SYNTHETIC) != 0;
+				AbstractMethodMirror m;
+				if(kind == KIND_CONSTRUCTOR) {
+					m = new ConstructorMirror(info.classReferenceMirror, modifiers, type, name, params, isVararg, isSynthetic);
+				} else {
+					m = new MethodMirror(info.classReferenceMirror, modifiers, type, name, params, isVararg, isSynthetic);
+				}
+				for(AnnotationMirror a : readAnnotations()) {
+					m.addAnnotation(a);
+				}
+				m.compact();
+				info.methods.add(m);
+			}
+			info.methods = MirrorInterner.compact(info.methods);
+		}
+
+		private List<AnnotationMirror> readAnnotations() throws IOException {
+			int count = readVarInt();
+			List<AnnotationMirror> list = new ArrayList<>(count);
+			for(int i = 0; i < count; i++) {
+				AnnotationMirror a = new AnnotationMirror(readReference(), buffer.get() != 0);
+				int values = readVarInt();
+				for(int j = 0; j < values; j++) {
+					String name = readString();
+					a.addAnnotationValue(name, readValue());
+				}
+				a.compact();
+				list.add(a);
+			}
+			return list;
+		}
+
+		private Object readValue() throws IOException {
+			int tag = buffer.get();
+			switch(tag) {
+				case VALUE_NULL:
+					return null;
+				case VALUE_STRING:
+					return readString();
+				case VALUE_INT:
+					return (int) zigZagDecode(readVarLong());
+				case VALUE_LONG:
+					return zigZagDecode(readVarLong());
+				case VALUE_FLOAT:
+					return buffer.getFloat();
+				case VALUE_DOUBLE:
+					return buffer.getDouble();
+				case VALUE_BOOLEAN:
+					return buffer.get() != 0;
+				case VALUE_BYTE:
+					return buffer.get();
+				case VALUE_CHAR:
+					return (char) readVarInt();
+				case VALUE_SHORT:
+					return (short) zigZagDecode(readVarLong());
+				case VALUE_ARRAY:
+					return readArray();
+				case VALUE_SERIALIZED:
+					byte[] bytes = new byte[readVarInt()];
+					buffer.get(bytes);
+					try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+						return in.readObject();
+					} catch (ClassNotFoundException ex) {
+						throw new IOException(ex);
+					}
+				default:
+					throw new IOException("Unknown value tag " + tag);
+			}
+		}
+
+		private Object readArray() throws IOException {
+			int componentTag = buffer.get();
+			int length = readVarInt();
+			switch(componentTag) {
+				case VALUE_BOOLEAN: {
+					boolean[] a = new boolean[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = buffer.get() != 0;
+					}
+					return a;
+				}
+				case VALUE_BYTE: {
+					byte[] a = new byte[length];
+					buffer.get(a);
+					return a;
+				}
+				case VALUE_CHAR: {
+					char[] a = new char[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = (char) readVarInt();
+					}
+					return a;
+				}
+				case VALUE_SHORT: {
+					short[] a = new short[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = (short) zigZagDecode(readVarLong());
+					}
+					return a;
+				}
+				case VALUE_INT: {
+					int[] a = new int[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = (int) zigZagDecode(readVarLong());
+					}
+					return a;
+				}
+				case VALUE_LONG: {
+					long[] a = new long[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = zigZagDecode(readVarLong());
+					}
+					return a;
+				}
+				case VALUE_FLOAT: {
+					float[] a = new float[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = buffer.getFloat();
+					}
+					return a;
+				}
+				case VALUE_DOUBLE: {
+					double[] a = new double[length];
+					for(int i = 0; i < length; i++) {
+						a[i] = buffer.getDouble();
+					}
+					return a;
+				}
+				default:
+					throw new IOException("Unknown array component tag " + componentTag);
+			}
+		}
+
+		private String readString() throws IOException {
+			int index = readVarInt();
+			if(index >= strings.length) {
+				throw new IOException("String index " + index + " is out of bounds");
+			}
+			String s = strings[index];
+			if(s == null) {
+				byte[] bytes = new byte[stringLengths[index]];
+				int position = buffer.position();
+				buffer.position(stringOffsets[index]);
+				buffer.get(bytes);
+				buffer.position(position);
+				s = new String(bytes, StandardCharsets.UTF_8);
+				strings[index] = s;
+			}
+			return s;
+		}
+
+		private ClassReferenceMirror<?> readReference() throws IOException {
+			int position = buffer.position();
+			int index = readVarInt();
+			if(index < references.length && references[index] != null) {
+				return references[index];
+			}
+			buffer.position(position);
+			ClassReferenceMirror<?> reference = new ClassReferenceMirror<>(readString());
+			references[index] = reference;
+			return reference;
+		}
+
+		private String readNullableString() throws IOException {
+			if(buffer.get() == 0) {
+				return null;
+			}
+			return readString();
+		}
+
+		private int readVarInt() {
+			int value = 0;
+			int shift = 0;
+			while(true) {
+				byte b = buffer.get();
+				value |= (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+
+		private long readVarLong() {
+			long value = 0;
+			int shift = 0;
+			while(true) {
+				byte b = buffer.get();
+				value |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) == 0) {
+					return value;
+				}
+				shift += 7;
+			}
+		}
+	}
+
+	private static long zigZagDecode(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static long zigZagEncode(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * The string table, which is shared by all the encoders for a single file.
+	 */
+	private static final class StringTable {
+
+		private final Map<String, Integer> indexes = new HashMap<>();
+		private final List<String> list = new ArrayList<>();
+
+		int indexOf(String s) {
+			Integer index = indexes.get(s);
+			if(index == null) {
+				index = list.size();
+				indexes.put(s, index);
+				list.add(s);
+			}
+			return index;
+		}
+	}
+
+	private static final class Encoder extends ByteArrayOutputStream {
+
+		private final StringTable strings;
+
+		Encoder() {
+			this(new StringTable());
+		}
+
+		Encoder(StringTable strings) {
+			this.strings = strings;
+		}
+
+		void writeVarInt(int value) {
+			while((value & ~0x7F) != 0) {
+				write((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write(value);
+		}
+
+		void writeVarLong(long value) {
+			while((value & ~0x7FL) != 0) {
+				write((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void writeInt(int value) {
+			write(value >>> 24);
+			write(value >>> 16);
+			write(value >>> 8);
+			write(value);
+		}
+
+		void writeShort(int value) {
+			write(value >>> 8);
+			write(value);
+		}
+
+		void writeLong(long value) {
+			writeInt((int) (value >>> 32));
+			writeInt((int) value);
+		}
+
+		void writeString(String s) {
+			writeVarInt(strings.indexOf(s));
+		}
+
+		void writeNullableString(String s) {
+			if(s == null) {
+				write(0);
+			} else {
+				write(1);
+				writeString(s);
+			}
+		}
+
+		void writeAnnotations(List<AnnotationMirror> annotations) throws IOException {
+			writeVarInt(annotations.size());
+			for(AnnotationMirror a : annotations) {
+				writeString(a.getType().getJVMName());
+				write(a.isVisible() ? 1 : 0);
+				List<String> names = a.getDefinedValues();
+				writeVarInt(names.size());
+				for(String name : names) {
+					writeString(name);
+					writeValue(a.getValue(name));
+				}
+			}
+		}
+
+		void writeValue(Object value) throws IOException {
+			if(value == null) {
+				write(VALUE_NULL);
+			} else if(value instanceof String) {
+				write(VALUE_STRING);
+				writeString((String) value);
+			} else if(value instanceof Integer) {
+				write(VALUE_INT);
+				writeVarLong(zigZagEncode((Integer) value));
+			} else if(value instanceof Long) {
+				write(VALUE_LONG);
+				writeVarLong(zigZagEncode((Long) value));
+			} else if(value instanceof Float) {
+				write(VALUE_FLOAT);
+				writeInt(Float.floatToRawIntBits((Float) value));
+			} else if(value instanceof Double) {
+				write(VALUE_DOUBLE);
+				writeLong(Double.doubleToRawLongBits((Double) value));
+			} else if(value instanceof Boolean) {
+				write(VALUE_BOOLEAN);
+				write((Boolean) value ? 1 : 0);
+			} else if(value instanceof Byte) {
+				write(VALUE_BYTE);
+				write((Byte) value);
+			} else if(value instanceof Character) {
+				write(VALUE_CHAR);
+				writeVarInt((Character) value);
+			} else if(value instanceof Short) {
+				write(VALUE_SHORT);
+				writeVarLong(zigZagEncode((Short) value));
+			} else if(!writeArray(value)) {
+				if(!(value instanceof Serializable)) {
+					throw new IOException("Cannot write value of type " + value.getClass());
+				}
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+					out.writeObject(value);
+				}
+				write(VALUE_SERIALIZED);
+				writeVarInt(bytes.size());
+				bytes.writeTo(this);
+			}
+		}
+
+		private boolean writeArray(Object value) {
+			if(value instanceof boolean[]) {
+				boolean[] a = (boolean[]) value;
+				writeArrayHeader(VALUE_BOOLEAN, a.length);
+				for(boolean b : a) {
+					write(b ? 1 : 0);
+				}
+			} else if(value instanceof byte[]) {
+				byte[] a = (byte[]) value;
+				writeArrayHeader(VALUE_BYTE, a.length);
+				write(a, 0, a.length);
+			} else if(value instanceof char[]) {
+				char[] a = (char[]) value;
+				writeArrayHeader(VALUE_CHAR, a.length);
+				for(char c : a) {
+					writeVarInt(c);
+				}
+			} else if(value instanceof short[]) {
+				short[] a = (short[]) value;
+				writeArrayHeader(VALUE_SHORT, a.length);
+				for(short s : a) {
+					writeVarLong(zigZagEncode(s));
+				}
+			} else if(value instanceof int[]) {
+				int[] a = (int[]) value;
+				writeArrayHeader(VALUE_INT, a.length);
+				for(int i : a) {
+					writeVarLong(zigZagEncode(i));
+				}
+			} else if(value instanceof long[]) {
+				long[] a = (long[]) value;
+				writeArrayHeader(VALUE_LONG, a.length);
+				for(long l : a) {
+					writeVarLong(zigZagEncode(l));
+				}
+			} else if(value instanceof float[]) {
+				float[] a = (float[]) value;
+				writeArrayHeader(VALUE_FLOAT, a.length);
+				for(float f : a) {
+					writeInt(Float.floatToRawIntBits(f));
+				}
+			} else if(value instanceof double[]) {
+				double[] a = (double[]) value;
+				writeArrayHeader(VALUE_DOUBLE, a.length);
+				for(double d : a) {
+					writeLong(Double.doubleToRawLongBits(d));
+				}
+			} else {
+				return false;
+			}
+			return true;
+		}
+
+		private void writeArrayHeader(int componentTag, int length) {
+			write(VALUE_ARRAY);
+			write(componentTag);
+			writeVarInt(length);
+		}
+	}
+}
@@ -1,13 +1,18 @@
 package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import com.methodscript.PureUtilities.Common.StringUtils;
 
 import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.FieldVisitor;
 import org.objectweb.asm.MethodVisitor;
@@ -20,28 +25,157 @@ import static org.objectweb.asm.Opcodes.ASM5;
 import static org.objectweb.asm.Opcodes.ACC_VARARGS;
 import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
 
+/**
+ * Builds a {@link ClassMirror} from a class file. By default, the whole class is read in one pass. Alternatively, if a
+ * {@link ClassFileSource} is given, only the header of the class is read, that is, its name, modifiers, supertypes,
+ * generics and annotations, which is all that discovery itself needs. The fields and methods are then read from the
+ * class file a second time, the first time they are actually needed, so that the far more numerous member mirrors are
+ * only ever built for the few classes whose members are used.
+ *
+ * The names, descriptors, class references and modifiers of the mirror are taken from a {@link MirrorInterner}, so
+ * that they are shared with all the other mirrors built with the same interner, and the lists in the mirror are
+ * compacted once they're complete.
+ */
 public class ClassMirrorVisitor extends ClassVisitor {
 
+	private static final int PARSING_OPTIONS = ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES
+			| ClassReader.SKIP_DEBUG;
+
 	private final ClassMirror.ClassInfo<Object> classInfo;
+	private final MirrorInterner interner;
+	/**
+	 * If not null, only the header is read, and the members are read from this later.
+	 */
+	private final ClassFileSource memberSource;
+	/**
+	 * If true, only the members are read, into a ClassInfo whose header has already been read.
+	 */
+	private final boolean membersOnly;
 
-	ClassMirrorVisitor(ClassMirror.ClassInfo<Object> info) {
+	private ClassMirrorVisitor(ClassMirror.ClassInfo<Object> info, MirrorInterner interner,
+			ClassFileSource memberSource, boolean membersOnly) {
 		super(Opcodes.ASM5);
 		this.classInfo = info;
+		this.interner = interner;
+		this.memberSource = memberSource;
+		this.membersOnly = membersOnly;
+	}
+
+	ClassMirrorVisitor(ClassMirror.ClassInfo<Object> info) {
+		this(info, new MirrorInterner(), null, false);
 	}
 
 	public ClassMirrorVisitor() {
 		this(new ClassMirror.ClassInfo<Object>());
 	}
 
+	/**
+	 * Creates a visitor which only reads the header of the class. The fields and methods of the mirror are read from
+	 * the given source, the first time they are needed.
+	 *
+	 * @param memberSource The class file that this visitor visits, which must still be readable later. If it can't be
+	 * read when the members are needed, an IllegalStateException is thrown.
+	 */
+	public ClassMirrorVisitor(ClassFileSource memberSource) {
+		this(new MirrorInterner(), memberSource);
+	}
+
+	/**
+	 * Creates a visitor which builds the mirror out of the given interner.
+	 *
+	 * @param interner The interner, which is usually shared with many other visitors
+	 * @param memberSource If not null, only the header of the class is read, and the fields and methods of the mirror
+	 * are read from this source, the first time they are needed.
+	 */
+	public ClassMirrorVisitor(MirrorInterner interner, ClassFileSource memberSource) {
+		this(new ClassMirror.ClassInfo<Object>(), interner, memberSource, false);
+	}
+
 	public ClassMirror<?> getMirror(URL source) {
 		if(!done) {
 			throw new IllegalStateException(String.format(
 					"Not done visiting %s", classInfo.name == null ? "none" : classInfo.name
 			));
 		}
+		if(memberSource != null) {
+			final ClassFileSource members = memberSource;
+			final MirrorInterner memberInterner = interner;
+			classInfo.memberLoader = new ClassMirror.MemberLoader() {
+				@Override
+				@SuppressWarnings("unchecked")
+				public void load(ClassMirror.ClassInfo<?> info) {
+					readMembers(members, (ClassMirror.ClassInfo<Object>) info, memberInterner);
+				}
+			};
+		}
 		return new ClassMirror<>(this.classInfo, source);
 	}
 
+	/**
+	 * Returns a mirror that only knows the name, modifiers and supertypes of the class, which are read straight out of
+	 * the class file header, without visiting the class at all. The mirror has no annotations, generics, fields or
+	 * methods.
+	 *
+	 * @param reader
+	 * @param source The URL that the class is contained in
+	 * @param interner
+	 * @return
+	 */
+	public static ClassMirror<?> getSupertypeMirror(ClassReader reader, URL source, MirrorInterner interner) {
+		ClassMirror.ClassInfo<Object> info = new ClassMirror.ClassInfo<>();
+		int access = reader.getAccess();
+		info.isEnum = (access & ACC_ENUM) == ACC_ENUM;
+		info.isInterface = (access & ACC_INTERFACE) == ACC_INTERFACE;
+		info.modifiers = interner.modifiers(ModifierMirror.Type.CLASS, access);
+		info.name = interner.intern(reader.getClassName());
+		info.classReferenceMirror = interner.reference(Type.getObjectType(info.name).getDescriptor());
+		info.superClass = interner.intern(reader.getSuperName());
+		info.interfaces = intern(reader.getInterfaces(), interner);
+		info.annotations = Collections.emptyList();
+		info.fields = Collections.emptyList();
+		info.methods = Collections.emptyList();
+		info.genericParameters = Collections.emptyMap();
+		return new ClassMirror<>(info, source);
+	}
+
+	private static String[] intern(String[] names, MirrorInterner interner) {
+		for(int i = 0; i < names.length; i++) {
+			names[i] = interner.intern(names[i]);
+		}
+		return names;
+	}
+
+	/**
+	 * Reads the fields and methods of the class into the given ClassInfo.
+	 *
+	 * @param members
+	 * @param info
+	 * @param interner
+	 */
+	private static void readMembers(ClassFileSource members, ClassMirror.ClassInfo<Object> info,
+			MirrorInterner interner) {
+		try(InputStream stream = members.open()) {
+			new ClassReader(stream).accept(new ClassMirrorVisitor(info, interner, null, true), PARSING_OPTIONS);
+		} catch (IOException | RuntimeException ex) {
+			//Returning no members, or the members of a different class file, would be silently wrong
+			throw new IllegalStateException("Could not read the members of " + info.name, ex);
+		}
+	}
+
+	/**
+	 * A class file, which may be opened for reading, as many times as needed.
+	 */
+	public static interface ClassFileSource {
+
+		/**
+		 * Opens a new stream to the class file. The caller closes it.
+		 *
+		 * @return
+		 * @throws IOException
+		 */
+		InputStream open() throws IOException;
+	}
+
 	private boolean done;
 
 	@Override
@@ -52,17 +186,23 @@ public class ClassMirrorVisitor extends ClassVisitor {
 					"Can't visit %s, because we already visited %s", name, classInfo.name
 			));
 		}
+		if(membersOnly) {
+			classInfo.fields = new ArrayList<>();
+			classInfo.methods = new ArrayList<>();
+			super.visit(version, access, name, signature, superName, interfaces);
+			return;
+		}
 		if((access & ACC_ENUM) == ACC_ENUM) {
 			classInfo.isEnum = true;
 		}
 		if((access & ACC_INTERFACE) == ACC_INTERFACE) {
 			classInfo.isInterface = true;
 		}
-		classInfo.modifiers = new ModifierMirror(ModifierMirror.Type.CLASS, access);
-		classInfo.name = name;
-		classInfo.classReferenceMirror = new ClassReferenceMirror(Type.getObjectType(name).getDescriptor());
-		classInfo.superClass = superName;
-		classInfo.interfaces = interfaces;
+		classInfo.modifiers = interner.modifiers(ModifierMirror.Type.CLASS, access);
+		classInfo.name = interner.intern(name);
+		classInfo.classReferenceMirror = interner.reference(Type.getObjectType(name).getDescriptor());
+		classInfo.superClass = interner.intern(superName);
+		classInfo.interfaces = intern(interfaces, interner);
 		if(signature != null) {
 			boolean inGeneric = false;
 			ClassReferenceMirror<Object> top = null;
@@ -70,7 +210,7 @@ public class ClassMirrorVisitor extends ClassVisitor {
 			for(char c : signature.toCharArray()) {
 				if(c == '<') {
 					inGeneric = true;
-					top = new ClassReferenceMirror<>(buffer.toString() + ";");
+					top = interner.reference(buffer.toString() + ";");
 					classInfo.genericParameters.put(top, new ArrayList<>());
 					buffer = new StringBuilder();
 					continue;
@@ -88,11 +228,11 @@ public class ClassMirrorVisitor extends ClassVisitor {
 					}
 					if(inGeneric) {
 						classInfo.genericParameters
-								.get(top).add(new ClassReferenceMirror<>(buffer.toString() + ";"));
+								.get(top).add(interner.reference(buffer.toString() + ";"));
 						buffer = new StringBuilder();
 					} else {
 						classInfo.genericParameters
-								.put(new ClassReferenceMirror<>(buffer.toString() + ";"), new ArrayList<>());
+								.put(interner.reference(buffer.toString() + ";"), new ArrayList<>());
 					}
 					continue;
 				}
@@ -104,8 +244,11 @@ public class ClassMirrorVisitor extends ClassVisitor {
 
 	@Override
 	public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-		final AnnotationMirror mirror = new AnnotationMirror(new ClassReferenceMirror(desc), visible);
-		return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), mirror) {
+		if(membersOnly) {
+			return null;
+		}
+		final AnnotationMirror mirror = new AnnotationMirror(interner.reference(desc), visible);
+		return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), mirror, interner) {
 			@Override
 			public void visitEnd() {
 				classInfo.annotations.add(mirror);
@@ -116,18 +259,27 @@ public class ClassMirrorVisitor extends ClassVisitor {
 
 	@Override
 	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+		if(memberSource != null) {
+			return new FieldVisitor(ASM5) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+					classInfo.hasMemberAnnotations = true;
+					return null;
+				}
+			};
+		}
 		final FieldMirror fieldMirror = new FieldMirror(
 				classInfo.classReferenceMirror,
-				new ModifierMirror(ModifierMirror.Type.FIELD, access),
-				new ClassReferenceMirror(desc),
-				name,
-				value
+				interner.modifiers(ModifierMirror.Type.FIELD, access),
+				interner.reference(desc),
+				interner.intern(name),
+				value instanceof String ? interner.intern((String) value) : value
 		);
 		return new FieldVisitor(ASM5, super.visitField(access, name, desc, signature, value)) {
 			@Override
 			public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-				final AnnotationMirror annotationMirror = new AnnotationMirror(new ClassReferenceMirror(desc), visible);
-				return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), annotationMirror) {
+				final AnnotationMirror annotationMirror = new AnnotationMirror(interner.reference(desc), visible);
+				return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), annotationMirror, interner) {
 					@Override
 					public void visitEnd() {
 						fieldMirror.addAnnotation(annotationMirror);
@@ -138,6 +290,7 @@ public class ClassMirrorVisitor extends ClassVisitor {
 
 			@Override
 			public void visitEnd() {
+				fieldMirror.compact();
 				classInfo.fields.add(fieldMirror);
 				super.visitEnd();
 			}
@@ -151,6 +304,15 @@ public class ClassMirrorVisitor extends ClassVisitor {
 		if(STATIC_INITIALIZER_PATTERN.matcher(name).matches()) {
 			return null; // Ignore static initializers
 		}
+		if(memberSource != null) {
+			return new MethodVisitor(ASM5) {
+				@Override
+				public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+					classInfo.hasMemberAnnotations = true;
+					return null;
+				}
+			};
+		}
 		if(ConstructorMirror.INIT.matches(name)) {
 			// We want to replace the V at the end with the parent class type.
 			// Yes, technically a constructor really does return void, but.. not really.
@@ -158,14 +320,16 @@ public class ClassMirrorVisitor extends ClassVisitor {
 		}
 		List<ClassReferenceMirror> parameterMirrors = new ArrayList<>();
 		for(Type type : Type.getArgumentTypes(desc)) {
-			parameterMirrors.add(new ClassReferenceMirror(type.getDescriptor()));
+			parameterMirrors.add(interner.reference(type.getDescriptor()));
 		}
+		parameterMirrors = MirrorInterner.compact(parameterMirrors);
+		name = interner.intern(name);
 		AbstractMethodMirror methodMirror;
 		if(ConstructorMirror.INIT.equals(name)) {
 			methodMirror = new ConstructorMirror(
 					classInfo.classReferenceMirror,
-					new ModifierMirror(ModifierMirror.Type.METHOD, access),
-					new ClassReferenceMirror(Type.getReturnType(desc).getDescriptor()),
+					interner.modifiers(ModifierMirror.Type.METHOD, access),
+					interner.reference(Type.getReturnType(desc).getDescriptor()),
 					name,
 					parameterMirrors,
 					(access & ACC_VARARGS) == ACC_VARARGS,
@@ -174,8 +338,8 @@ public class ClassMirrorVisitor extends ClassVisitor {
 		} else {
 			methodMirror = new MethodMirror(
 					classInfo.classReferenceMirror,
-					new ModifierMirror(ModifierMirror.Type.METHOD, access),
-					new ClassReferenceMirror(Type.getReturnType(desc).getDescriptor()),
+					interner.modifiers(ModifierMirror.Type.METHOD, access),
+					interner.reference(Type.getReturnType(desc).getDescriptor()),
 					name,
 					parameterMirrors,
 					(access & ACC_VARARGS) == ACC_VARARGS,
@@ -186,17 +350,19 @@ public class ClassMirrorVisitor extends ClassVisitor {
 		return new MethodVisitor(ASM5, super.visitMethod(access, name, desc, signature, exceptions)) {
 			@Override
 			public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
-				final AnnotationMirror annotationMirror = new AnnotationMirror(new ClassReferenceMirror<>(desc), visible);
-				return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), annotationMirror) {
+				final AnnotationMirror annotationMirror = new AnnotationMirror(interner.reference(desc), visible);
+				return new AnnotationMirrorVisitor(super.visitAnnotation(desc, visible), annotationMirror, interner) {
 					@Override
 					public void visitEnd() {
 						finalMethodMirror.addAnnotation(annotationMirror);
+						super.visitEnd();
 					}
 				};
 			}
 
 			@Override
 			public void visitEnd() {
+				finalMethodMirror.compact();
 				classInfo.methods.add(finalMethodMirror);
 				super.visitEnd();
 			}
@@ -205,6 +371,17 @@ public class ClassMirrorVisitor extends ClassVisitor {
 
 	@Override
 	public void visitEnd() {
+		if(!membersOnly) {
+			classInfo.annotations = MirrorInterner.compact(classInfo.annotations);
+			for(Map.Entry<ClassReferenceMirror<?>, List<ClassReferenceMirror<?>>> e
+					: classInfo.genericParameters.entrySet()) {
+				e.setValue(MirrorInterner.compact(e.getValue()));
+			}
+			classInfo.genericParameters = MirrorInterner.compact(classInfo.genericParameters);
+		}
+		// When only the header is read, these are still empty, and are replaced when the members are read
+		classInfo.fields = MirrorInterner.compact(classInfo.fields);
+		classInfo.methods = MirrorInterner.compact(classInfo.methods);
 		this.done = true;
 		super.visitEnd();
 	}
@@ -212,10 +389,12 @@ public class ClassMirrorVisitor extends ClassVisitor {
 	private static class AnnotationMirrorVisitor extends AnnotationVisitor {
 
 		private final AnnotationMirror mirror;
+		private final MirrorInterner interner;
 
-		public AnnotationMirrorVisitor(AnnotationVisitor next, AnnotationMirror mirror) {
+		public AnnotationMirrorVisitor(AnnotationVisitor next, AnnotationMirror mirror, MirrorInterner interner) {
 			super(ASM5, next);
 			this.mirror = mirror;
+			this.interner = interner;
 		}
 
 		@Override
@@ -223,8 +402,17 @@ public class ClassMirrorVisitor extends ClassVisitor {
 			if(value instanceof Type) {
 				value = ((Type) value).getClassName();
 			}
-			mirror.addAnnotationValue(name, value);
+			if(value instanceof String) {
+				value = interner.intern((String) value);
+			}
+			mirror.addAnnotationValue(interner.intern(name), value);
 			super.visit(name, value);
 		}
+
+		@Override
+		public void visitEnd() {
+			mirror.compact();
+			super.visitEnd();
+		}
 	}
 }
@@ -0,0 +1,137 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounds the number of classes whose fields and methods are held in memory at once. This only applies to mirrors whose
+ * members are read on demand, that is, mirrors of scanned classes when members are read lazily, and mirrors read
+ * lazily from a cache file. The header of each class, which is what the discovery indexes are made of, always stays in
+ * memory. Once more than the maximum number of classes have had their members read, the members of the least recently
+ * used class are dropped, and read again from their original source the next time they are needed.
+ *
+ * This class is thread safe.
+ */
+public class MemberCache {
+
+	private final LinkedHashMap<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader> loaded
+			= new LinkedHashMap<>(16, 0.75f, true);
+	private volatile int maximumSize;
+
+	/**
+	 * Creates a new MemberCache.
+	 *
+	 * @param maximumSize The maximum number of classes whose members are held at once, or 0 for no limit.
+	 */
+	public MemberCache(int maximumSize) {
+		setMaximumSize(maximumSize);
+	}
+
+	/**
+	 * Sets the maximum number of classes whose members are held at once. If the cache is already larger than this,
+	 * the least recently used classes are evicted immediately.
+	 *
+	 * @param maximumSize The maximum, or 0 for no limit, in which case members are never dropped.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		if(maximumSize < 0) {
+			throw new IllegalArgumentException("maximumSize cannot be negative");
+		}
+		this.maximumSize = maximumSize;
+		List<Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader>> evicted = new ArrayList<>();
+		synchronized(loaded) {
+			if(maximumSize == 0) {
+				loaded.clear();
+			} else {
+				removeEldest(evicted);
+			}
+		}
+		evict(evicted);
+	}
+
+	/**
+	 * Returns the maximum number of classes whose members are held at once, or 0 if there is no limit.
+	 *
+	 * @return
+	 */
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the number of classes whose members are currently held, and may be dropped.
+	 *
+	 * @return
+	 */
+	public int size() {
+		synchronized(loaded) {
+			return loaded.size();
+		}
+	}
+
+	/**
+	 * Makes the given mirror subject to this cache, if its members are read on demand. Otherwise, this does nothing.
+	 *
+	 * @param mirror
+	 */
+	public void attach(ClassMirror<?> mirror) {
+		ClassMirror.ClassInfo<?> info = mirror.getHeaderInfo();
+		if(info != null && info.memberLoader != null) {
+			info.memberCache = this;
+		}
+	}
+
+	/**
+	 * Called after the members of the given class were read with the given loader.
+	 *
+	 * @param info
+	 * @param loader
+	 */
+	/* package */ void loaded(ClassMirror.ClassInfo<?> info, ClassMirror.MemberLoader loader) {
+		if(maximumSize == 0) {
+			return;
+		}
+		List<Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader>> evicted = new ArrayList<>();
+		synchronized(loaded) {
+			loaded.put(info, loader);
+			removeEldest(evicted);
+		}
+		// The classes are evicted outside of the lock, since evicting a class locks that class, and might have to wait
+		// for another thread that is reading its members.
+		evict(evicted);
+	}
+
+	/**
+	 * Called each time the members of the given class are used, so that the least recently used class is the one that
+	 * is evicted.
+	 *
+	 * @param info
+	 */
+	/* package */ void touch(ClassMirror.ClassInfo<?> info) {
+		if(maximumSize == 0) {
+			return;
+		}
+		synchronized(loaded) {
+			loaded.get(info);
+		}
+	}
+
+	private void removeEldest(List<Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader>> evicted) {
+		Iterator<Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader>> it = loaded.entrySet().iterator();
+		while(loaded.size() > maximumSize && it.hasNext()) {
+			Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader> e = it.next();
+			evicted.add(new AbstractMap.SimpleImmutableEntry<>(e.getKey(), e.getValue()));
+			it.remove();
+		}
+	}
+
+	private static void evict(List<Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader>> evicted) {
+		for(Map.Entry<ClassMirror.ClassInfo<?>, ClassMirror.MemberLoader> e : evicted) {
+			e.getKey().evictMembers(e.getValue());
+		}
+	}
+}
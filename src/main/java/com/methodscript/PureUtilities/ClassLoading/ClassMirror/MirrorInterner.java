@@ -0,0 +1,137 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A pool of the immutable parts that mirrors are made of, that is, names and descriptors, class references and
+ * modifiers. The same descriptor, such as "Ljava/lang/Object;" or "Ljava/lang/String;", appears in a great many fields,
+ * methods and annotations, so when a whole classpath is scanned, sharing one instance of each across all the mirrors
+ * saves a large part of the heap that they take up. One pool is shared by all the scans of a ClassDiscovery instance.
+ *
+ * This class is thread safe.
+ */
+public class MirrorInterner {
+
+	private final ConcurrentMap<String, String> strings = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, ClassReferenceMirror<?>> references = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Long, ModifierMirror> modifiers = new ConcurrentHashMap<>();
+
+	/**
+	 * Returns the canonical instance of the given string.
+	 *
+	 * @param s
+	 * @return The canonical instance, or null if s is null
+	 */
+	public String intern(String s) {
+		if(s == null) {
+			return null;
+		}
+		String existing = strings.putIfAbsent(s, s);
+		return existing == null ? s : existing;
+	}
+
+	/**
+	 * Returns the canonical reference mirror for the given JVM name.
+	 *
+	 * @param <T>
+	 * @param jvmName The JVM name, for instance "Ljava/lang/Object;" or "I"
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> ClassReferenceMirror<T> reference(String jvmName) {
+		ClassReferenceMirror<?> reference = references.get(jvmName);
+		if(reference == null) {
+			ClassReferenceMirror<?> newReference = new ClassReferenceMirror<>(intern(jvmName));
+			reference = references.putIfAbsent(newReference.getJVMName(), newReference);
+			if(reference == null) {
+				reference = newReference;
+			}
+		}
+		return (ClassReferenceMirror<T>) reference;
+	}
+
+	/**
+	 * Returns the canonical modifier mirror for the given access flags.
+	 *
+	 * @param type
+	 * @param access The access flags, as stored in the class file
+	 * @return
+	 */
+	public ModifierMirror modifiers(ModifierMirror.Type type, int access) {
+		Long key = ((long) type.ordinal() << 32) | (access & 0xFFFFFFFFL);
+		ModifierMirror mirror = modifiers.get(key);
+		if(mirror == null) {
+			ModifierMirror newMirror = new ModifierMirror(type, access);
+			mirror = modifiers.putIfAbsent(key, newMirror);
+			if(mirror == null) {
+				mirror = newMirror;
+			}
+		}
+		return mirror;
+	}
+
+	/**
+	 * Returns the number of strings in the pool.
+	 *
+	 * @return
+	 */
+	public int getStringCount() {
+		return strings.size();
+	}
+
+	/**
+	 * Returns the number of class references in the pool.
+	 *
+	 * @return
+	 */
+	public int getReferenceCount() {
+		return references.size();
+	}
+
+	/**
+	 * Empties the pool. Mirrors that were already created keep their instances, which are simply no longer shared with
+	 * mirrors created afterwards.
+	 */
+	public void clear() {
+		strings.clear();
+		references.clear();
+		modifiers.clear();
+	}
+
+	/**
+	 * Returns a copy of the given list which can't be added to, and takes up as little space as possible, that is, the
+	 * shared empty list, a singleton list, or a list backed by an exactly sized array.
+	 *
+	 * @param <T>
+	 * @param list
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	/* package */ static <T> List<T> compact(List<T> list) {
+		switch(list.size()) {
+			case 0:
+				return Collections.emptyList();
+			case 1:
+				return Collections.singletonList(list.get(0));
+			default:
+				return Arrays.asList((T[]) list.toArray());
+		}
+	}
+
+	/**
+	 * Returns the shared empty map if the given map is empty, or the map itself otherwise.
+	 *
+	 * @param <K>
+	 * @param <V>
+	 * @param map
+	 * @return
+	 */
+	/* package */ static <K, V> Map<K, V> compact(Map<K, V> map) {
+		return map.isEmpty() ? Collections.<K, V>emptyMap() : map;
+	}
+}
@@ -0,0 +1,241 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.Common.ClassUtils;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A query for known classes that match several criteria at once, for instance
+ * <pre>
+ * discovery.query().thatExtend(Runnable.class).withAnnotation(MyAnnotation.class).inPackage("com.example.*")
+ *		.notAbstract().stream()
+ * </pre>
+ *
+ * Criteria that are answered by an index (the supertypes and the annotations) are intersected, starting with the
+ * smallest index, so a query only ever walks the classes in its most selective index. The rest of the criteria are
+ * then checked on each of those classes. The results are streamed lazily out of the indexes of the current discovery
+ * state, without being copied, and which indexes a query uses is remembered, until the discovery locations change.
+ *
+ * Queries are created with {@link ClassDiscovery#query()}. Each method adds a criterion to this query, and returns this
+ * query. A query can be run more than once, and reflects the discovery locations at the time it is run.
+ *
+ * @param <T> The type that all the results extend
+ */
+public class ClassQuery<T> implements Iterable<ClassMirror<? extends T>> {
+
+	private final ClassDiscovery discovery;
+	private final Set<String> supertypes = new TreeSet<>();
+	private final Set<String> annotations = new TreeSet<>();
+	private final List<String> packages = new ArrayList<>();
+	private final List<Predicate<ClassMirror<?>>> filters = new ArrayList<>();
+
+	/* package */ ClassQuery(ClassDiscovery discovery) {
+		this.discovery = discovery;
+	}
+
+	/**
+	 * Only includes classes that extend or implement the given type, directly or transitively. The type itself is not
+	 * included, and java.lang.Object matches every class.
+	 *
+	 * @param <U>
+	 * @param superType
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public <U extends T> ClassQuery<U> thatExtend(Class<U> superType) {
+		if(superType != java.lang.Object.class) {
+			supertypes.add(ClassUtils.getJVMName(superType));
+		}
+		return (ClassQuery<U>) this;
+	}
+
+	/**
+	 * Only includes classes that are tagged with the given annotation.
+	 *
+	 * @param annotation
+	 * @return
+	 */
+	public ClassQuery<T> withAnnotation(Class<? extends Annotation> annotation) {
+		annotations.add(ClassUtils.getJVMName(annotation));
+		return this;
+	}
+
+	/**
+	 * Only includes classes in the given package. If the package name ends with ".*", classes in any subpackage are
+	 * included too. If this is called more than once, classes in any of the given packages are included.
+	 *
+	 * @param packageName The package name, for instance "com.example", or "com.example.*"
+	 * @return
+	 */
+	public ClassQuery<T> inPackage(String packageName) {
+		packages.add(packageName);
+		return this;
+	}
+
+	/**
+	 * Excludes abstract classes and interfaces.
+	 *
+	 * @return
+	 */
+	public ClassQuery<T> notAbstract() {
+		filters.add(new Predicate<ClassMirror<?>>() {
+			@Override
+			public boolean test(ClassMirror<?> m) {
+				return !m.isAbstract() && !m.isInterface();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Excludes interfaces.
+	 *
+	 * @return
+	 */
+	public ClassQuery<T> notInterface() {
+		filters.add(new Predicate<ClassMirror<?>>() {
+			@Override
+			public boolean test(ClassMirror<?> m) {
+				return !m.isInterface();
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Only includes classes that match the given filter. The filter is only called for classes that match all of the
+	 * indexed criteria.
+	 *
+	 * @param filter
+	 * @return
+	 */
+	public ClassQuery<T> where(Predicate<ClassMirror<?>> filter) {
+		filters.add(filter);
+		return this;
+	}
+
+	/**
+	 * Runs the query, and returns the matching classes as a lazy stream.
+	 *
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public Stream<ClassMirror<? extends T>> stream() {
+		Stream<ClassMirror<?>> results = discovery.query(this);
+		if(!packages.isEmpty() || !filters.isEmpty()) {
+			results = results.filter(new Predicate<ClassMirror<?>>() {
+				@Override
+				public boolean test(ClassMirror<?> m) {
+					return matches(m);
+				}
+			});
+		}
+		return (Stream<ClassMirror<? extends T>>) (Stream<?>) results;
+	}
+
+	/**
+	 * Runs the query, and returns an iterator over the matching classes.
+	 *
+	 * @return
+	 */
+	@Override
+	public Iterator<ClassMirror<? extends T>> iterator() {
+		return stream().iterator();
+	}
+
+	/**
+	 * Runs the query, and collects the matching classes into a new set.
+	 *
+	 * @return
+	 */
+	public Set<ClassMirror<? extends T>> asSet() {
+		return stream().collect(Collectors.toCollection(LinkedHashSet::new));
+	}
+
+	/**
+	 * Runs the query, and loads all the matching classes with the default ClassLoader of the ClassDiscovery instance,
+	 * initializing them.
+	 *
+	 * @return
+	 */
+	public Set<Class<? extends T>> load() {
+		return load(discovery.getDefaultClassLoader(), true);
+	}
+
+	/**
+	 * Runs the query, and loads all the matching classes with the given ClassLoader.
+	 *
+	 * @param loader
+	 * @param initialize
+	 * @return
+	 */
+	public Set<Class<? extends T>> load(ClassLoader loader, boolean initialize) {
+		Set<Class<? extends T>> set = new LinkedHashSet<>();
+		for(ClassMirror<? extends T> m : this) {
+			set.add(m.loadClass(loader, initialize));
+		}
+		return set;
+	}
+
+	/**
+	 * The JVM names of the supertypes that the results must extend.
+	 */
+	/* package */ Set<String> getSupertypes() {
+		return supertypes;
+	}
+
+	/**
+	 * The JVM names of the annotations that the results must be tagged with.
+	 */
+	/* package */ Set<String> getAnnotations() {
+		return annotations;
+	}
+
+	/**
+	 * Returns a key which is the same for all queries that use the same indexes, regardless of the order the criteria
+	 * were added in.
+	 */
+	/* package */ String getPlanKey() {
+		return supertypes + ":" + annotations;
+	}
+
+	private boolean matches(ClassMirror<?> m) {
+		if(!packages.isEmpty() && !isInPackages(m)) {
+			return false;
+		}
+		for(Predicate<ClassMirror<?>> filter : filters) {
+			if(!filter.test(m)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isInPackages(ClassMirror<?> m) {
+		// The package is taken from the JVM name, since in the class name, nested classes can't be told apart from
+		// packages
+		String jvmName = m.getJVMClassName();
+		int slash = jvmName.lastIndexOf('/');
+		String name = slash < 0 ? "" : jvmName.substring(1, slash).replace('/', '.');
+		for(String packageName : packages) {
+			if(packageName.endsWith(".*")) {
+				String parent = packageName.substring(0, packageName.length() - 2);
+				if(name.equals(parent) || name.startsWith(parent + ".")) {
+					return true;
+				}
+			} else if(name.equals(packageName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
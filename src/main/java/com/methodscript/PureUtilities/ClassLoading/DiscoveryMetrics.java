@@ -0,0 +1,371 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.beans.ConstructorProperties;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Figures about the work a {@link ClassDiscovery} instance does: how long each discovery location took to scan, and
+ * where its classes came from, how many queries of each type were run, and how long they took, and how large the
+ * caches are. Metrics are off by default, and are turned on with {@link ClassDiscovery#enableMetrics()}. While they
+ * are off, nothing is measured at all.
+ *
+ * The figures can be read directly, or over JMX, once {@link #registerMBean(java.lang.String)} is called.
+ *
+ * This class is thread safe.
+ */
+public class DiscoveryMetrics implements DiscoveryMetricsMXBean {
+
+	/**
+	 * Where the classes of a discovery location came from.
+	 */
+	public static enum ScanSource {
+		/**
+		 * A cache that was added with {@link ClassDiscovery#addPreCache(java.net.URL, ClassDiscoveryURLCache)}.
+		 */
+		PRECACHE,
+		/**
+		 * A cache file that {@link ClassDiscoveryCache} wrote to its cache directory during an earlier run.
+		 */
+		DISK_CACHE,
+		/**
+		 * The {@link ClassDiscoveryCache#OUTPUT_FILENAME} file inside the jar.
+		 */
+		JAR_INDEX,
+		/**
+		 * A state file that was restored with {@link ClassDiscovery#restoreState(java.io.File)}.
+		 */
+		SAVED_STATE,
+		/**
+		 * The class files themselves.
+		 */
+		SCAN
+	}
+
+	/**
+	 * The types of query that are measured.
+	 */
+	public static enum QueryType {
+		KNOWN_CLASSES,
+		CLASSES_THAT_EXTEND,
+		DOES_CLASS_EXTEND,
+		CLASSES_WITH_ANNOTATION,
+		CLASSES_WITH_ANNOTATION_THAT_EXTEND,
+		FIELDS_WITH_ANNOTATION,
+		METHODS_WITH_ANNOTATION,
+		CONSTRUCTORS_WITH_ANNOTATION,
+		FOR_NAME,
+		FOR_FUZZY_NAME,
+		/**
+		 * A {@link ClassQuery}. Since the results of a ClassQuery are streamed, this only measures finding the indexes
+		 * that the query uses, not consuming the results.
+		 */
+		QUERY
+	}
+
+	private static final String DOMAIN = "com.methodscript.PureUtilities";
+
+	private final ClassDiscovery discovery;
+	private final ConcurrentMap<URL, ScanRecord> scans = new ConcurrentHashMap<>();
+	private final AtomicLongArray sourceCounts = new AtomicLongArray(ScanSource.values().length);
+	private final ConcurrentMap<QueryType, QueryStats> queries = new ConcurrentHashMap<>();
+	private ObjectName registeredName;
+
+	/* package */ DiscoveryMetrics(ClassDiscovery discovery) {
+		this.discovery = discovery;
+	}
+
+	/**
+	 * Records that the classes of the given discovery location were obtained.
+	 *
+	 * @param url The discovery location
+	 * @param source Where the classes came from
+	 * @param nanos How long it took
+	 * @param bytes How many bytes were read, either class files or cache files, depending on the source
+	 * @param classes How many classes were read
+	 */
+	/* package */ void recordScan(URL url, ScanSource source, long nanos, long bytes, int classes) {
+		scans.put(url, new ScanRecord(url.toString(), source.name(), TimeUnit.NANOSECONDS.toMillis(nanos), bytes,
+				classes, nanos == 0 ? 0 : (long) (classes * 1000000000.0 / nanos)));
+		sourceCounts.incrementAndGet(source.ordinal());
+	}
+
+	/**
+	 * Records that a query of the given type finished.
+	 *
+	 * @param type
+	 * @param start The value of {@link System#nanoTime()} when the query started
+	 */
+	/* package */ void recordQuery(QueryType type, long start) {
+		long nanos = System.nanoTime() - start;
+		QueryStats stats = queries.get(type);
+		if(stats == null) {
+			QueryStats newStats = new QueryStats();
+			stats = queries.putIfAbsent(type, newStats);
+			if(stats == null) {
+				stats = newStats;
+			}
+		}
+		stats.count.increment();
+		stats.totalNanos.add(nanos);
+		stats.maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+
+	/**
+	 * Returns the most recent scan of the given discovery location, or null if it hasn't been scanned since metrics
+	 * were enabled.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public ScanRecord getScan(URL url) {
+		return scans.get(url);
+	}
+
+	@Override
+	public Map<String, ScanRecord> getScans() {
+		Map<String, ScanRecord> map = new TreeMap<>();
+		for(ScanRecord r : scans.values()) {
+			map.put(r.getURL(), r);
+		}
+		return map;
+	}
+
+	/**
+	 * Returns how many times the classes of a discovery location were obtained from the given source.
+	 *
+	 * @param source
+	 * @return
+	 */
+	public long getScanSourceCount(ScanSource source) {
+		return sourceCounts.get(source.ordinal());
+	}
+
+	@Override
+	public Map<String, Long> getScanSourceCounts() {
+		Map<String, Long> map = new TreeMap<>();
+		for(ScanSource source : ScanSource.values()) {
+			map.put(source.name(), getScanSourceCount(source));
+		}
+		return map;
+	}
+
+	/**
+	 * Returns the figures for the given type of query. If no query of this type has run, the count is 0.
+	 *
+	 * @param type
+	 * @return
+	 */
+	public QueryRecord getQuery(QueryType type) {
+		QueryStats stats = queries.get(type);
+		if(stats == null) {
+			return new QueryRecord(type.name(), 0, 0, 0);
+		}
+		return stats.toRecord(type);
+	}
+
+	@Override
+	public Map<String, QueryRecord> getQueries() {
+		Map<String, QueryRecord> map = new TreeMap<>();
+		for(Map.Entry<QueryType, QueryStats> e : queries.entrySet()) {
+			map.put(e.getKey().name(), e.getValue().toRecord(e.getKey()));
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Integer> getCacheSizes() {
+		return discovery.getCacheSizes();
+	}
+
+	@Override
+	public void reset() {
+		scans.clear();
+		for(int i = 0; i < sourceCounts.length(); i++) {
+			sourceCounts.set(i, 0);
+		}
+		queries.clear();
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under the name
+	 * "com.methodscript.PureUtilities:type=ClassDiscovery,name=&lt;name&gt;". If they were already registered, they
+	 * are unregistered under the old name first.
+	 *
+	 * @param name A name that identifies the ClassDiscovery instance
+	 * @return The name the MBean was registered under
+	 * @throws JMException If the MBean can't be registered, for instance, because the name is already taken
+	 */
+	public synchronized ObjectName registerMBean(String name) throws JMException {
+		unregisterMBean();
+		ObjectName objectName = new ObjectName(DOMAIN + ":type=ClassDiscovery,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		registeredName = objectName;
+		return objectName;
+	}
+
+	/**
+	 * Unregisters these metrics from the platform MBean server, if they were registered.
+	 *
+	 * @throws JMException
+	 */
+	public synchronized void unregisterMBean() throws JMException {
+		if(registeredName != null) {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if(server.isRegistered(registeredName)) {
+				server.unregisterMBean(registeredName);
+			}
+			registeredName = null;
+		}
+	}
+
+	private static final class QueryStats {
+
+		private final LongAdder count = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+
+		QueryRecord toRecord(QueryType type) {
+			long c = count.sum();
+			return new QueryRecord(type.name(), c, c == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalNanos.sum() / c),
+					TimeUnit.NANOSECONDS.toMicros(maxNanos.get()));
+		}
+	}
+
+	/**
+	 * The figures for the most recent scan of one discovery location.
+	 */
+	public static final class ScanRecord {
+
+		private final String url;
+		private final String source;
+		private final long timeMillis;
+		private final long bytesRead;
+		private final int classes;
+		private final long classesPerSecond;
+
+		@ConstructorProperties({"URL", "source", "timeMillis", "bytesRead", "classes", "classesPerSecond"})
+		public ScanRecord(String url, String source, long timeMillis, long bytesRead, int classes,
+				long classesPerSecond) {
+			this.url = url;
+			this.source = source;
+			this.timeMillis = timeMillis;
+			this.bytesRead = bytesRead;
+			this.classes = classes;
+			this.classesPerSecond = classesPerSecond;
+		}
+
+		/**
+		 * @return The discovery location
+		 */
+		public String getURL() {
+			return url;
+		}
+
+		/**
+		 * @return The name of the {@link ScanSource} the classes came from
+		 */
+		public String getSource() {
+			return source;
+		}
+
+		/**
+		 * @return How long it took to get the classes
+		 */
+		public long getTimeMillis() {
+			return timeMillis;
+		}
+
+		/**
+		 * @return How many bytes were read, of class files for a scan, or of the cache file otherwise. If the cache
+		 * was added by the caller, this is 0.
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		/**
+		 * @return How many classes were read. When a directory is rescanned incrementally, this only counts the
+		 * classes that changed.
+		 */
+		public int getClasses() {
+			return classes;
+		}
+
+		/**
+		 * @return The number of classes read per second
+		 */
+		public long getClassesPerSecond() {
+			return classesPerSecond;
+		}
+
+		@Override
+		public String toString() {
+			return url + ": " + classes + " classes from " + source + " in " + timeMillis + " ms (" + bytesRead
+					+ " bytes, " + classesPerSecond + " classes/s)";
+		}
+	}
+
+	/**
+	 * The figures for one type of query.
+	 */
+	public static final class QueryRecord {
+
+		private final String type;
+		private final long count;
+		private final long averageMicros;
+		private final long maxMicros;
+
+		@ConstructorProperties({"type", "count", "averageMicros", "maxMicros"})
+		public QueryRecord(String type, long count, long averageMicros, long maxMicros) {
+			this.type = type;
+			this.count = count;
+			this.averageMicros = averageMicros;
+			this.maxMicros = maxMicros;
+		}
+
+		/**
+		 * @return The name of the {@link QueryType}
+		 */
+		public String getType() {
+			return type;
+		}
+
+		/**
+		 * @return How many queries of this type ran
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * @return The average latency of the queries
+		 */
+		public long getAverageMicros() {
+			return averageMicros;
+		}
+
+		/**
+		 * @return The highest latency of the queries
+		 */
+		public long getMaxMicros() {
+			return maxMicros;
+		}
+
+		@Override
+		public String toString() {
+			return type + ": " + count + " queries, average " + averageMicros + " us, max " + maxMicros + " us";
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.util.Map;
+
+/**
+ * The management interface of {@link DiscoveryMetrics}, as exposed over JMX. See
+ * {@link DiscoveryMetrics#registerMBean(java.lang.String)}.
+ */
+public interface DiscoveryMetricsMXBean {
+
+	/**
+	 * Returns the most recent scan of each discovery location, keyed by URL.
+	 *
+	 * @return
+	 */
+	Map<String, DiscoveryMetrics.ScanRecord> getScans();
+
+	/**
+	 * Returns how many times the classes of a discovery location were obtained from each source, keyed by the name of
+	 * the {@link DiscoveryMetrics.ScanSource}.
+	 *
+	 * @return
+	 */
+	Map<String, Long> getScanSourceCounts();
+
+	/**
+	 * Returns the count and latency of each type of query, keyed by the name of the {@link DiscoveryMetrics.QueryType}.
+	 * Only query types that have been run at least once are included.
+	 *
+	 * @return
+	 */
+	Map<String, DiscoveryMetrics.QueryRecord> getQueries();
+
+	/**
+	 * Returns the current size of each of the caches of the ClassDiscovery instance, keyed by name.
+	 *
+	 * @return
+	 */
+	Map<String, Integer> getCacheSizes();
+
+	/**
+	 * Clears all the figures, except for the cache sizes, which are always current.
+	 */
+	void reset();
+}
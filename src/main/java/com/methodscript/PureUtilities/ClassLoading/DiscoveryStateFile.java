@@ -0,0 +1,434 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirrorFormat;
+import com.methodscript.PureUtilities.Common.StringUtils;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The file that {@link ClassDiscovery#saveState(java.io.File)} writes, which holds the whole state of a ClassDiscovery
+ * instance: every discovery location, along with a fingerprint of it, its classes, and its part of the subtype index.
+ * The file is memory mapped when it is read back in, and the classes of each location are read as with a memory
+ * mapped {@link ClassDiscoveryCache}, that is, only the class headers are read up front.
+ *
+ * <p>
+ * The fingerprint of a jar is its size and modification time, and the fingerprint of a directory is a hash of the
+ * paths, sizes and modification times of all the class files in it, so checking whether a location changed never
+ * requires reading any class files. The fingerprint that is saved is the one that was taken when the location was
+ * scanned, so a location that changed between the scan and the save is saved without its classes, and is scanned
+ * again when the state is restored.
+ *
+ * <p>
+ * The layout is:
+ * <pre>
+ * u4 magic, u2 version
+ * u4 location count, then for each location:
+ *	string URL, string fingerprint, u4 section length, section:
+ *		u4 mirrors length, mirrors in the {@link ClassMirrorFormat}
+ *		u4 supertype count, then for each supertype: string name, u4 class count, u4 index of each class
+ *		u4 dependency count, then each dependency name
+ * </pre>
+ * Strings are a u4 byte length, followed by the UTF-8 bytes. Classes in the supertype entries are given by their
+ * index in the mirrors of the location.
+ */
+final class DiscoveryStateFile {
+
+	/**
+	 * The first four bytes of the file, "CDSF".
+	 */
+	public static final int MAGIC = 0x43445346;
+	/**
+	 * The current version of the layout. This must be incremented whenever the layout changes, including when
+	 * {@link ClassMirrorFormat#VERSION} does, and files written by any other version are ignored.
+	 */
+	public static final int VERSION = 1;
+
+	private DiscoveryStateFile() {
+	}
+
+	/**
+	 * The state of one discovery location, as read from the file.
+	 */
+	public static final class LocationState {
+
+		private final URL url;
+		private final boolean exists;
+		private String fingerprint;
+		private ClassDiscoveryURLCache classes;
+		private Map<String, Set<ClassMirror<?>>> subtypes;
+		private Set<String> dependencies;
+
+		LocationState(URL url, boolean exists) {
+			this.url = url;
+			this.exists = exists;
+		}
+
+		/**
+		 * @return The discovery location
+		 */
+		public URL getURL() {
+			return url;
+		}
+
+		/**
+		 * @return Whether the location still exists
+		 */
+		public boolean exists() {
+			return exists;
+		}
+
+		/**
+		 * @return The fingerprint of the location, which the classes were read with, or null if the location changed
+		 * since the file was written.
+		 */
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		/**
+		 * @return The classes of the location, or null if the location changed since the file was written, in which
+		 * case it must be scanned again.
+		 */
+		public ClassDiscoveryURLCache getClasses() {
+			return classes;
+		}
+
+		/**
+		 * @return The entries of the location in the subtype index, as for
+		 * {@link SubtypeIndex#restore(java.net.URL, java.util.Collection, java.util.Map, java.util.Set)}, or null if
+		 * the location changed.
+		 */
+		public Map<String, Set<ClassMirror<?>>> getSubtypes() {
+			return subtypes;
+		}
+
+		/**
+		 * @return The external dependencies of the location in the subtype index, or null if the location changed.
+		 */
+		public Set<String> getDependencies() {
+			return dependencies;
+		}
+	}
+
+	/**
+	 * Writes the given locations to the file. The file is written to a temporary file first, and moved into place, so
+	 * that a concurrent reader never sees a partially written file. The locations that no longer have the fingerprint
+	 * they were scanned with are written without their classes, so that they are scanned again when they're read.
+	 *
+	 * @param file
+	 * @param urls The discovery locations, in the order they were added
+	 * @param classes The classes of each location
+	 * @param subtypes The subtype index, which must contain every location
+	 * @param fingerprints The fingerprint of each location, as of when its classes were scanned
+	 * @throws IOException
+	 */
+	public static void write(File file, Collection<URL> urls, Map<URL, Set<ClassMirror<?>>> classes,
+			SubtypeIndex subtypes, Map<URL, String> fingerprints) throws IOException {
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null) {
+			dir.mkdirs();
+		}
+		File temp = File.createTempFile(file.getName(), ".tmp", dir);
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					Files.newOutputStream(temp.toPath())))) {
+				out.writeInt(MAGIC);
+				out.writeShort(VERSION);
+				out.writeInt(urls.size());
+				for(URL url : urls) {
+					String fingerprint = fingerprints.get(url);
+					if(fingerprint == null || !fingerprint.equals(fingerprint(url))) {
+						//The classes aren't those of the location as it is now, which never matches an empty
+						//fingerprint
+						writeString(out, url.toString());
+						writeString(out, "");
+						out.writeInt(0);
+						continue;
+					}
+					byte[] section = writeSection(new ArrayList<>(classes.get(url)), subtypes.getEntries(url),
+							subtypes.getExternalDependencies(url));
+					writeString(out, url.toString());
+					writeString(out, fingerprint);
+					out.writeInt(section.length);
+					out.write(section);
+				}
+			}
+			try {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException ex) {
+				Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static byte[] writeSection(List<ClassMirror<?>> mirrors, Map<String, Set<ClassMirror<?>>> entries,
+			Set<String> dependencies) throws IOException {
+		ByteArrayOutputStream mirrorBytes = new ByteArrayOutputStream();
+		ClassMirrorFormat.write(mirrors, mirrorBytes);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(mirrorBytes.size() + 1024);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(mirrorBytes.size());
+		mirrorBytes.writeTo(out);
+		Map<ClassMirror<?>, Integer> indexes = new HashMap<>();
+		for(int i = 0; i < mirrors.size(); i++) {
+			indexes.put(mirrors.get(i), i);
+		}
+		if(entries == null) {
+			entries = Collections.emptyMap();
+		}
+		out.writeInt(entries.size());
+		for(Map.Entry<String, Set<ClassMirror<?>>> e : entries.entrySet()) {
+			writeString(out, e.getKey());
+			List<Integer> list = new ArrayList<>(e.getValue().size());
+			for(ClassMirror<?> m : e.getValue()) {
+				Integer index = indexes.get(m);
+				if(index != null) {
+					list.add(index);
+				}
+			}
+			out.writeInt(list.size());
+			for(int index : list) {
+				out.writeInt(index);
+			}
+		}
+		if(dependencies == null) {
+			dependencies = Collections.emptySet();
+		}
+		out.writeInt(dependencies.size());
+		for(String d : dependencies) {
+			writeString(out, d);
+		}
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads the file. Only the locations whose fingerprint still matches are read, the others are skipped over, and
+	 * only have their URL filled in. A location whose section can't be read is treated the same as one that changed,
+	 * so that it is scanned again.
+	 *
+	 * @param file
+	 * @return The locations, in the order they were written
+	 * @throws IOException If the file can't be read, or isn't a state file of this version
+	 */
+	public static List<LocationState> read(File file) throws IOException {
+		ByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if(buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+				throw new IOException("Not a class discovery state file");
+			}
+			int version = buffer.getShort() & 0xFFFF;
+			if(version != VERSION) {
+				throw new IOException("Unsupported class discovery state file version " + version + ", expected "
+						+ VERSION);
+			}
+			int count = buffer.getInt();
+			List<LocationState> states = new ArrayList<>(count);
+			for(int i = 0; i < count; i++) {
+				URL url = new URL(readString(buffer));
+				String fingerprint = readString(buffer);
+				int length = buffer.getInt();
+				String current = fingerprint(url);
+				LocationState state = new LocationState(url, current != null);
+				ByteBuffer section = slice(buffer, length);
+				if(fingerprint.equals(current)) {
+					try {
+						readSection(state, section);
+						state.fingerprint = fingerprint;
+					} catch (IOException ex) {
+						//Scan it again, rather than trust any of it
+						state.classes = null;
+						state.subtypes = null;
+						state.dependencies = null;
+					}
+				}
+				buffer.position(buffer.position() + length);
+				states.add(state);
+			}
+			return states;
+		} catch (BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IOException("Corrupt class discovery state file", ex);
+		}
+	}
+
+	/**
+	 * Reads the section of a location into the given state.
+	 *
+	 * @param state
+	 * @param section
+	 * @throws IOException If the section is corrupt, or its mirrors were written by a different version. The url is
+	 * never scanned instead, because the supertype entries refer to the mirrors by their position.
+	 */
+	private static void readSection(LocationState state, ByteBuffer section) throws IOException {
+		try {
+			int length = section.getInt();
+			ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(state.url, slice(section, length), false);
+			section.position(section.position() + length);
+			cache.setSource(DiscoveryMetrics.ScanSource.SAVED_STATE);
+			List<ClassMirror<?>> mirrors = cache.getClasses();
+			int supertypes = section.getInt();
+			Map<String, Set<ClassMirror<?>>> entries = new HashMap<>();
+			for(int i = 0; i < supertypes; i++) {
+				String name = readString(section);
+				int classes = section.getInt();
+				Set<ClassMirror<?>> set = new LinkedHashSet<>();
+				for(int j = 0; j < classes; j++) {
+					int index = section.getInt();
+					if(index < 0 || index >= mirrors.size()) {
+						throw new IOException("Corrupt class discovery state file, class index " + index + " of "
+								+ mirrors.size());
+					}
+					set.add(mirrors.get(index));
+				}
+				entries.put(name, set);
+			}
+			int dependencies = section.getInt();
+			Set<String> names = new HashSet<>();
+			for(int i = 0; i < dependencies; i++) {
+				names.add(readString(section));
+			}
+			state.classes = cache;
+			state.subtypes = entries;
+			state.dependencies = names;
+		} catch (BufferUnderflowException | IllegalArgumentException ex) {
+			throw new IOException("Corrupt class discovery state file", ex);
+		}
+	}
+
+	/**
+	 * Returns the fingerprint of the given discovery location, as it is now, or null if the location doesn't exist.
+	 *
+	 * @param url
+	 * @return
+	 * @throws IOException
+	 */
+	public static String fingerprint(URL url) throws IOException {
+		File location = getFile(url);
+		if(location == null || !location.exists()) {
+			return null;
+		}
+		if(location.isFile()) {
+			return "jar " + location.length() + " " + location.lastModified();
+		}
+		List<File> files = new ArrayList<>();
+		ClassDiscovery.descend(location, files);
+		Collections.sort(files);
+		DirectoryFingerprint fingerprint = new DirectoryFingerprint(location);
+		for(File f : files) {
+			if(ClassDiscovery.isScannableClass(f.getName())) {
+				fingerprint.add(f, f.length(), f.lastModified());
+			}
+		}
+		return fingerprint.get();
+	}
+
+	/**
+	 * Builds the fingerprint of a directory, out of the scannable class files in it, which must be added in sorted
+	 * order. This lets a scan take the fingerprint of a directory from the sizes and modification times it already
+	 * read, rather than walking the directory again.
+	 */
+	public static final class DirectoryFingerprint {
+
+		private final MessageDigest digest;
+		private final int root;
+		private int count = 0;
+
+		public DirectoryFingerprint(File location) {
+			try {
+				digest = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException ex) {
+				// Every JVM is required to support SHA-256
+				throw new Error(ex);
+			}
+			root = location.getPath().length();
+		}
+
+		public void add(File f, long size, long modified) {
+			digest.update((f.getPath().substring(root) + "\t" + size + "\t" + modified + "\n")
+					.getBytes(StandardCharsets.UTF_8));
+			count++;
+		}
+
+		public String get() {
+			return "dir " + count + " " + StringUtils.toHex(digest.digest());
+		}
+	}
+
+	/**
+	 * Returns the file or directory that the given discovery location points to, or null if it isn't a local file.
+	 */
+	private static File getFile(URL url) {
+		String location;
+		try {
+			location = URLDecoder.decode(url.toString(), "UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			return null;
+		}
+		location = location.replaceFirst("^jar:", "");
+		if(location.endsWith("!/")) {
+			location = StringUtils.replaceLast(location, "!/", "");
+		}
+		if(!location.startsWith("file:")) {
+			return null;
+		}
+		return new File(location.substring(5));
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int length) {
+		if(length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer slice = buffer.slice();
+		slice.limit(length);
+		return slice;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,26 +1,340 @@
 package com.methodscript.PureUtilities.ClassLoading;
 
 import com.methodscript.PureUtilities.Common.ReflectionUtils;
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * This class extends ClassLoader, but allows for new jars/classpath elements to be added at runtime. Note that already
  * loaded classes won't be affected if a new jar is added, but new requests for classes will be.
+ *
+ * The loader is parallel capable, so different classes can be loaded at once. When a jar is added, the packages it
+ * contains are indexed, so that a class is only looked for in the jars that contain its package, and the names that
+ * weren't found anywhere are remembered, up to a limit, until the next jar is added. The other entries of each jar are
+ * indexed as well, so resources are only looked for in the jars that have them, and are read through a zip file that
+ * is kept open until the jar is removed, and the streams read from it are closed.
  */
 public class DynamicClassLoader extends ClassLoader {
 
-	private final Map<URL, URLClassLoader> classLoaders = new LinkedHashMap<URL, URLClassLoader>();
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	/**
+	 * The number of class names that weren't found that are remembered.
+	 */
+	private static final int NEGATIVE_CACHE_SIZE = 1024;
+
+	private final Map<URL, JarIndex> jars = new LinkedHashMap<URL, JarIndex>();
 	private final Set<URL> urls = new HashSet<URL>();
-	private boolean destroyed = false;
+	private volatile boolean destroyed = false;
+	/**
+	 * What lookups read. This is replaced, never modified, whenever a jar is added or removed, so lookups don't need to
+	 * lock anything. It is only replaced while holding the lock on notFound, so that a class that wasn't found in an
+	 * older Lookup is never remembered as not found after a newer one is in place.
+	 */
+	private volatile Lookup lookup = new Lookup();
+	private final Map<String, Boolean> notFound = new NegativeCache();
+
+	/**
+	 * The names of the classes that weren't found, with the least recently used ones dropped first.
+	 */
+	private static final class NegativeCache extends LinkedHashMap<String, Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		NegativeCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > NEGATIVE_CACHE_SIZE;
+		}
+	}
+
+	/**
+	 * A jar (or other classpath element) that was added, along with what it contains, if that could be indexed.
+	 */
+	private static final class JarIndex {
+
+		private final URLClassLoader loader;
+		/**
+		 * The open jar, or null if the URL couldn't be indexed, such as a directory.
+		 */
+		private final ZipFile zip;
+		/**
+		 * The number of streams read from the zip that haven't been closed yet. Guarded by this.
+		 */
+		private int openStreams = 0;
+		/**
+		 * Whether the jar was removed. The zip is closed once this is true and there are no open streams left. Guarded
+		 * by this.
+		 */
+		private boolean closed = false;
+		private final Set<String> packages;
+		/**
+		 * The names of the entries that aren't class files.
+		 */
+		private final Set<String> resources;
+
+		JarIndex(URL url) {
+			this.loader = new URLClassLoader(new URL[]{url}, DynamicClassLoader.class.getClassLoader());
+			Set<String> packages = new HashSet<String>();
+			Set<String> resources = new HashSet<String>();
+			this.zip = open(url, packages, resources);
+			this.packages = packages;
+			this.resources = resources;
+		}
+
+		/**
+		 * Opens the given jar, and reads the names of the packages it contains classes in, and the other entries it
+		 * contains. Returns null if it isn't a local jar, or can't be read.
+		 *
+		 * @param url
+		 * @param packages
+		 * @param resources
+		 * @return
+		 */
+		private static ZipFile open(URL url, Set<String> packages, Set<String> resources) {
+			if(!"file".equals(url.getProtocol()) || !url.getPath().endsWith(".jar")) {
+				return null;
+			}
+			ZipFile zip = null;
+			try {
+				zip = new ZipFile(new File(url.toURI()));
+				for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+					ZipEntry entry = e.nextElement();
+					String name = entry.getName();
+					if(name.endsWith(".class")) {
+						int slash = name.lastIndexOf('/');
+						packages.add(slash == -1 ? "" : name.substring(0, slash).replace('/', '.'));
+					} else if(!entry.isDirectory()) {
+						resources.add(name);
+					}
+				}
+				return zip;
+			} catch (IOException | URISyntaxException | IllegalArgumentException ex) {
+				packages.clear();
+				resources.clear();
+				if(zip != null) {
+					try {
+						zip.close();
+					} catch (IOException ex1) {
+						// Whatever.
+					}
+				}
+				return null;
+			}
+		}
+
+		boolean isIndexed() {
+			return zip != null;
+		}
+
+		/**
+		 * Returns the URL of the given resource in this jar, or null if it doesn't contain it. The open zip is only
+		 * used to check whether the jar has the entry, the URL itself is built by the URLClassLoader, so that it is
+		 * escaped the same way as any other resource URL.
+		 *
+		 * @param name
+		 * @return
+		 */
+		URL findResource(String name) {
+			if(zip == null) {
+				return loader.findResource(name);
+			}
+			try {
+				if(zip.getEntry(name) == null) {
+					return null;
+				}
+			} catch (IllegalStateException ex) {
+				// The zip was closed, because the jar was removed in the meantime
+				return null;
+			}
+			return loader.findResource(name);
+		}
+
+		/**
+		 * Opens the given resource in this jar, or returns null if it doesn't contain it. The zip isn't closed until
+		 * the returned stream is, even if the jar is removed in the meantime.
+		 *
+		 * @param name
+		 * @return
+		 */
+		InputStream getResourceAsStream(String name) {
+			try {
+				if(zip == null) {
+					URL resource = loader.findResource(name);
+					return resource == null ? null : resource.openStream();
+				}
+				InputStream in;
+				synchronized(this) {
+					if(closed) {
+						return null;
+					}
+					ZipEntry entry = zip.getEntry(name);
+					if(entry == null) {
+						return null;
+					}
+					in = zip.getInputStream(entry);
+					openStreams++;
+				}
+				return new FilterInputStream(in) {
+					private boolean released = false;
+
+					@Override
+					public void close() throws IOException {
+						try {
+							super.close();
+						} finally {
+							synchronized(JarIndex.this) {
+								if(!released) {
+									released = true;
+									release();
+								}
+							}
+						}
+					}
+				};
+			} catch (IOException | IllegalStateException ex) {
+				return null;
+			}
+		}
+
+		private synchronized void release() {
+			openStreams--;
+			if(closed && openStreams == 0) {
+				closeZip();
+			}
+		}
+
+		private void closeZip() {
+			try {
+				zip.close();
+			} catch (IOException ex) {
+				// Whatever.
+			}
+		}
+
+		/**
+		 * Closes this jar. If streams read from it are still open, the zip is closed when the last of them is.
+		 */
+		void close() {
+			try {
+				loader.close();
+			} catch (IOException ex) {
+				// Whatever.
+			}
+			if(zip != null) {
+				synchronized(this) {
+					closed = true;
+					if(openStreams == 0) {
+						closeZip();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * The jars to look in for each package and resource, in the order they were added.
+	 */
+	private static final class Lookup {
+
+		private final List<JarIndex> all;
+		private final Map<String, List<JarIndex>> byPackage;
+		private final Map<String, List<JarIndex>> byResource;
+		/**
+		 * The jars that couldn't be indexed, which have to be looked in for everything.
+		 */
+		private final List<JarIndex> unindexed;
+
+		Lookup() {
+			this.all = Collections.emptyList();
+			this.byPackage = Collections.emptyMap();
+			this.byResource = Collections.emptyMap();
+			this.unindexed = Collections.emptyList();
+		}
+
+		Lookup(Collection<JarIndex> jars) {
+			this.all = new ArrayList<JarIndex>(jars);
+			this.byPackage = new HashMap<String, List<JarIndex>>();
+			this.byResource = new HashMap<String, List<JarIndex>>();
+			this.unindexed = new ArrayList<JarIndex>();
+			for(JarIndex j : all) {
+				if(!j.isIndexed()) {
+					unindexed.add(j);
+					continue;
+				}
+				index(byPackage, j.packages, j);
+				index(byResource, j.resources, j);
+			}
+		}
+
+		private static void index(Map<String, List<JarIndex>> map, Set<String> keys, JarIndex j) {
+			for(String key : keys) {
+				List<JarIndex> list = map.get(key);
+				if(list == null) {
+					list = new ArrayList<JarIndex>(1);
+					map.put(key, list);
+				}
+				list.add(j);
+			}
+		}
+
+		/**
+		 * Returns the jars that may contain the given resource, which may be a class file.
+		 *
+		 * @param name
+		 * @return
+		 */
+		List<JarIndex> getCandidates(String name) {
+			List<JarIndex> indexed;
+			if(name.endsWith(".class")) {
+				int slash = name.lastIndexOf('/');
+				indexed = byPackage.get(slash == -1 ? "" : name.substring(0, slash).replace('/', '.'));
+			} else {
+				indexed = byResource.get(name);
+			}
+			if(unindexed.isEmpty()) {
+				return indexed == null ? Collections.<JarIndex>emptyList() : indexed;
+			}
+			if(indexed == null) {
+				return unindexed;
+			}
+			//Keep the order the jars were added in
+			Set<JarIndex> matches = Collections.newSetFromMap(new IdentityHashMap<JarIndex, Boolean>());
+			matches.addAll(indexed);
+			matches.addAll(unindexed);
+			List<JarIndex> candidates = new ArrayList<JarIndex>();
+			for(JarIndex j : all) {
+				if(matches.contains(j)) {
+					candidates.add(j);
+				}
+			}
+			return candidates;
+		}
+	}
 
 	/**
 	 * Adds a jar to this class loader instance. This can be done at runtime, and if a jar already defines a class (or
@@ -35,7 +349,13 @@ public class DynamicClassLoader extends ClassLoader {
 			return;
 		}
 		urls.add(url);
-		classLoaders.put(url, new URLClassLoader(new URL[]{url}, DynamicClassLoader.class.getClassLoader()));
+		jars.put(url, new JarIndex(url));
+		Lookup newLookup = new Lookup(jars.values());
+		synchronized(notFound) {
+			lookup = newLookup;
+			//Anything that wasn't found before may be in the new jar
+			notFound.clear();
+		}
 	}
 
 	/**
@@ -51,18 +371,18 @@ public class DynamicClassLoader extends ClassLoader {
 		}
 
 		urls.remove(url);
-		URLClassLoader l = classLoaders.remove(url);
-
-		try {
-			l.close();
-		} catch (IOException ex) {
-			// Whatever.
+		JarIndex j = jars.remove(url);
+		Lookup newLookup = new Lookup(jars.values());
+		synchronized(notFound) {
+			lookup = newLookup;
 		}
+		j.close();
 	}
 
 	@Override
-	protected synchronized Package getPackage(String name) {
-		for(ClassLoader c : classLoaders.values()) {
+	protected Package getPackage(String name) {
+		for(JarIndex j : lookup.all) {
+			ClassLoader c = j.loader;
 			Package p = (Package) ReflectionUtils.invokeMethod(c.getClass(), c, "getPackage", new Class[]{String.class}, new Object[]{name});
 			if(p != null) {
 				return p;
@@ -72,36 +392,117 @@ public class DynamicClassLoader extends ClassLoader {
 	}
 
 	@Override
-	protected synchronized Package[] getPackages() {
+	protected Package[] getPackages() {
 		List<Package> packages = new ArrayList<Package>();
-		for(ClassLoader c : classLoaders.values()) {
+		for(JarIndex j : lookup.all) {
+			ClassLoader c = j.loader;
 			packages.addAll(Arrays.asList((Package[]) ReflectionUtils.invokeMethod(c.getClass(), c, "getPackages")));
 		}
 		return packages.toArray(new Package[packages.size()]);
 	}
 
 	@Override
-	protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+	protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
 		checkDestroy();
-		try {
-			//If the parent class knows about it, we're done.
-			Class c = Class.forName(name, resolve, DynamicClassLoader.class.getClassLoader());
-			return c;
-		} catch (ClassNotFoundException ex) {
-			//Otherwise we need to find the class ourselves.
-			for(URLClassLoader url : classLoaders.values()) {
-				try {
-					Class c = url.loadClass(name);
-					if(resolve) {
-						resolveClass(c);
+		synchronized(getClassLoadingLock(name)) {
+			synchronized(notFound) {
+				if(notFound.containsKey(name)) {
+					throw new ClassNotFoundException(name);
+				}
+			}
+			Lookup lookup = this.lookup;
+			try {
+				//If the parent class knows about it, we're done.
+				Class c = Class.forName(name, resolve, DynamicClassLoader.class.getClassLoader());
+				return c;
+			} catch (ClassNotFoundException ex) {
+				//Otherwise we need to find the class ourselves, but only in the jars that have its package, and only
+				//in the one that actually has the class file, so that the others don't each throw an exception.
+				String path = name.replace('.', '/') + ".class";
+				for(JarIndex j : lookup.getCandidates(path)) {
+					if(j.findResource(path) == null) {
+						continue;
+					}
+					try {
+						Class c = j.loader.loadClass(name);
+						if(resolve) {
+							resolveClass(c);
+						}
+						return c;
+					} catch (ClassNotFoundException ex1) {
+						//Don't care, move on to the next class loader
 					}
-					return c;
-				} catch (ClassNotFoundException ex1) {
-					//Don't care, move on to the next class loader
 				}
+				synchronized(notFound) {
+					//If a jar was added in the meantime, it may have the class
+					if(lookup == this.lookup) {
+						notFound.put(name, Boolean.TRUE);
+					}
+				}
+				throw new ClassNotFoundException(name);
+			}
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * The URLs of resources in a jar are jar: URLs, so opening one goes through a JarURLConnection, which opens the jar
+	 * again rather than using the zip file this loader keeps open. To read a resource through the already open jar,
+	 * use {@link #getResourceAsStream(String)} instead.
+	 */
+	@Override
+	protected URL findResource(String name) {
+		for(JarIndex j : lookup.getCandidates(name)) {
+			URL resource = j.findResource(name);
+			if(resource != null) {
+				return resource;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		List<URL> resources = new ArrayList<URL>();
+		for(JarIndex j : lookup.getCandidates(name)) {
+			if(j.isIndexed()) {
+				URL resource = j.findResource(name);
+				if(resource != null) {
+					resources.add(resource);
+				}
+			} else {
+				resources.addAll(Collections.list(j.loader.findResources(name)));
+			}
+		}
+		return Collections.enumeration(resources);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * <p>
+	 * Resources in a jar are read from the zip file this loader keeps open. If the jar is removed, or this loader is
+	 * destroyed, while the stream is still open, the stream can still be read, and the zip file is only closed once
+	 * the stream is, so these streams should always be closed.
+	 */
+	@Override
+	public InputStream getResourceAsStream(String name) {
+		ClassLoader parent = getParent();
+		if(parent == null) {
+			return super.getResourceAsStream(name);
+		}
+		InputStream in = parent.getResourceAsStream(name);
+		if(in != null) {
+			return in;
+		}
+		//Read it straight from the open jar, rather than opening it again through the URL
+		for(JarIndex j : lookup.getCandidates(name)) {
+			in = j.getResourceAsStream(name);
+			if(in != null) {
+				return in;
 			}
-			throw new ClassNotFoundException(name);
 		}
+		return null;
 	}
 
 	/**
@@ -112,8 +513,15 @@ public class DynamicClassLoader extends ClassLoader {
 	 */
 	public synchronized void destroy() {
 		destroyed = true;
-		classLoaders.clear();
+		for(JarIndex j : jars.values()) {
+			j.close();
+		}
+		jars.clear();
 		urls.clear();
+		synchronized(notFound) {
+			lookup = new Lookup();
+			notFound.clear();
+		}
 	}
 
 	private void checkDestroy() {
@@ -0,0 +1,382 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassReferenceMirror;
+import com.methodscript.PureUtilities.Common.ClassUtils;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An inverted index from each supertype to all known classes that extend or implement it, directly or transitively.
+ * The transitive closure is computed once per URL, when the URL is indexed, and each URL's entries are kept separately,
+ * so adding or removing a URL only requires the closure of that URL to be computed or dropped.
+ *
+ * A class's hierarchy may leave the URL that it is declared in, either into another known URL, or into classes that are
+ * only available through a ClassLoader, such as the JDK. The names that each URL's closure went through outside of the
+ * URL are recorded, so that when a URL declaring any of those names is later added or removed, the affected URLs can
+ * be found with {@link #getDependentURLs(java.util.Set)} and reindexed.
+ *
+ * The same closure is also kept the other way around, as the full set of ancestors of each known class, so that
+ * {@link #isSubtype(ClassMirror, String, Map, ClassLoader)} is a single bit test. The ancestor sets are encoded as
+ * bitsets over a dense numbering of the types that are ancestors of anything, which are far fewer than the classes
+ * themselves. The supertypes of classes that are only available through a ClassLoader are looked up once per
+ * ClassLoader, and shared by all copies of the index.
+ *
+ * This class is not thread safe, but an index that is no longer modified can be read from any thread.
+ */
+class SubtypeIndex {
+
+	private static final String OBJECT = "Ljava/lang/Object;";
+
+	private final URLIndex<ClassMirror<?>> index;
+	/**
+	 * For each URL, the supertype names its closure went through which aren't declared in the URL itself.
+	 */
+	private final Map<URL, Set<String>> externalDependencies;
+	/**
+	 * For each URL, the ancestors of each class declared in it, by JVM name.
+	 */
+	private final Map<URL, Map<String, BitSet>> ancestorsByURL;
+	/**
+	 * The ancestors of every known class. If more than one URL declares the same class, the URL that was added first
+	 * wins, as in {@link SymbolTable}.
+	 */
+	private final Map<String, BitSet> ancestors;
+	private final TypeIds ids;
+	private final LoadedSupertypes loaded;
+
+	public SubtypeIndex() {
+		this.index = new URLIndex<>();
+		this.externalDependencies = new HashMap<>();
+		this.ancestorsByURL = new LinkedHashMap<>();
+		this.ancestors = new HashMap<>();
+		this.ids = new TypeIds();
+		this.loaded = new LoadedSupertypes();
+	}
+
+	private SubtypeIndex(SubtypeIndex copy) {
+		this.index = copy.index.copy();
+		this.externalDependencies = new HashMap<>(copy.externalDependencies);
+		this.ancestorsByURL = new LinkedHashMap<>(copy.ancestorsByURL);
+		this.ancestors = new HashMap<>(copy.ancestors);
+		// Both of these only ever grow, and are safe to share between copies
+		this.ids = copy.ids;
+		this.loaded = copy.loaded;
+	}
+
+	/**
+	 * Returns a copy of this index, which can be modified without affecting this one. See {@link URLIndex#copy()}.
+	 *
+	 * @return
+	 */
+	public SubtypeIndex copy() {
+		return new SubtypeIndex(this);
+	}
+
+	/**
+	 * Computes the transitive closure for all the classes in the given URL, and adds them to the index, replacing the
+	 * previous entries for the URL, if any.
+	 *
+	 * @param url The URL being indexed
+	 * @param mirrors The classes declared in the URL
+	 * @param known All known classes, across all URLs, mapped by JVM name. This is used to walk the hierarchy without
+	 * loading classes.
+	 * @param loader Supertypes that aren't known classes are loaded (without being initialized) from this
+	 * ClassLoader, to find their own supertypes.
+	 */
+	public void add(URL url, Collection<ClassMirror<?>> mirrors, Map<String, ClassMirror<?>> known, ClassLoader loader) {
+		Set<String> declared = new HashSet<>();
+		for(ClassMirror<?> m : mirrors) {
+			declared.add(m.getJVMClassName());
+		}
+		Set<String> dependencies = new HashSet<>();
+		Map<String, Set<ClassMirror<?>>> entries = new HashMap<>();
+		for(ClassMirror<?> m : mirrors) {
+			for(String ancestor : getAncestors(m, declared, dependencies, known, loader)) {
+				Set<ClassMirror<?>> set = entries.get(ancestor);
+				if(set == null) {
+					set = new LinkedHashSet<>();
+					entries.put(ancestor, set);
+				}
+				set.add(m);
+			}
+		}
+		restore(url, mirrors, entries, dependencies);
+	}
+
+	/**
+	 * Adds a closure that was computed earlier, and returned by {@link #getEntries(java.net.URL)} and
+	 * {@link #getExternalDependencies(java.net.URL)}, replacing the previous entries for the URL, if any. No hierarchy
+	 * is walked, so it is up to the caller to make sure that the closure is still correct, that is, that none of the
+	 * classes it went through have changed since.
+	 *
+	 * @param url The URL being indexed
+	 * @param mirrors The classes declared in the URL
+	 * @param entries For each supertype, the classes in the URL that extend or implement it. The map is owned by the
+	 * index after this call.
+	 * @param dependencies The supertype names the closure went through which aren't declared in the URL itself
+	 */
+	public void restore(URL url, Collection<ClassMirror<?>> mirrors, Map<String, Set<ClassMirror<?>>> entries,
+			Set<String> dependencies) {
+		remove(url);
+		Map<ClassMirror<?>, BitSet> bits = new IdentityHashMap<>();
+		for(Map.Entry<String, Set<ClassMirror<?>>> e : entries.entrySet()) {
+			int id = ids.getOrCreate(e.getKey());
+			for(ClassMirror<?> m : e.getValue()) {
+				BitSet b = bits.get(m);
+				if(b == null) {
+					b = new BitSet();
+					bits.put(m, b);
+				}
+				b.set(id);
+			}
+		}
+		Map<String, BitSet> closures = new HashMap<>();
+		for(ClassMirror<?> m : mirrors) {
+			String name = m.getJVMClassName().intern();
+			if(!closures.containsKey(name)) {
+				BitSet b = bits.get(m);
+				closures.put(name, b == null ? new BitSet() : b);
+			}
+		}
+		index.put(url, entries);
+		externalDependencies.put(url, dependencies);
+		ancestorsByURL.put(url, closures);
+		for(Map.Entry<String, BitSet> e : closures.entrySet()) {
+			if(!ancestors.containsKey(e.getKey())) {
+				ancestors.put(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Returns the entries for the given URL, that is, for each supertype, the classes in the URL that extend or
+	 * implement it, or null if the URL isn't indexed. The returned map is a read only view.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Map<String, Set<ClassMirror<?>>> getEntries(URL url) {
+		return index.getEntries(url);
+	}
+
+	/**
+	 * Returns the supertype names that the closure of the given URL went through, which aren't declared in the URL
+	 * itself, or null if the URL isn't indexed. The returned set is a read only view.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Set<String> getExternalDependencies(URL url) {
+		Set<String> dependencies = externalDependencies.get(url);
+		return dependencies == null ? null : Collections.unmodifiableSet(dependencies);
+	}
+
+	/**
+	 * Removes the entries for the given URL.
+	 *
+	 * @param url
+	 */
+	public void remove(URL url) {
+		index.remove(url);
+		externalDependencies.remove(url);
+		Map<String, BitSet> old = ancestorsByURL.remove(url);
+		if(old == null) {
+			return;
+		}
+		for(Map.Entry<String, BitSet> e : old.entrySet()) {
+			if(ancestors.get(e.getKey()) != e.getValue()) {
+				// Another URL's class was already in the index
+				continue;
+			}
+			ancestors.remove(e.getKey());
+			for(Map<String, BitSet> closures : ancestorsByURL.values()) {
+				BitSet bits = closures.get(e.getKey());
+				if(bits != null) {
+					ancestors.put(e.getKey(), bits);
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the URLs whose closure went through any of the given JVM names outside of the URL itself. When the given
+	 * names become newly declared or are no longer declared, these URLs need to be reindexed.
+	 *
+	 * @param names
+	 * @return
+	 */
+	public Set<URL> getDependentURLs(Set<String> names) {
+		Set<URL> urls = new LinkedHashSet<>();
+		for(Map.Entry<URL, Set<String>> entry : externalDependencies.entrySet()) {
+			if(!Collections.disjoint(entry.getValue(), names)) {
+				urls.add(entry.getKey());
+			}
+		}
+		return urls;
+	}
+
+	/**
+	 * Returns all known classes that extend or implement the given type. The type itself is not included, and
+	 * java.lang.Object is not indexed. The returned set is a read only view.
+	 *
+	 * @param jvmName The JVM name of the supertype, for instance "Ljava/lang/Runnable;"
+	 * @return
+	 */
+	public Set<ClassMirror<?>> getSubtypes(String jvmName) {
+		return index.get(jvmName);
+	}
+
+	/**
+	 * Returns true if the given class extends or implements the given type, directly or transitively. If the class is
+	 * known, this is a bit test against its precomputed ancestors, otherwise its hierarchy is walked through the known
+	 * classes, and the supertypes that were already looked up in the given ClassLoader. In neither case is the
+	 * hierarchy of a class loaded more than once per ClassLoader. java.lang.Object is not indexed, so this returns
+	 * false for it.
+	 *
+	 * @param m The class
+	 * @param superName The JVM name of the supertype, for instance "Ljava/lang/Runnable;"
+	 * @param known All known classes, by JVM name
+	 * @param loader The ClassLoader to look up classes that aren't known in
+	 * @return
+	 */
+	public boolean isSubtype(ClassMirror<?> m, String superName, Map<String, ClassMirror<?>> known,
+			ClassLoader loader) {
+		BitSet bits = ancestors.get(m.getJVMClassName());
+		if(bits != null) {
+			int id = ids.get(superName);
+			return id >= 0 && bits.get(id);
+		}
+		return getAncestors(m, Collections.<String>emptySet(), new HashSet<String>(), known, loader)
+				.contains(superName);
+	}
+
+	/**
+	 * Removes all entries.
+	 */
+	public void clear() {
+		index.clear();
+		externalDependencies.clear();
+		ancestorsByURL.clear();
+		ancestors.clear();
+	}
+
+	private Set<String> getAncestors(ClassMirror<?> m, Set<String> declared, Set<String> dependencies,
+			Map<String, ClassMirror<?>> known, ClassLoader loader) {
+		Set<String> ancestors = new HashSet<>();
+		if(OBJECT.equals(m.getJVMClassName())) {
+			return ancestors;
+		}
+		Deque<String> queue = new ArrayDeque<>();
+		addSupertypes(m, queue);
+		while(!queue.isEmpty()) {
+			String name = queue.pop();
+			if(OBJECT.equals(name) || !ancestors.add(name)) {
+				continue;
+			}
+			if(!declared.contains(name)) {
+				dependencies.add(name);
+			}
+			ClassMirror<?> find = known.get(name);
+			if(find != null) {
+				addSupertypes(find, queue);
+			} else {
+				queue.addAll(loaded.get(name, loader));
+			}
+		}
+		return ancestors;
+	}
+
+	private static void addSupertypes(ClassMirror<?> m, Deque<String> queue) {
+		if(!m.isInterface()) {
+			queue.add(m.getSuperClass().getJVMName());
+		}
+		for(ClassReferenceMirror<?> r : m.getInterfaces()) {
+			queue.add(r.getJVMName());
+		}
+	}
+
+	/**
+	 * A dense numbering of the types that are ancestors of known classes. Numbers are only ever added, so the
+	 * numbering can be shared between copies of the index, and read from any thread.
+	 */
+	private static final class TypeIds {
+
+		private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+		public int get(String name) {
+			Integer id = ids.get(name);
+			return id == null ? -1 : id;
+		}
+
+		public synchronized int getOrCreate(String name) {
+			Integer id = ids.get(name);
+			if(id == null) {
+				id = ids.size();
+				ids.put(name.intern(), id);
+			}
+			return id;
+		}
+	}
+
+	/**
+	 * The direct supertypes of classes that aren't known mirrors, found by loading them without initializing them,
+	 * per ClassLoader. The ClassLoaders are weakly referenced, so that this doesn't prevent them from being garbage
+	 * collected.
+	 */
+	private static final class LoadedSupertypes {
+
+		private final Map<ClassLoader, ConcurrentMap<String, List<String>>> cache = new WeakHashMap<>();
+
+		/**
+		 * Returns the direct supertypes of the given class, as found in the given ClassLoader. If the class can't be
+		 * loaded, it is treated as having no supertypes.
+		 */
+		public List<String> get(String name, ClassLoader loader) {
+			ConcurrentMap<String, List<String>> loaded;
+			synchronized(cache) {
+				loaded = cache.get(loader);
+				if(loaded == null) {
+					loaded = new ConcurrentHashMap<>();
+					cache.put(loader, loaded);
+				}
+			}
+			List<String> supers = loaded.get(name);
+			if(supers != null) {
+				return supers;
+			}
+			supers = new ArrayList<>();
+			try {
+				Class<?> clazz = ClassUtils.forCanonicalName(ClassUtils.getCommonNameFromJVMName(name), false, loader);
+				if(clazz.getSuperclass() != null) {
+					supers.add(ClassUtils.getJVMName(clazz.getSuperclass()));
+				}
+				for(Class<?> c : clazz.getInterfaces()) {
+					supers.add(ClassUtils.getJVMName(c));
+				}
+			} catch (ClassNotFoundException | LinkageError ex) {
+				// The hierarchy can't be followed any further from here.
+			}
+			supers = Collections.unmodifiableList(supers);
+			loaded.put(name, supers);
+			return supers;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A complete table of all known classes, by JVM name ("Lcom/example/Outer$Inner;") and by class name
+ * ("com.example.Outer.Inner"). Each URL's classes are added when the URL is discovered, so every lookup, including a
+ * lookup for a class that isn't known, is a single hash lookup. If more than one URL declares the same class, the URL
+ * that was added first wins. The keys are interned, since the same names tend to be held elsewhere as well.
+ *
+ * The classes are also indexed by simple name, so that a fuzzy lookup, where the package isn't known exactly, only has
+ * to look at the few classes that share the simple name.
+ *
+ * This class is not thread safe, but a table that is no longer modified can be read from any thread.
+ */
+class SymbolTable {
+
+	private final Map<URL, Map<String, ClassMirror<?>>> byURL;
+	private final Map<String, ClassMirror<?>> jvmNames;
+	private final Map<String, ClassMirror<?>> classNames;
+	/**
+	 * The lists are never modified once they're in the map, they are replaced instead, so that they can be shared with
+	 * copies.
+	 */
+	private final Map<String, List<ClassMirror<?>>> simpleNames;
+
+	public SymbolTable() {
+		this.byURL = new LinkedHashMap<>();
+		this.jvmNames = new HashMap<>();
+		this.classNames = new HashMap<>();
+		this.simpleNames = new HashMap<>();
+	}
+
+	private SymbolTable(SymbolTable copy) {
+		this.byURL = new LinkedHashMap<>(copy.byURL);
+		this.jvmNames = new HashMap<>(copy.jvmNames);
+		this.classNames = new HashMap<>(copy.classNames);
+		this.simpleNames = new HashMap<>(copy.simpleNames);
+	}
+
+	/**
+	 * Returns a copy of this table, which can be modified without affecting this one.
+	 *
+	 * @return
+	 */
+	public SymbolTable copy() {
+		return new SymbolTable(this);
+	}
+
+	/**
+	 * Sets the classes declared in the given URL, replacing the classes it declared before, if any.
+	 *
+	 * @param url
+	 * @param mirrors
+	 */
+	public void put(URL url, Collection<ClassMirror<?>> mirrors) {
+		remove(url);
+		Map<String, ClassMirror<?>> declared = new HashMap<>();
+		for(ClassMirror<?> m : mirrors) {
+			String name = m.getJVMClassName().intern();
+			if(!declared.containsKey(name)) {
+				declared.put(name, m);
+			}
+		}
+		byURL.put(url, declared);
+		for(Map.Entry<String, ClassMirror<?>> e : declared.entrySet()) {
+			if(!jvmNames.containsKey(e.getKey())) {
+				add(e.getKey(), e.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Removes the classes declared in the given URL. If another URL declares a class with the same name, that class
+	 * takes its place.
+	 *
+	 * @param url
+	 */
+	public void remove(URL url) {
+		Map<String, ClassMirror<?>> old = byURL.remove(url);
+		if(old == null) {
+			return;
+		}
+		for(Map.Entry<String, ClassMirror<?>> e : old.entrySet()) {
+			if(jvmNames.get(e.getKey()) != e.getValue()) {
+				// Another URL's class was already in the table
+				continue;
+			}
+			jvmNames.remove(e.getKey());
+			String className = e.getValue().getClassName();
+			if(classNames.get(className) == e.getValue()) {
+				classNames.remove(className);
+			}
+			removeSimpleName(e.getValue());
+			for(Map<String, ClassMirror<?>> declared : byURL.values()) {
+				ClassMirror<?> m = declared.get(e.getKey());
+				if(m != null) {
+					add(e.getKey(), m);
+					break;
+				}
+			}
+		}
+	}
+
+	private void add(String jvmName, ClassMirror<?> m) {
+		jvmNames.put(jvmName, m);
+		String className = m.getClassName().intern();
+		if(!classNames.containsKey(className)) {
+			classNames.put(className, m);
+		}
+		String simpleName = m.getSimpleName().intern();
+		List<ClassMirror<?>> list = simpleNames.get(simpleName);
+		list = list == null ? new ArrayList<ClassMirror<?>>(1) : new ArrayList<>(list);
+		list.add(m);
+		simpleNames.put(simpleName, list);
+	}
+
+	private void removeSimpleName(ClassMirror<?> m) {
+		String simpleName = m.getSimpleName();
+		List<ClassMirror<?>> list = simpleNames.get(simpleName);
+		if(list == null) {
+			return;
+		}
+		list = new ArrayList<>(list);
+		for(Iterator<ClassMirror<?>> it = list.iterator(); it.hasNext();) {
+			if(it.next() == m) {
+				it.remove();
+			}
+		}
+		if(list.isEmpty()) {
+			simpleNames.remove(simpleName);
+		} else {
+			simpleNames.put(simpleName, list);
+		}
+	}
+
+	/**
+	 * Returns the class with the given JVM name, for instance "Ljava/lang/String;", or null if no such class is
+	 * known.
+	 *
+	 * @param jvmName
+	 * @return
+	 */
+	public ClassMirror<?> getByJVMName(String jvmName) {
+		return jvmNames.get(jvmName);
+	}
+
+	/**
+	 * Returns the class with the given class name, as returned by {@link ClassMirror#getClassName()}, or null if no
+	 * such class is known.
+	 *
+	 * @param className
+	 * @return
+	 */
+	public ClassMirror<?> getByClassName(String className) {
+		return classNames.get(className);
+	}
+
+	/**
+	 * Returns all the classes with the given simple name, as returned by {@link ClassMirror#getSimpleName()}. The
+	 * returned list is read only, and is never null.
+	 *
+	 * @param simpleName
+	 * @return
+	 */
+	public List<ClassMirror<?>> getBySimpleName(String simpleName) {
+		List<ClassMirror<?>> list = simpleNames.get(simpleName);
+		if(list == null) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns a read only view of the whole table, keyed by JVM name.
+	 *
+	 * @return
+	 */
+	public Map<String, ClassMirror<?>> getJVMNames() {
+		return Collections.unmodifiableMap(jvmNames);
+	}
+
+	/**
+	 * Removes all classes.
+	 */
+	public void clear() {
+		byURL.clear();
+		jvmNames.clear();
+		classNames.clear();
+		simpleNames.clear();
+	}
+}
@@ -0,0 +1,146 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index from a key (usually a JVM descriptor) to a set of values, where each URL contributes its own entries. The
+ * entries for one URL can be replaced or removed without touching the entries of any other URL, and lookups are
+ * answered from a merged view over all the URLs.
+ *
+ * This class is not thread safe, but {@link #copy()} is cheap, and the copy shares no mutable state with the
+ * original, so an index can be published to other threads, as long as it is copied before it is modified again.
+ *
+ * @param <V> The type of the indexed values
+ */
+class URLIndex<V> {
+
+	private final Map<URL, Map<String, Set<V>>> byURL;
+	private final Map<String, Set<V>> merged;
+	/**
+	 * The keys whose merged set was created by this instance, and so isn't shared with any copy. Other sets are
+	 * replaced, rather than modified, when they change.
+	 */
+	private final Set<String> owned = new HashSet<>();
+
+	public URLIndex() {
+		this.byURL = new LinkedHashMap<>();
+		this.merged = new HashMap<>();
+	}
+
+	private URLIndex(URLIndex<V> copy) {
+		this.byURL = new LinkedHashMap<>(copy.byURL);
+		this.merged = new HashMap<>(copy.merged);
+	}
+
+	/**
+	 * Returns a copy of this index. Only the maps are copied, the sets are shared until either index changes them.
+	 *
+	 * @return
+	 */
+	public URLIndex<V> copy() {
+		owned.clear();
+		return new URLIndex<>(this);
+	}
+
+	/**
+	 * Sets the entries for the given URL, replacing any entries it had before. The map passed in is owned by the
+	 * index after this call, and must not be modified by the caller.
+	 *
+	 * @param url
+	 * @param entries
+	 */
+	public void put(URL url, Map<String, Set<V>> entries) {
+		remove(url);
+		byURL.put(url, entries);
+		for(Map.Entry<String, Set<V>> entry : entries.entrySet()) {
+			Set<V> set = merged.get(entry.getKey());
+			if(set == null || !owned.contains(entry.getKey())) {
+				set = set == null ? new LinkedHashSet<>() : new LinkedHashSet<>(set);
+				merged.put(entry.getKey(), set);
+				owned.add(entry.getKey());
+			}
+			set.addAll(entry.getValue());
+		}
+	}
+
+	/**
+	 * Removes all the entries for the given URL. Keys that the URL contributed to are rebuilt from the remaining
+	 * URLs, so that a value that is also contributed by another URL is kept.
+	 *
+	 * @param url
+	 */
+	public void remove(URL url) {
+		Map<String, Set<V>> old = byURL.remove(url);
+		if(old == null) {
+			return;
+		}
+		for(String key : old.keySet()) {
+			Set<V> set = new LinkedHashSet<>();
+			for(Map<String, Set<V>> entries : byURL.values()) {
+				Set<V> values = entries.get(key);
+				if(values != null) {
+					set.addAll(values);
+				}
+			}
+			if(set.isEmpty()) {
+				merged.remove(key);
+				owned.remove(key);
+			} else {
+				merged.put(key, set);
+				owned.add(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns true if the given URL has been added to this index.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public boolean contains(URL url) {
+		return byURL.containsKey(url);
+	}
+
+	/**
+	 * Returns the entries that the given URL contributed, or null if it hasn't been added. The returned map is a read
+	 * only view.
+	 *
+	 * @param url
+	 * @return
+	 */
+	public Map<String, Set<V>> getEntries(URL url) {
+		Map<String, Set<V>> entries = byURL.get(url);
+		return entries == null ? null : Collections.unmodifiableMap(entries);
+	}
+
+	/**
+	 * Returns the values for the given key, across all URLs. The returned set is a read only view, and is never null.
+	 *
+	 * @param key
+	 * @return
+	 */
+	public Set<V> get(String key) {
+		Set<V> set = merged.get(key);
+		if(set == null) {
+			return Collections.emptySet();
+		}
+		return Collections.unmodifiableSet(set);
+	}
+
+	/**
+	 * Removes all entries for all URLs.
+	 */
+	public void clear() {
+		byURL.clear();
+		merged.clear();
+		owned.clear();
+	}
+}
@@ -1,14 +1,13 @@
 package com.methodscript.PureUtilities.Common.Annotations;
 
 import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
-import com.methodscript.PureUtilities.ClassLoading.ClassDiscoveryCache;
+import com.methodscript.PureUtilities.ClassLoading.ClassDiscoveryCacheGenerator;
 import com.methodscript.PureUtilities.ClassLoading.ClassDiscoveryURLCache;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
 import com.methodscript.PureUtilities.Common.StreamUtils;
 import com.methodscript.PureUtilities.Common.StringUtils;
 import com.methodscript.PureUtilities.ExhaustiveVisitor;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Member;
 import java.lang.reflect.Method;
@@ -37,14 +36,8 @@ public class AnnotationChecks {
 			StreamUtils.GetSystemOut().println("Skipping annotation caching, running locally.");
 			return;
 		}
-		StreamUtils.GetSystemOut().println("-- Caching annotations --");
-		StreamUtils.GetSystemOut().println("Scanning for classes in " + scanDir.getAbsolutePath());
-		StreamUtils.GetSystemOut().println("Outputting file to directory " + outputDir.getAbsolutePath());
-		long start = System.currentTimeMillis();
+		ClassDiscoveryURLCache cache = ClassDiscoveryCacheGenerator.generate(scanDir, outputDir);
 		URL cacheFile = new URL("file:" + scanDir.getCanonicalPath());
-		ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(cacheFile);
-		cache.writeDescriptor(new FileOutputStream(new File(outputDir, ClassDiscoveryCache.OUTPUT_FILENAME)));
-		StreamUtils.GetSystemOut().println("Done writing " + ClassDiscoveryCache.OUTPUT_FILENAME + ", which took " + (System.currentTimeMillis() - start) + " ms.");
 		ClassDiscovery.getDefaultInstance().addPreCache(cacheFile, cache);
 		ClassDiscovery.getDefaultInstance().addDiscoveryLocation(cacheFile);
 		AnnotationChecks.checkAll();
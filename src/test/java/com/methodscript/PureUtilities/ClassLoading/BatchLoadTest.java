@@ -0,0 +1,117 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class BatchLoadTest {
+
+	private static final Map<String, String> INITIALIZED_ON = new ConcurrentHashMap<>();
+
+	public static interface Plugin {
+	}
+
+	public static class GoodPlugin implements Plugin {
+
+		static {
+			INITIALIZED_ON.put(GoodPlugin.class.getName(), Thread.currentThread().getName());
+		}
+	}
+
+	public static class OtherPlugin implements Plugin {
+
+		static {
+			INITIALIZED_ON.put(OtherPlugin.class.getName(), Thread.currentThread().getName());
+		}
+	}
+
+	public static class BrokenPlugin implements Plugin {
+
+		static {
+			if(true) {
+				throw new IllegalStateException("Broken on purpose");
+			}
+		}
+	}
+
+	public static interface Checked {
+	}
+
+	public static class PassingCheck implements Checked {
+	}
+
+	public static class FailingCheck implements Checked {
+
+		static {
+			if(true) {
+				throw new AssertionError("Failed on purpose");
+			}
+		}
+	}
+
+	private static Set<String> names(Iterable<? extends ClassMirror<?>> mirrors) {
+		Set<String> names = new HashSet<>();
+		for(ClassMirror<?> m : mirrors) {
+			names.add(m.getClassName());
+		}
+		return names;
+	}
+
+	@Test
+	public void testParallelLoad() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(BatchLoadTest.class));
+		discovery.setLoadParallelism(4);
+		ClassLoader loader = BatchLoadTest.class.getClassLoader();
+		assertTrue(ClassDiscovery.isParallelCapable(loader));
+		BatchLoadResult<ClassMirror<Plugin>, Class<Plugin>> result
+				= discovery.batchLoadClassesThatExtend(Plugin.class, loader, true);
+		Set<String> expected = new HashSet<>();
+		expected.add(GoodPlugin.class.getCanonicalName());
+		expected.add(OtherPlugin.class.getCanonicalName());
+		assertEquals(expected, names(result.getLoaded().keySet()));
+		assertTrue(result.getValues().contains(GoodPlugin.class));
+		// The broken class doesn't stop the others from loading
+		assertEquals(1, result.getFailures().size());
+		Throwable failure = result.getFailures().values().iterator().next();
+		assertTrue(failure instanceof ExceptionInInitializerError);
+		// The initializers ran on the pool, not the calling thread
+		assertTrue(INITIALIZED_ON.get(GoodPlugin.class.getName()).startsWith("ClassDiscovery loader"));
+		assertTrue(INITIALIZED_ON.get(OtherPlugin.class.getName()).startsWith("ClassDiscovery loader"));
+	}
+
+	@Test
+	public void testErrorsInParallelLoadAreReported() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(BatchLoadTest.class));
+		discovery.setLoadParallelism(4);
+		BatchLoadResult<ClassMirror<Checked>, Class<Checked>> result
+				= discovery.batchLoadClassesThatExtend(Checked.class, BatchLoadTest.class.getClassLoader(), true);
+		assertEquals(1, result.getLoaded().size());
+		assertTrue(result.getValues().contains(PassingCheck.class));
+		assertEquals(1, result.getFailures().size());
+		assertTrue(result.getFailures().values().iterator().next() instanceof AssertionError);
+	}
+
+	@Test
+	public void testSequentialLoad() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(BatchLoadTest.class));
+		discovery.setLoadParallelism(1);
+		BatchLoadResult<ClassMirror<?>, Class<?>> result = discovery.batchLoadClassesWithAnnotation(Test.class,
+				BatchLoadTest.class.getClassLoader(), false);
+		assertTrue(!result.hasFailures());
+		assertEquals(discovery.getClassesWithAnnotation(Test.class), result.getLoaded().keySet());
+		assertEquals(discovery.getMethodsWithAnnotation(Test.class).size(),
+				discovery.batchLoadMethodsWithAnnotation(Test.class, BatchLoadTest.class.getClassLoader(), false)
+						.getLoaded().size());
+	}
+}
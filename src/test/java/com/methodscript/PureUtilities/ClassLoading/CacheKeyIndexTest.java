@@ -0,0 +1,146 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class CacheKeyIndexTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("cache-keys").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testFilesWithTheSameHeaderHaveDifferentKeys() throws Exception {
+		byte[] data = new byte[10000];
+		File a = new File(dir, "a.jar");
+		Files.write(a.toPath(), data);
+		data[data.length - 1] = 1;
+		File b = new File(dir, "b.jar");
+		Files.write(b.toPath(), data);
+		CacheKeyIndex index = new CacheKeyIndex(new File(dir, "cache"));
+		assertNotEquals(index.getKey(a), index.getKey(b));
+	}
+
+	@Test
+	public void testKeyIsRememberedAcrossInstances() throws Exception {
+		File a = new File(dir, "a.jar");
+		Files.write(a.toPath(), new byte[]{1, 2, 3});
+		File cache = new File(dir, "cache");
+		CacheKeyIndex index = new CacheKeyIndex(cache);
+		String key = index.getKey(a);
+		index.flush();
+		assertTrue(new File(cache, CacheKeyIndex.INDEX_FILENAME).exists());
+		// The index is trusted as long as the size and modification time match, so changing the contents without
+		// changing either shows that the file wasn't hashed again.
+		long modified = a.lastModified();
+		Files.write(a.toPath(), new byte[]{3, 2, 1});
+		a.setLastModified(modified);
+		assertEquals(key, new CacheKeyIndex(cache).getKey(a));
+	}
+
+	@Test
+	public void testModifiedFileIsRehashed() throws Exception {
+		File a = new File(dir, "a.jar");
+		Files.write(a.toPath(), new byte[]{1, 2, 3});
+		CacheKeyIndex index = new CacheKeyIndex(new File(dir, "cache"));
+		String key = index.getKey(a);
+		Files.write(a.toPath(), new byte[]{3, 2, 1});
+		a.setLastModified(a.lastModified() + 10000);
+		String newKey = index.getKey(a);
+		assertNotEquals(key, newKey);
+		assertEquals(CacheKeyIndex.hash(a), newKey);
+		index.flush();
+		assertTrue(Arrays.asList(new File(dir, "cache").list()).contains(CacheKeyIndex.INDEX_FILENAME));
+	}
+
+	@Test
+	public void testIndexIsWrittenOnFlush() throws Exception {
+		File cache = new File(dir, "cache");
+		File index = new File(cache, CacheKeyIndex.INDEX_FILENAME);
+		CacheKeyIndex keys = new CacheKeyIndex(cache);
+		for(int i = 0; i < 5; i++) {
+			File f = new File(dir, i + ".jar");
+			Files.write(f.toPath(), new byte[]{(byte) i});
+			keys.getKey(f);
+		}
+		assertFalse(index.exists());
+		keys.flush();
+		assertEquals(5, Files.readAllLines(index.toPath()).size());
+		// Nothing changed, so it isn't written again
+		assertTrue(index.setLastModified(1000));
+		keys.flush();
+		assertEquals(1000, index.lastModified());
+	}
+
+	@Test
+	public void testInstancesSharingADirectoryMergeTheirKeys() throws Exception {
+		File cache = new File(dir, "cache");
+		File a = new File(dir, "a.jar");
+		Files.write(a.toPath(), new byte[]{1});
+		File b = new File(dir, "b.jar");
+		Files.write(b.toPath(), new byte[]{2});
+		CacheKeyIndex first = new CacheKeyIndex(cache);
+		CacheKeyIndex second = new CacheKeyIndex(cache);
+		// Both read the index before either wrote it
+		String keyA = first.getKey(a);
+		String keyB = second.getKey(b);
+		first.flush();
+		second.flush();
+		assertEquals(2, Files.readAllLines(new File(cache, CacheKeyIndex.INDEX_FILENAME).toPath()).size());
+		// Neither is hashed again, which changing the contents without changing the size or time shows
+		long modified = a.lastModified();
+		Files.write(a.toPath(), new byte[]{3});
+		a.setLastModified(modified);
+		assertEquals(keyA, new CacheKeyIndex(cache).getKey(a));
+		assertEquals(keyB, new CacheKeyIndex(cache).getKey(b));
+	}
+
+	@Test
+	public void testKeysOfDeletedFilesAreDropped() throws Exception {
+		File cache = new File(dir, "cache");
+		File index = new File(cache, CacheKeyIndex.INDEX_FILENAME);
+		File a = new File(dir, "a-1.0.jar");
+		Files.write(a.toPath(), new byte[]{1});
+		CacheKeyIndex keys = new CacheKeyIndex(cache);
+		keys.getKey(a);
+		keys.flush();
+		assertEquals(1, Files.readAllLines(index.toPath()).size());
+		// Redeployed under a new name
+		assertTrue(a.delete());
+		File b = new File(dir, "a-1.1.jar");
+		Files.write(b.toPath(), new byte[]{2});
+		keys.getKey(b);
+		keys.flush();
+		assertEquals(Arrays.asList(b.getCanonicalPath()), paths(index));
+	}
+
+	private static List<String> paths(File index) throws Exception {
+		List<String> paths = new ArrayList<>();
+		for(String line : Files.readAllLines(index.toPath())) {
+			paths.add(line.split("\t", 4)[3]);
+		}
+		return paths;
+	}
+}
@@ -0,0 +1,55 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ClassDiscoveryCacheGeneratorTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("cache-generator").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	@Test
+	public void testGeneratedFileIsUsedInsteadOfScanning() throws Exception {
+		URL classes = ClassDiscovery.GetClassContainer(ClassDiscoveryCacheGeneratorTest.class);
+		ClassDiscoveryURLCache generated = ClassDiscoveryCacheGenerator.generate(new File(classes.toURI()), dir);
+		File output = new File(dir, ClassDiscoveryCache.OUTPUT_FILENAME);
+		assertTrue(output.exists());
+		assertTrue(!generated.getClasses().isEmpty());
+
+		// The jar only contains the generated file, so if any classes are found in it, they came from the file.
+		File jar = new File(dir, "test.jar");
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+				FileInputStream in = new FileInputStream(output)) {
+			out.putNextEntry(new ZipEntry(ClassDiscoveryCache.OUTPUT_FILENAME));
+			IOUtils.copy(in, out);
+		}
+		URL jarURL = jar.toURI().toURL();
+		ClassDiscoveryURLCache read = new ClassDiscoveryCache(new File(dir, "cache")).getURLCache(jarURL);
+		assertEquals(generated.getClasses().size(), read.getClasses().size());
+		assertEquals(jarURL, read.getClasses().get(0).getContainer());
+	}
+}
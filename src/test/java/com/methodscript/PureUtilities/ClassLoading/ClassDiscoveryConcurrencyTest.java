@@ -0,0 +1,208 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ProgressIterator;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Stress tests for concurrent queries against a single ClassDiscovery instance.
+ */
+public class ClassDiscoveryConcurrencyTest {
+
+	private static final int READERS = 8;
+
+	@Test(timeout = 60000)
+	public void testConcurrentFirstDiscovery() throws Exception {
+		final URL url = ClassDiscovery.GetClassContainer(ClassDiscoveryConcurrencyTest.class);
+		final ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(url);
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(READERS);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for(int i = 0; i < READERS; i++) {
+				results.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						start.await();
+						return discovery.getKnownClasses().size();
+					}
+				}));
+			}
+			start.countDown();
+			Set<Integer> sizes = new HashSet<>();
+			for(Future<Integer> f : results) {
+				sizes.add(f.get());
+			}
+			assertEquals(1, sizes.size());
+			assertTrue(sizes.iterator().next() > 0);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test(timeout = 120000)
+	public void testReadersDuringAddAndRemove() throws Exception {
+		final URL stable = ClassDiscovery.GetClassContainer(ClassDiscoveryConcurrencyTest.class);
+		final URL toggled = ClassDiscovery.GetClassContainer(ClassReader.class);
+		final ClassDiscoveryURLCache toggledCache = new ClassDiscoveryURLCache(toggled);
+		final ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(stable);
+		final int stableCount = discovery.getKnownClasses().size();
+		final int toggledCount = toggledCache.getClasses().size();
+		final int expectedSubtypes = discovery.getClassesThatExtend(GeneralTest.F.class).size();
+		final ClassMirror<?> expectedMirror = discovery.forName(GeneralTest.class.getName());
+		final AtomicBoolean done = new AtomicBoolean(false);
+
+		ExecutorService executor = Executors.newFixedThreadPool(READERS + 1);
+		try {
+			List<Future<Integer>> readers = new ArrayList<>();
+			for(int i = 0; i < READERS; i++) {
+				readers.add(executor.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int queries = 0;
+						while(!done.get()) {
+							// Each snapshot either has the toggled URL or it doesn't, it is never in between
+							int size = discovery.getKnownClasses().size();
+							assertTrue("Saw " + size + " classes", size == stableCount
+									|| size == stableCount + toggledCount);
+							assertEquals(expectedSubtypes, discovery.getClassesThatExtend(GeneralTest.F.class).size());
+							assertEquals(expectedMirror, discovery.forName(GeneralTest.class.getName()));
+							assertTrue(discovery.getClassesWithAnnotation(GeneralTest.TestAnnotation.class)
+									.contains(expectedMirror));
+							queries++;
+						}
+						return queries;
+					}
+				}));
+			}
+			Future<?> writer = executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						for(int i = 0; i < 50; i++) {
+							discovery.addPreCache(toggled, toggledCache);
+							discovery.addDiscoveryLocation(toggled);
+							assertEquals(stableCount + toggledCount, discovery.getKnownClasses().size());
+							discovery.removeDiscoveryLocation(toggled);
+							assertEquals(stableCount, discovery.getKnownClasses().size());
+							if(i % 10 == 0) {
+								discovery.invalidateCaches();
+							}
+						}
+					} finally {
+						done.set(true);
+					}
+					return null;
+				}
+			});
+			writer.get();
+			for(Future<Integer> f : readers) {
+				assertTrue(f.get() > 0);
+			}
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void testWarmUp() throws Exception {
+		final URL classes = ClassDiscovery.GetClassContainer(ClassDiscoveryConcurrencyTest.class);
+		final URL jar = ClassDiscovery.GetClassContainer(ClassReader.class);
+		final ClassDiscovery discovery = new ClassDiscovery();
+		final CountDownLatch jarStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		// Holds up the scan of the jar, which is only reported on while jars are scanned
+		discovery.setProgressIterator(new ProgressIterator() {
+			@Override
+			public void progressChanged(double current, double total) {
+				jarStarted.countDown();
+				try {
+					release.await(30, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		discovery.addDiscoveryLocation(classes);
+		discovery.addDiscoveryLocation(jar);
+		CompletableFuture<Void> warmUp = discovery.warmUp(discovery.query().thatExtend(Runnable.class));
+		try {
+			assertTrue(jarStarted.await(30, TimeUnit.SECONDS));
+			// The directory is done, so this doesn't wait for the jar
+			List<ClassMirror<?>> known = discovery.getKnownClasses(classes);
+			assertFalse(known.isEmpty());
+			assertFalse(warmUp.isDone());
+		} finally {
+			release.countDown();
+		}
+		warmUp.get();
+		assertEquals(1, (int) discovery.getCacheSizes().get("queryPlans"));
+		assertEquals(new HashSet<>(discovery.getKnownClasses(classes)),
+				new HashSet<>(new ClassDiscovery().addDiscoveryLocation(classes).getKnownClasses(classes)));
+	}
+
+	@Test(timeout = 60000)
+	public void testQueryBeforeWarmUpStartsWaitsForIt() throws Exception {
+		final URL jar = ClassDiscovery.GetClassContainer(ClassReader.class);
+		final ClassDiscovery discovery = new ClassDiscovery();
+		discovery.setParallelism(1);
+		final Set<String> scannedOn = new HashSet<>();
+		discovery.setProgressIterator(new ProgressIterator() {
+			@Override
+			public void progressChanged(double current, double total) {
+				synchronized(scannedOn) {
+					scannedOn.add(Thread.currentThread().getName());
+				}
+			}
+		});
+		discovery.addDiscoveryLocation(jar);
+		// Holds on to the warm-up task, so that the query below arrives before it starts
+		final BlockingQueue<Runnable> tasks = new ArrayBlockingQueue<>(1);
+		CompletableFuture<Void> warmUp = discovery.warmUp(new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.add(command);
+			}
+		});
+		final List<ClassMirror<?>> known = new ArrayList<>();
+		Thread query = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				known.addAll(discovery.getKnownClasses(jar));
+			}
+		}, "ClassDiscovery query");
+		query.start();
+		while(query.getState() != Thread.State.WAITING && query.getState() != Thread.State.TERMINATED) {
+			Thread.sleep(10);
+		}
+		tasks.take().run();
+		query.join();
+		warmUp.get();
+		assertFalse(known.isEmpty());
+		assertFalse(scannedOn.isEmpty());
+		assertFalse(scannedOn.contains("ClassDiscovery query"));
+	}
+}
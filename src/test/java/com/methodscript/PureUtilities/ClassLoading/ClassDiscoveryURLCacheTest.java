@@ -0,0 +1,256 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.AbstractMethodMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.AnnotationMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.FieldMirror;
+import com.methodscript.PureUtilities.Common.ReflectionUtils;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class ClassDiscoveryURLCacheTest {
+
+	public static final int INT_CONSTANT = -12345;
+	public static final long LONG_CONSTANT = Long.MIN_VALUE;
+	public static final double DOUBLE_CONSTANT = 1.5;
+	public static final char CHAR_CONSTANT = '☃';
+
+	@Test
+	public void testRoundTripTestClasses() throws Exception {
+		assertRoundTrip(ClassDiscovery.GetClassContainer(ClassDiscoveryURLCacheTest.class));
+	}
+
+	@Test
+	public void testRoundTripJar() throws Exception {
+		assertRoundTrip(ClassDiscovery.GetClassContainer(ClassReader.class));
+	}
+
+	@Test
+	public void testLegacyDescriptorIsStillRead() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(ClassDiscoveryURLCacheTest.class);
+		ClassDiscoveryURLCache original = new ClassDiscoveryURLCache(url);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try(ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+			oos.writeObject(original.getClasses());
+		}
+		ClassDiscoveryURLCache read = new ClassDiscoveryURLCache(url, new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(describe(original.getClasses()), describe(read.getClasses()));
+	}
+
+	@Test
+	public void testDescriptorIsSmallerThanSerialization() throws Exception {
+		assertSmallerThanSerialization(ClassDiscovery.GetClassContainer(ClassReader.class));
+		assertSmallerThanSerialization(ClassDiscovery.GetClassContainer(ClassDiscoveryURLCacheTest.class));
+	}
+
+	private static void assertSmallerThanSerialization(URL url) throws Exception {
+		ClassDiscoveryURLCache cache = new ClassDiscoveryURLCache(url);
+		ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+		try(ObjectOutputStream oos = new ObjectOutputStream(serialized)) {
+			oos.writeObject(cache.getClasses());
+		}
+		ByteArrayOutputStream binary = new ByteArrayOutputStream();
+		cache.writeDescriptor(binary);
+		assertTrue("Descriptor of " + url + " is " + binary.size() + " bytes, serialized is " + serialized.size(),
+				binary.size() < serialized.size());
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownVersionWithoutFallbackFails() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(ClassDiscoveryURLCacheTest.class);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new ClassDiscoveryURLCache(url).writeDescriptor(baos);
+		byte[] data = baos.toByteArray();
+		// The version immediately follows the magic number
+		data[5]++;
+		new ClassDiscoveryURLCache(null, new ByteArrayInputStream(data));
+	}
+
+	@Test
+	public void testLazyMembersAreOnlyReadWhenNeeded() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(ClassDiscoveryURLCacheTest.class);
+		ClassDiscoveryURLCache original = new ClassDiscoveryURLCache(url);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		original.writeDescriptor(baos);
+		ClassDiscoveryURLCache read = new ClassDiscoveryURLCache(url, ByteBuffer.wrap(baos.toByteArray()));
+		for(int i = 0; i < read.getClasses().size(); i++) {
+			ClassMirror<?> m = read.getClasses().get(i);
+			assertTrue(hasUnreadMembers(m));
+			assertEquals(original.getClasses().get(i).hasMemberAnnotations(), m.hasMemberAnnotations());
+			assertTrue(hasUnreadMembers(m));
+		}
+		assertEquals(describe(original.getClasses()), describe(read.getClasses()));
+		for(ClassMirror<?> m : read.getClasses()) {
+			assertFalse(hasUnreadMembers(m));
+		}
+	}
+
+	@Test
+	public void testMemoryMappedCache() throws Exception {
+		File dir = Files.createTempDirectory("mapped-cache").toFile();
+		try {
+			URL url = ClassDiscovery.GetClassContainer(ClassReader.class);
+			ClassDiscoveryCache cache = new ClassDiscoveryCache(dir);
+			cache.setMemoryMapped(true);
+			ClassDiscoveryURLCache scanned = cache.getURLCache(url);
+			cache.flush();
+			assertEquals(1, dir.list((d, name) -> name.endsWith(".mirrors")).length);
+			ClassDiscoveryURLCache mapped = cache.getURLCache(url);
+			assertTrue(hasUnreadMembers(mapped.getClasses().get(0)));
+			assertEquals(describe(scanned.getClasses()), describe(mapped.getClasses()));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testBackgroundCacheWrite() throws Exception {
+		File dir = Files.createTempDirectory("background-cache").toFile();
+		try {
+			URL url = ClassDiscovery.GetClassContainer(ClassReader.class);
+			ClassDiscoveryCache cache = new ClassDiscoveryCache(dir);
+			assertEquals(DiscoveryMetrics.ScanSource.SCAN, cache.getURLCache(url).getSource());
+			// Waits for the write that is still pending, rather than scanning again
+			assertEquals(DiscoveryMetrics.ScanSource.DISK_CACHE, cache.getURLCache(url).getSource());
+			assertTrue(cache.flush(10, TimeUnit.SECONDS));
+			assertEquals(0, dir.list((d, name) -> name.endsWith(".tmp")).length);
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testWaitsForCacheFromOtherWriter() throws Exception {
+		File dir = Files.createTempDirectory("shared-cache").toFile();
+		try {
+			URL url = ClassDiscovery.GetClassContainer(ClassReader.class);
+			final File output = new File(dir, CacheKeyIndex.hash(new File(url.toURI())) + ".mirrors");
+			final ClassDiscoveryURLCache scanned = new ClassDiscoveryURLCache(url);
+			// Stands in for another process that is scanning the same jar
+			try(FileChannel channel = FileChannel.open(new File(output.getPath() + ".lock").toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+				ClassDiscoveryCache cache = new ClassDiscoveryCache(dir);
+				cache.setMemoryMapped(true);
+				cache.setLockTimeout(20000);
+				Thread writer = new Thread(() -> {
+					try {
+						Thread.sleep(200);
+						File temp = new File(output.getPath() + ".tmp");
+						scanned.writeDescriptor(new FileOutputStream(temp));
+						Files.move(temp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE);
+					} catch (Exception ex) {
+						throw new RuntimeException(ex);
+					}
+				});
+				writer.start();
+				assertEquals(DiscoveryMetrics.ScanSource.DISK_CACHE, cache.getURLCache(url).getSource());
+				writer.join();
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testLockTimeout() throws Exception {
+		File dir = Files.createTempDirectory("shared-cache").toFile();
+		try {
+			URL url = ClassDiscovery.GetClassContainer(ClassReader.class);
+			File output = new File(dir, CacheKeyIndex.hash(new File(url.toURI())));
+			try(FileChannel channel = FileChannel.open(new File(output.getPath() + ".lock").toPath(),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE); FileLock lock = channel.lock()) {
+				ClassDiscoveryCache cache = new ClassDiscoveryCache(dir);
+				cache.setLockTimeout(200);
+				long start = System.currentTimeMillis();
+				// The other writer never finishes, so this gives up on it, and scans the jar itself
+				assertEquals(DiscoveryMetrics.ScanSource.SCAN, cache.getURLCache(url).getSource());
+				assertTrue(System.currentTimeMillis() - start >= 200);
+				assertTrue(cache.flush(10, TimeUnit.SECONDS));
+			}
+			assertTrue(output.exists());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private static boolean hasUnreadMembers(ClassMirror<?> m) {
+		Object info = ReflectionUtils.get(ClassMirror.class, m, "info");
+		return ReflectionUtils.get(info.getClass(), info, "memberLoader") != null;
+	}
+
+	private static void assertRoundTrip(URL url) throws Exception {
+		ClassDiscoveryURLCache original = new ClassDiscoveryURLCache(url);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		original.writeDescriptor(baos);
+		ClassDiscoveryURLCache read = new ClassDiscoveryURLCache(url, new ByteArrayInputStream(baos.toByteArray()));
+		assertTrue(!original.getClasses().isEmpty());
+		assertEquals(describe(original.getClasses()), describe(read.getClasses()));
+		for(ClassMirror<?> m : read.getClasses()) {
+			assertEquals(url, m.getContainer());
+		}
+	}
+
+	/**
+	 * Returns a description of everything that is stored about each class, so that two lists can be compared.
+	 */
+	private static List<String> describe(List<ClassMirror<?>> mirrors) {
+		List<String> list = new ArrayList<>();
+		for(ClassMirror<?> m : mirrors) {
+			StringBuilder b = new StringBuilder();
+			b.append(m.getModifiers()).append(" ").append(m.getJVMClassName())
+					.append(" interface=").append(m.isInterface())
+					.append(" enum=").append(m.isEnum())
+					.append(" extends ").append(m.getSuperClass())
+					.append(" implements ").append(m.getInterfaces())
+					.append(" generics ").append(m.getGenerics()).append("\n");
+			describe(b, m.getAnnotations());
+			for(FieldMirror f : m.getFields()) {
+				b.append(f.getModifiers()).append(" ").append(f.getType()).append(" ").append(f.getName())
+						.append(" = ").append(f.getValue() == null ? "null" : f.getValue().getClass() + " " + f.getValue())
+						.append("\n");
+				describe(b, f.getAnnotations());
+			}
+			for(AbstractMethodMirror am : m.getAllMethods()) {
+				b.append(am.getClass().getSimpleName()).append(" ").append(am).append(" ")
+						.append(am.isSynthetic()).append("\n");
+				describe(b, am.getAnnotations());
+			}
+			list.add(b.toString());
+		}
+		return list;
+	}
+
+	private static void describe(StringBuilder b, List<AnnotationMirror> annotations) {
+		for(AnnotationMirror a : annotations) {
+			b.append("@").append(a.getType()).append(" ").append(a.isVisible());
+			for(String name : a.getDefinedValues()) {
+				b.append(" ").append(name).append("=").append(Arrays.deepToString(new Object[]{a.getValue(name)}));
+			}
+			b.append("\n");
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class ClassMirrorVisitorTest {
+
+	public static class Annotated implements Runnable {
+
+		@Deprecated
+		public int field = 1;
+
+		public Annotated() {
+		}
+
+		@Override
+		public void run() {
+		}
+	}
+
+	public static class Plain {
+
+		private String field;
+
+		public void method(String s, int... i) {
+		}
+	}
+
+	@Test
+	public void testMembersAreReadOnDemand() throws Exception {
+		for(Class<?> c : new Class<?>[]{Annotated.class, Plain.class}) {
+			final AtomicInteger opens = new AtomicInteger();
+			ClassMirrorVisitor.ClassFileSource source = new ClassMirrorVisitor.ClassFileSource() {
+				@Override
+				public InputStream open() throws IOException {
+					opens.incrementAndGet();
+					return classFile(c);
+				}
+			};
+			ClassMirror<?> lazy;
+			try(InputStream in = source.open()) {
+				ClassMirrorVisitor visitor = new ClassMirrorVisitor(source);
+				new ClassReader(in).accept(visitor, ClassReader.SKIP_CODE);
+				lazy = visitor.getMirror(null);
+			}
+			ClassMirror<?> eager;
+			try(InputStream in = classFile(c)) {
+				ClassMirrorVisitor visitor = new ClassMirrorVisitor();
+				new ClassReader(in).accept(visitor, ClassReader.SKIP_CODE);
+				eager = visitor.getMirror(null);
+			}
+			assertEquals(eager.getClassName(), lazy.getClassName());
+			assertEquals(c == Annotated.class, lazy.hasMemberAnnotations());
+			assertEquals(1, opens.get());
+			assertEquals(strings(eager.getFields()), strings(lazy.getFields()));
+			assertEquals(2, opens.get());
+			assertEquals(strings(eager.getAllMethods()), strings(lazy.getAllMethods()));
+			assertEquals(eager.getGenerics(), lazy.getGenerics());
+			assertEquals(2, opens.get());
+		}
+	}
+
+	@Test
+	public void testLazyDiscoveryMatchesEagerDiscovery() throws Exception {
+		ClassDiscovery lazy = new ClassDiscovery();
+		ClassDiscovery eager = new ClassDiscovery();
+		assertFalse(eager.isLazyMembers());
+		lazy.setLazyMembers(true);
+		assertTrue(lazy.isLazyMembers());
+		for(ClassDiscovery discovery : new ClassDiscovery[]{lazy, eager}) {
+			discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassMirrorVisitorTest.class));
+			discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassReader.class));
+		}
+		assertEquals(eager.getFieldsWithAnnotation(Deprecated.class).size(),
+				lazy.getFieldsWithAnnotation(Deprecated.class).size());
+		for(String name : new String[]{Annotated.class.getName(), Plain.class.getName(),
+			ClassReader.class.getName()}) {
+			name = name.replace('$', '.');
+			ClassMirror<?> l = lazy.forName(name);
+			ClassMirror<?> e = eager.forName(name);
+			assertEquals(strings(e.getFields()), strings(l.getFields()));
+			assertEquals(strings(e.getAllMethods()), strings(l.getAllMethods()));
+		}
+	}
+
+	@Test
+	public void testLazyMembersOfChangedClassFileFail() throws Exception {
+		File dir = Files.createTempDirectory("lazy-members").toFile();
+		try {
+			File file = new File(dir, Plain.class.getName().replace('.', '/') + ".class");
+			file.getParentFile().mkdirs();
+			try(InputStream in = classFile(Plain.class)) {
+				FileUtils.copyInputStreamToFile(in, file);
+			}
+			ClassDiscovery discovery = new ClassDiscovery();
+			discovery.setLazyMembers(true);
+			discovery.addDiscoveryLocation(dir.toURI().toURL());
+			ClassMirror<?> m = discovery.forName(Plain.class.getName().replace('$', '.'));
+			assertTrue(file.setLastModified(file.lastModified() - 10000));
+			try {
+				m.getFields();
+				fail("The members of a changed class file should not be read");
+			} catch (IllegalStateException ex) {
+				// Expected
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testLazyMembersFromJar() throws Exception {
+		File dir = Files.createTempDirectory("lazy-members").toFile();
+		try {
+			File jar = new File(dir, "asm.jar");
+			FileUtils.copyURLToFile(ClassDiscovery.GetClassContainer(ClassReader.class), jar);
+			ClassDiscovery lazy = new ClassDiscovery();
+			lazy.setLazyMembers(true);
+			lazy.addDiscoveryLocation(jar.toURI().toURL());
+			ClassDiscovery eager = new ClassDiscovery();
+			eager.addDiscoveryLocation(jar.toURI().toURL());
+			// Many classes are read through the one shared jar
+			assertEquals(eager.getMethodsWithAnnotation(Deprecated.class).size(),
+					lazy.getMethodsWithAnnotation(Deprecated.class).size());
+			ClassMirror<?> l = lazy.forName(ClassReader.class.getName());
+			ClassMirror<?> e = eager.forName(ClassReader.class.getName());
+			ClassMirror<?> changed = lazy.forName(ClassVisitor.class.getName());
+			assertEquals(strings(e.getAllMethods()), strings(l.getAllMethods()));
+			assertTrue(jar.setLastModified(jar.lastModified() - 10000));
+			try {
+				changed.getFields();
+				fail("The members of a class in a changed jar should not be read");
+			} catch (IllegalStateException ex) {
+				// Expected
+			}
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	private static InputStream classFile(Class<?> c) {
+		return c.getClassLoader().getResourceAsStream(c.getName().replace('.', '/') + ".class");
+	}
+
+	private static List<String> strings(Object[] members) {
+		List<String> list = new ArrayList<>();
+		for(Object o : members) {
+			list.add(o.toString());
+		}
+		return list;
+	}
+}
@@ -0,0 +1,66 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ *
+ */
+public class MemberCacheTest {
+
+	public static class A {
+
+		public int a;
+	}
+
+	public static class B {
+
+		public int b;
+	}
+
+	public static class C {
+
+		public int c;
+	}
+
+	@Test
+	public void testLeastRecentlyUsedMembersAreDropped() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.setLazyMembers(true);
+		discovery.setMemberCacheSize(2);
+		assertEquals(2, discovery.getMemberCacheSize());
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(MemberCacheTest.class));
+		ClassMirror<?> a = mirror(discovery, A.class);
+		ClassMirror<?> b = mirror(discovery, B.class);
+		ClassMirror<?> c = mirror(discovery, C.class);
+		String aFields = Arrays.toString(a.getFields());
+		b.getFields();
+		// Using a again makes b the least recently used
+		a.getAllMethods();
+		c.getFields();
+		assertNull(a.getHeaderInfo().memberLoader);
+		assertNotNull(b.getHeaderInfo().memberLoader);
+		assertNull(c.getHeaderInfo().memberLoader);
+		// b is read again, and now a is the least recently used
+		assertEquals("b", b.getFields()[0].getName());
+		assertNotNull(a.getHeaderInfo().memberLoader);
+		assertEquals(aFields, Arrays.toString(a.getFields()));
+
+		// Without a limit, nothing is dropped
+		discovery.setMemberCacheSize(0);
+		a.getFields();
+		b.getFields();
+		c.getFields();
+		assertNull(a.getHeaderInfo().memberLoader);
+		assertNull(b.getHeaderInfo().memberLoader);
+		assertNull(c.getHeaderInfo().memberLoader);
+	}
+
+	private static ClassMirror<?> mirror(ClassDiscovery discovery, Class<?> c) throws ClassNotFoundException {
+		return discovery.forName(c.getName().replace('$', '.'));
+	}
+}
@@ -0,0 +1,84 @@
+package com.methodscript.PureUtilities.ClassLoading.ClassMirror;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the mirrors of a scanned jar share their parts, and don't hold on to oversized lists, since with a
+ * whole classpath, that is most of the heap that discovery uses.
+ */
+public class MirrorFootprintTest {
+
+	@Test
+	public void testReferencesAreShared() {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.setLazyMembers(false);
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassReader.class));
+		Map<ClassReferenceMirror<?>, Boolean> instances = new IdentityHashMap<>();
+		Set<ClassReferenceMirror<?>> distinct = new HashSet<>();
+		Map<String, Boolean> names = new IdentityHashMap<>();
+		int uses = 0;
+		for(ClassMirror<?> m : discovery.getKnownClasses()) {
+			ClassMirror.ClassInfo<?> info = m.getInfo();
+			List<ClassReferenceMirror<?>> references = new ArrayList<>();
+			references.add(info.classReferenceMirror);
+			for(AnnotationMirror a : info.annotations) {
+				references.add(a.getType());
+			}
+			for(FieldMirror f : info.fields) {
+				references.add(f.getType());
+				references.add(f.getDeclaringClass());
+				names.put(f.getName(), true);
+			}
+			for(AbstractMethodMirror method : info.methods) {
+				references.add(method.getType());
+				references.add(method.getDeclaringClass());
+				references.addAll((List) method.getParams());
+				names.put(method.getName(), true);
+			}
+			for(ClassReferenceMirror<?> r : references) {
+				instances.put(r, true);
+				distinct.add(r);
+				uses++;
+			}
+		}
+		// Each distinct reference is a single instance, no matter how many members use it
+		assertEquals(distinct.size(), instances.size());
+		assertTrue(uses > 4 * instances.size());
+		Set<String> distinctNames = new HashSet<>(names.keySet());
+		assertEquals(distinctNames.size(), names.size());
+	}
+
+	@Test
+	public void testListsAreCompact() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(MirrorFootprintTest.class));
+		ClassMirror<?> m = discovery.forName(MirrorFootprintTest.class.getName());
+		// The members are read lazily, and are compact once read too
+		assertEquals(3, m.getAllMethods().length);
+		ClassMirror.ClassInfo<?> info = m.getInfo();
+		assertFalse(info.annotations instanceof ArrayList);
+		assertFalse(info.fields instanceof ArrayList);
+		assertFalse(info.methods instanceof ArrayList);
+		assertSame(Collections.emptyList(), info.fields);
+		assertSame(Collections.emptyMap(), info.genericParameters);
+		for(AbstractMethodMirror method : info.methods) {
+			assertFalse(method.annotations instanceof ArrayList);
+			for(AnnotationMirror a : method.annotations) {
+				assertEquals(Test.class.getName(), a.getType().toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ *
+ */
+public class ClassQueryTest {
+
+	@Retention(RetentionPolicy.RUNTIME)
+	public static @interface Tagged {
+	}
+
+	public static interface Q {
+	}
+
+	@Tagged
+	public abstract static class QAbstract implements Q {
+	}
+
+	@Tagged
+	public static class QConcrete extends QAbstract {
+	}
+
+	public static class QUntagged implements Q {
+	}
+
+	@Tagged
+	public static class Other {
+	}
+
+	private ClassDiscovery discovery;
+
+	@Before
+	public void setUp() {
+		discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassQueryTest.class));
+	}
+
+	@Test
+	public void testIntersection() {
+		assertEquals(names(QAbstract.class, QConcrete.class, QUntagged.class),
+				names(discovery.query().thatExtend(Q.class).asSet()));
+		assertEquals(names(QAbstract.class, QConcrete.class, Other.class),
+				names(discovery.query().withAnnotation(Tagged.class).asSet()));
+		assertEquals(names(QAbstract.class, QConcrete.class),
+				names(discovery.query().thatExtend(Q.class).withAnnotation(Tagged.class).asSet()));
+		// The order the criteria are given in doesn't matter
+		assertEquals(names(QAbstract.class, QConcrete.class),
+				names(discovery.query().withAnnotation(Tagged.class).thatExtend(Q.class).asSet()));
+	}
+
+	@Test
+	public void testFilters() {
+		assertEquals(names(QConcrete.class), names(discovery.query().thatExtend(Q.class)
+				.withAnnotation(Tagged.class).notAbstract().asSet()));
+		assertEquals(names(QAbstract.class, QConcrete.class, QUntagged.class), names(discovery.query()
+				.thatExtend(Q.class).inPackage("com.methodscript.PureUtilities.*").asSet()));
+		assertEquals(names(), names(discovery.query().thatExtend(Q.class).inPackage("com.methodscript").asSet()));
+		assertEquals(names(QUntagged.class), names(discovery.query().thatExtend(Q.class)
+				.where(m -> m.getSimpleName().equals("QUntagged")).asSet()));
+	}
+
+	@Test
+	public void testQueryFollowsDiscoveryLocations() {
+		ClassQuery<Q> query = discovery.query().thatExtend(Q.class);
+		assertEquals(3, query.asSet().size());
+		discovery.removeDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassQueryTest.class));
+		assertEquals(0, query.asSet().size());
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(ClassQueryTest.class));
+		assertEquals(3, query.asSet().size());
+	}
+
+	@Test
+	public void testLoad() {
+		Set<Class<? extends Q>> classes = discovery.query().thatExtend(Q.class).notAbstract().load();
+		Set<Class<?>> expected = new HashSet<>();
+		expected.add(QConcrete.class);
+		expected.add(QUntagged.class);
+		assertEquals(expected, classes);
+	}
+
+	private static Set<String> names(Class<?>... classes) {
+		Set<String> set = new HashSet<>();
+		for(Class<?> c : classes) {
+			set.add(c.getName());
+		}
+		return set;
+	}
+
+	private static Set<String> names(Set<? extends ClassMirror<?>> mirrors) {
+		Set<String> set = new HashSet<>();
+		for(ClassMirror<?> m : mirrors) {
+			set.add(m.getJVMClassName().substring(1, m.getJVMClassName().length() - 1).replace('/', '.'));
+		}
+		return set;
+	}
+}
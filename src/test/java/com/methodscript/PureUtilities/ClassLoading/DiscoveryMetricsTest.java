@@ -0,0 +1,127 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.file.Files;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DiscoveryMetricsTest {
+
+	@Test
+	public void testMetricsAreOffByDefault() {
+		ClassDiscovery discovery = new ClassDiscovery();
+		assertNull(discovery.getMetrics());
+		DiscoveryMetrics metrics = discovery.enableMetrics();
+		assertTrue(metrics == discovery.enableMetrics());
+		discovery.disableMetrics();
+		assertNull(discovery.getMetrics());
+	}
+
+	@Test
+	public void testBytesReadAreCountedWithoutMetrics() {
+		URL url = ClassDiscovery.GetClassContainer(DiscoveryMetricsTest.class);
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.countBytesRead();
+		discovery.addDiscoveryLocation(url);
+		discovery.getKnownClasses();
+		assertNull(discovery.getMetrics());
+		assertTrue(discovery.getBytesRead(url) > 0);
+		assertEquals(discovery.getBytesRead(url), new ClassDiscoveryURLCache(url).getBytesRead());
+	}
+
+	@Test
+	public void testScanAndQueryMetrics() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(DiscoveryMetricsTest.class);
+		ClassDiscovery discovery = new ClassDiscovery();
+		DiscoveryMetrics metrics = discovery.enableMetrics();
+		discovery.addDiscoveryLocation(url);
+		discovery.getClassesThatExtend(Runnable.class);
+		discovery.getClassesThatExtend(Runnable.class);
+		discovery.forName(DiscoveryMetricsTest.class.getName());
+
+		DiscoveryMetrics.ScanRecord scan = metrics.getScan(url);
+		assertEquals(DiscoveryMetrics.ScanSource.SCAN.name(), scan.getSource());
+		assertEquals(discovery.getKnownClasses().size(), scan.getClasses());
+		assertTrue(scan.getBytesRead() > 0);
+		assertEquals(1, metrics.getScanSourceCount(DiscoveryMetrics.ScanSource.SCAN));
+		assertEquals(2, metrics.getQuery(DiscoveryMetrics.QueryType.CLASSES_THAT_EXTEND).getCount());
+		assertEquals(1, metrics.getQuery(DiscoveryMetrics.QueryType.FOR_NAME).getCount());
+		assertEquals(0, metrics.getQuery(DiscoveryMetrics.QueryType.FOR_FUZZY_NAME).getCount());
+		assertEquals(scan.getClasses(), (int) metrics.getCacheSizes().get("knownClasses"));
+		// A query that is answered by another query is only recorded once
+		discovery.getClassesWithAnnotationThatExtend(Test.class, Object.class);
+		assertEquals(1, metrics.getQuery(DiscoveryMetrics.QueryType.CLASSES_WITH_ANNOTATION_THAT_EXTEND).getCount());
+		assertEquals(0, metrics.getQuery(DiscoveryMetrics.QueryType.QUERY).getCount());
+
+		metrics.reset();
+		assertEquals(0, metrics.getQuery(DiscoveryMetrics.QueryType.CLASSES_THAT_EXTEND).getCount());
+		assertNull(metrics.getScan(url));
+	}
+
+	@Test
+	public void testCacheOutcomes() throws Exception {
+		URL jar = ClassDiscovery.GetClassContainer(ClassReader.class);
+		File dir = Files.createTempDirectory("metrics-cache").toFile();
+		try {
+			ClassDiscoveryCache cache = new ClassDiscoveryCache(dir);
+			for(int i = 0; i < 2; i++) {
+				ClassDiscovery discovery = new ClassDiscovery();
+				discovery.setClassDiscoveryCache(cache);
+				DiscoveryMetrics metrics = discovery.enableMetrics();
+				discovery.addDiscoveryLocation(jar);
+				discovery.getKnownClasses();
+				// The first time, the jar is scanned, and the second time, the cache that was written is used
+				DiscoveryMetrics.ScanSource expected = i == 0 ? DiscoveryMetrics.ScanSource.SCAN
+						: DiscoveryMetrics.ScanSource.DISK_CACHE;
+				assertEquals(expected.name(), metrics.getScan(jar).getSource());
+				assertTrue(metrics.getScan(jar).getBytesRead() > 0);
+			}
+
+			ClassDiscovery discovery = new ClassDiscovery();
+			DiscoveryMetrics metrics = discovery.enableMetrics();
+			discovery.addPreCache(jar, cache.getURLCache(jar));
+			discovery.addDiscoveryLocation(jar);
+			discovery.getKnownClasses();
+			assertEquals(1, metrics.getScanSourceCount(DiscoveryMetrics.ScanSource.PRECACHE));
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testMBean() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(DiscoveryMetricsTest.class);
+		ClassDiscovery discovery = new ClassDiscovery();
+		DiscoveryMetrics metrics = discovery.enableMetrics();
+		discovery.addDiscoveryLocation(url);
+		discovery.getKnownClasses();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = metrics.registerMBean("test");
+		try {
+			assertTrue(server.isRegistered(name));
+			TabularData scans = (TabularData) server.getAttribute(name, "Scans");
+			assertEquals(1, scans.size());
+			CompositeData scan = (CompositeData) ((CompositeData) scans.values().iterator().next()).get("value");
+			assertEquals(DiscoveryMetrics.ScanSource.SCAN.name(), scan.get("source"));
+			TabularData queries = (TabularData) server.getAttribute(name, "Queries");
+			assertEquals(1, queries.size());
+		} finally {
+			discovery.disableMetrics();
+		}
+		assertFalse(server.isRegistered(name));
+	}
+}
@@ -0,0 +1,200 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
+import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirrorFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ *
+ */
+public class DiscoveryStateFileTest {
+
+	private File dir;
+	private URL classes;
+	private URL jar;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("discovery-state").toFile();
+		classes = ClassDiscovery.GetClassContainer(DiscoveryStateFileTest.class);
+		// A copy, so that it can be touched
+		File copy = new File(dir, "asm.jar");
+		FileUtils.copyURLToFile(ClassDiscovery.GetClassContainer(ClassReader.class), copy);
+		jar = copy.toURI().toURL();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private ClassDiscovery newDiscovery() {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(classes);
+		discovery.addDiscoveryLocation(jar);
+		return discovery;
+	}
+
+	private static Set<String> names(Set<? extends ClassMirror<?>> mirrors) {
+		Set<String> names = new HashSet<>();
+		for(ClassMirror<?> m : mirrors) {
+			names.add(m.getClassName());
+		}
+		return names;
+	}
+
+	private static void assertSameState(ClassDiscovery expected, ClassDiscovery actual) {
+		assertEquals(names(expected.getKnownClasses()), names(actual.getKnownClasses()));
+		assertEquals(names(expected.getClassesThatExtend(ClassVisitor.class)),
+				names(actual.getClassesThatExtend(ClassVisitor.class)));
+		assertEquals(names(expected.getClassesThatExtend(Runnable.class)),
+				names(actual.getClassesThatExtend(Runnable.class)));
+		assertEquals(names(expected.getClassesWithAnnotation(Test.class)),
+				names(actual.getClassesWithAnnotation(Test.class)));
+		assertEquals(expected.getMethodsWithAnnotation(Test.class).size(),
+				actual.getMethodsWithAnnotation(Test.class).size());
+	}
+
+	@Test
+	public void testRestore() throws Exception {
+		File state = new File(dir, "state");
+		ClassDiscovery original = newDiscovery();
+		original.saveState(state);
+
+		ClassDiscovery restored = new ClassDiscovery();
+		DiscoveryMetrics metrics = restored.enableMetrics();
+		assertEquals(new HashSet<>(Arrays.asList(classes, jar)), restored.restoreState(state));
+		assertSameState(original, restored);
+		assertEquals(2, metrics.getScanSourceCount(DiscoveryMetrics.ScanSource.SAVED_STATE));
+		assertEquals(0, metrics.getScanSourceCount(DiscoveryMetrics.ScanSource.SCAN));
+		// The members are read from the file when needed
+		ClassMirror<?> m = restored.forName(DiscoveryStateFileTest.class.getName());
+		assertEquals(classes, m.getContainer());
+		assertEquals(original.forName(DiscoveryStateFileTest.class.getName()).getAllMethods().length,
+				m.getAllMethods().length);
+	}
+
+	@Test
+	public void testChangedLocationIsScanned() throws Exception {
+		File state = new File(dir, "state");
+		ClassDiscovery original = newDiscovery();
+		original.saveState(state);
+		File jarFile = new File(jar.toURI());
+		assertTrue(jarFile.setLastModified(jarFile.lastModified() - 10000));
+
+		ClassDiscovery restored = new ClassDiscovery();
+		DiscoveryMetrics metrics = restored.enableMetrics();
+		assertEquals(Collections.singleton(classes), restored.restoreState(state));
+		assertSameState(original, restored);
+		assertEquals(DiscoveryMetrics.ScanSource.SAVED_STATE.name(), metrics.getScan(classes).getSource());
+		assertEquals(DiscoveryMetrics.ScanSource.SCAN.name(), metrics.getScan(jar).getSource());
+	}
+
+	@Test
+	public void testLocationChangedBeforeSaveIsScanned() throws Exception {
+		File state = new File(dir, "state");
+		ClassDiscovery original = newDiscovery();
+		original.getKnownClasses();
+		// The jar changes after it was scanned, so its mirrors may not be those of the jar as it is now
+		File jarFile = new File(jar.toURI());
+		assertTrue(jarFile.setLastModified(jarFile.lastModified() - 10000));
+		original.saveState(state);
+
+		ClassDiscovery restored = new ClassDiscovery();
+		DiscoveryMetrics metrics = restored.enableMetrics();
+		assertEquals(Collections.singleton(classes), restored.restoreState(state));
+		assertSameState(newDiscovery(), restored);
+		assertEquals(DiscoveryMetrics.ScanSource.SCAN.name(), metrics.getScan(jar).getSource());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws Exception {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes a state file with a valid header for the given location, and the given mirrors, followed by one supertype
+	 * entry with a single class index.
+	 */
+	private static void writeState(File file, URL url, byte[] mirrors, int index) throws Exception {
+		ByteArrayOutputStream sectionBytes = new ByteArrayOutputStream();
+		DataOutputStream section = new DataOutputStream(sectionBytes);
+		section.writeInt(mirrors.length);
+		section.write(mirrors);
+		section.writeInt(1);
+		writeString(section, "java.lang.Object");
+		section.writeInt(1);
+		section.writeInt(index);
+		section.writeInt(0);
+		try(DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+			out.writeInt(DiscoveryStateFile.MAGIC);
+			out.writeShort(DiscoveryStateFile.VERSION);
+			out.writeInt(1);
+			writeString(out, url.toString());
+			writeString(out, DiscoveryStateFile.fingerprint(url));
+			out.writeInt(sectionBytes.size());
+			sectionBytes.writeTo(out);
+		}
+	}
+
+	private void assertCorruptSectionIsScanned(File state) throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		DiscoveryMetrics metrics = discovery.enableMetrics();
+		assertEquals(Collections.emptySet(), discovery.restoreState(state));
+		ClassDiscovery expected = new ClassDiscovery();
+		expected.addDiscoveryLocation(jar);
+		assertEquals(names(expected.getKnownClasses()), names(discovery.getKnownClasses()));
+		assertEquals(names(expected.getClassesThatExtend(ClassVisitor.class)),
+				names(discovery.getClassesThatExtend(ClassVisitor.class)));
+		assertEquals(DiscoveryMetrics.ScanSource.SCAN.name(), metrics.getScan(jar).getSource());
+	}
+
+	@Test
+	public void testCorruptClassIndexIsScanned() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(jar);
+		List<ClassMirror<?>> mirrors = discovery.getKnownClasses(jar);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ClassMirrorFormat.write(mirrors, bytes);
+		File state = new File(dir, "state");
+		writeState(state, jar, bytes.toByteArray(), mirrors.size());
+		assertCorruptSectionIsScanned(state);
+	}
+
+	@Test
+	public void testUnreadableSectionIsScanned() throws Exception {
+		File state = new File(dir, "state");
+		writeState(state, jar, "not mirrors".getBytes(StandardCharsets.UTF_8), 0);
+		assertCorruptSectionIsScanned(state);
+	}
+
+	@Test
+	public void testUnreadableState() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		assertEquals(Collections.emptySet(), discovery.restoreState(new File(dir, "missing")));
+		File state = new File(dir, "state");
+		FileUtils.writeStringToFile(state, "not a state file", "UTF-8");
+		assertEquals(Collections.emptySet(), discovery.restoreState(state));
+		assertEquals(0, discovery.getKnownClasses().size());
+	}
+}
@@ -0,0 +1,166 @@
+package com.methodscript.PureUtilities.ClassLoading;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ *
+ */
+public class DynamicClassLoaderTest {
+
+	private File dir;
+
+	@Before
+	public void setUp() throws Exception {
+		dir = Files.createTempDirectory("dynamic-loader").toFile();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private static byte[] generate(String internalName) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null);
+		cw.visitEnd();
+		return cw.toByteArray();
+	}
+
+	private URL jar(String name, String... classes) throws Exception {
+		File jar = new File(dir, name);
+		try(ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			for(String c : classes) {
+				out.putNextEntry(new ZipEntry(c + ".class"));
+				out.write(generate(c));
+			}
+		}
+		return jar.toURI().toURL();
+	}
+
+	private URL resourceJar(String name, String resource, String content) throws Exception {
+		File jar = new File(dir, name);
+		try(ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			out.putNextEntry(new ZipEntry(resource));
+			out.write(content.getBytes(StandardCharsets.UTF_8));
+		}
+		return jar.toURI().toURL();
+	}
+
+	private static String read(InputStream in) throws Exception {
+		try(InputStream i = in) {
+			return IOUtils.toString(i, StandardCharsets.UTF_8);
+		}
+	}
+
+	private static void assertNotFound(ClassLoader loader, String name) {
+		try {
+			loader.loadClass(name);
+			fail(name + " should not have been found");
+		} catch (ClassNotFoundException ex) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testLoadFromIndexedJars() throws Exception {
+		DynamicClassLoader loader = new DynamicClassLoader();
+		assertTrue(ClassDiscovery.isParallelCapable(loader));
+		loader.addJar(jar("a.jar", "dyn/a/A"));
+		loader.addJar(jar("b.jar", "dyn/b/B", "dyn/a/Shared"));
+		assertEquals("dyn.a.A", loader.loadClass("dyn.a.A").getName());
+		assertEquals("dyn.b.B", loader.loadClass("dyn.b.B").getName());
+		// The package is in both jars, but only one has the class
+		assertEquals("dyn.a.Shared", loader.loadClass("dyn.a.Shared").getName());
+		assertNotFound(loader, "dyn.a.Later");
+		assertNotFound(loader, "dyn.c.Unknown");
+		// Misses are remembered, but only until another jar is added
+		loader.addJar(jar("c.jar", "dyn/a/Later"));
+		assertEquals("dyn.a.Later", loader.loadClass("dyn.a.Later").getName());
+		assertEquals(String.class, loader.loadClass("java.lang.String"));
+	}
+
+	@Test
+	public void testLoadFromDirectory() throws Exception {
+		File classes = new File(dir, "classes");
+		File file = new File(classes, "dyn/d/D.class");
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), generate("dyn/d/D"));
+		DynamicClassLoader loader = new DynamicClassLoader();
+		loader.addJar(jar("a.jar", "dyn/a/A"));
+		loader.addJar(classes.toURI().toURL());
+		assertEquals("dyn.d.D", loader.loadClass("dyn.d.D").getName());
+		assertEquals("dyn.a.A", loader.loadClass("dyn.a.A").getName());
+		loader.removeJar(classes.toURI().toURL());
+		assertNotFound(loader, "dyn.d.E");
+	}
+
+	@Test
+	public void testResources() throws Exception {
+		DynamicClassLoader loader = new DynamicClassLoader();
+		URL a = resourceJar("a.jar", "dyn/config.txt", "a");
+		URL b = resourceJar("b.jar", "dyn/config.txt", "b");
+		loader.addJar(jar("classes.jar", "dyn/a/A"));
+		loader.addJar(a);
+		loader.addJar(b);
+		assertEquals("a", read(loader.getResource("dyn/config.txt").openStream()));
+		assertEquals("a", read(loader.getResourceAsStream("dyn/config.txt")));
+		List<URL> all = Collections.list(loader.getResources("dyn/config.txt"));
+		assertEquals(2, all.size());
+		assertEquals("b", read(all.get(1).openStream()));
+		assertTrue(loader.getResource("dyn/a/A.class") != null);
+		assertNull(loader.getResource("dyn/missing.txt"));
+		assertNull(loader.getResourceAsStream("dyn/missing.txt"));
+		// Resources from the parent still come first
+		assertTrue(loader.getResource("org/junit/Test.class") != null);
+		loader.removeJar(a);
+		assertEquals("b", read(loader.getResourceAsStream("dyn/config.txt")));
+		assertEquals(1, Collections.list(loader.getResources("dyn/config.txt")).size());
+	}
+
+	@Test
+	public void testResourceURLsAreEscaped() throws Exception {
+		DynamicClassLoader loader = new DynamicClassLoader();
+		URL a = resourceJar("a.jar", "dyn/a#b c%.txt", "a");
+		loader.addJar(a);
+		URL resource = loader.getResource("dyn/a#b c%.txt");
+		assertEquals("a", read(resource.openStream()));
+		try(URLClassLoader expected = new URLClassLoader(new URL[]{a}, null)) {
+			assertEquals(expected.getResource("dyn/a#b c%.txt"), resource);
+		}
+		loader.destroy();
+	}
+
+	@Test
+	public void testResourceStreamOutlivesRemovedJar() throws Exception {
+		DynamicClassLoader loader = new DynamicClassLoader();
+		URL a = resourceJar("a.jar", "dyn/config.txt", "a");
+		loader.addJar(a);
+		InputStream in = loader.getResourceAsStream("dyn/config.txt");
+		loader.removeJar(a);
+		assertNull(loader.getResourceAsStream("dyn/config.txt"));
+		// The stream opened before the jar was removed can still be read
+		assertEquals("a", read(in));
+		loader.destroy();
+	}
+}
@@ -4,24 +4,35 @@ import com.methodscript.PureUtilities.ClassLoading.ClassDiscovery;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.ClassMirror;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.FieldMirror;
 import com.methodscript.PureUtilities.ClassLoading.ClassMirror.MethodMirror;
+import com.methodscript.PureUtilities.Common.ClassUtils;
+import java.io.File;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.net.URL;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import org.apache.commons.io.FileUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 
 /**
  *
@@ -252,4 +263,198 @@ public class GeneralTest {
 		Set s = ClassDiscovery.getDefaultInstance().loadClassesWithAnnotationThatExtend(TestAnnotation.class, A3.class);
 		assertThat(s.size(), is(2));
 	}
+
+	@Test
+	public void testParallelDiscoveryMatchesSerial() throws Exception {
+		// Both a directory (the test classes) and a jar (asm) are scanned, and the parallel scan should find exactly
+		// the same classes, in exactly the same order.
+		for(URL url : new URL[]{ClassDiscovery.GetClassContainer(GeneralTest.class),
+			ClassDiscovery.GetClassContainer(ClassReader.class)}) {
+			ClassDiscovery serial = new ClassDiscovery();
+			serial.addDiscoveryLocation(url);
+			ClassDiscovery parallel = new ClassDiscovery();
+			parallel.setParallelism(4);
+			parallel.addDiscoveryLocation(url);
+			List<ClassMirror<?>> expected = serial.getKnownClasses(url);
+			assertFalse(expected.isEmpty());
+			assertEquals(expected, parallel.getKnownClasses(url));
+		}
+	}
+
+	@Test
+	public void testGetClassesThatExtendIsTransitive() {
+		Set<ClassMirror<F>> s = ClassDiscovery.getDefaultInstance().getClassesThatExtend(F.class);
+		Set<String> names = new HashSet<>();
+		for(ClassMirror<F> m : s) {
+			names.add(m.getClassName());
+		}
+		assertEquals(new HashSet<>(Arrays.asList(A.class.getName().replace('$', '.'), C.class.getName().replace('$', '.'),
+				D.class.getName().replace('$', '.'), AConcrete.class.getName().replace('$', '.'))), names);
+		// This one goes through JDK classes, which aren't known classes
+		assertTrue(ClassDiscovery.getDefaultInstance().getClassesThatExtend(java.util.Collection.class)
+				.contains(new ClassMirror<>(StringList.class)));
+	}
+
+	public abstract static class StringList extends java.util.AbstractList<String> {
+	}
+
+	@Test
+	public void testMemberAnnotationQueries() throws Exception {
+		ClassMirror<?> c1 = ClassDiscovery.getDefaultInstance().forName(GeneralTest.class.getName());
+		assertTrue(ClassDiscovery.getDefaultInstance().getFieldsWithAnnotation(TestAnnotation.class)
+				.contains(c1.getField("field")));
+		assertTrue(ClassDiscovery.getDefaultInstance().getMethodsWithAnnotation(TestAnnotation.class)
+				.contains(c1.getMethod("method", new Class[]{})));
+		assertTrue(ClassDiscovery.getDefaultInstance().getClassesWithAnnotation(TestAnnotation.class).contains(c1));
+	}
+
+	@Test
+	public void testIncrementalDirectoryScanning() throws Exception {
+		File dir = Files.createTempDirectory("incremental").toFile();
+		try {
+			File classes = new File(ClassDiscovery.GetClassContainer(GeneralTest.class).toURI());
+			String pkg = GeneralTest.class.getPackage().getName().replace('.', '/');
+			File target = new File(dir, pkg);
+			target.mkdirs();
+			File d = new File(target, "GeneralTest$D.class");
+			FileUtils.copyFile(new File(classes, pkg + "/GeneralTest$F.class"), new File(target, "GeneralTest$F.class"));
+			FileUtils.copyFile(new File(classes, pkg + "/GeneralTest$D.class"), d);
+			URL url = dir.toURI().toURL();
+			ClassDiscovery discovery = new ClassDiscovery();
+			discovery.setIncrementalDirectoryScanning(true);
+			discovery.addDiscoveryLocation(url);
+			assertEquals(1, discovery.getClassesThatExtend(F.class).size());
+			List<ClassMirror<?>> before = discovery.getKnownClasses(url);
+
+			// Nothing changed, so the exact same mirrors are kept
+			discovery.invalidateCaches();
+			List<ClassMirror<?>> after = discovery.getKnownClasses(url);
+			assertTrue(before.get(0) == after.get(0) && before.get(1) == after.get(1));
+
+			// Only the modified file is parsed again
+			d.setLastModified(d.lastModified() + 10000);
+			discovery.rescanDiscoveryLocation(url);
+			after = discovery.getKnownClasses(url);
+			assertEquals(before, after);
+			int f = after.get(0).getClassName().endsWith(".F") ? 0 : 1;
+			assertTrue(before.get(f) == after.get(f));
+			assertFalse(before.get(1 - f) == after.get(1 - f));
+
+			// And deleted files are dropped, along with their index entries
+			d.delete();
+			discovery.rescanDiscoveryLocation(url);
+			assertEquals(1, discovery.getKnownClasses(url).size());
+			assertTrue(discovery.getClassesThatExtend(F.class).isEmpty());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	@Test
+	public void testForNameFollowsDiscoveryLocations() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(GeneralTest.class);
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(url);
+		ClassMirror<?> m = discovery.forName(GeneralTest.class.getName());
+		assertEquals(m, discovery.forName(ClassUtils.getJVMName(GeneralTest.class)));
+		assertEquals(new ClassMirror<>(F.class), discovery.forName(F.class.getName().replace('$', '.')));
+		discovery.removeDiscoveryLocation(url);
+		try {
+			discovery.forName(GeneralTest.class.getName());
+			fail();
+		} catch (ClassNotFoundException ex) {
+			// Expected
+		}
+		discovery.addDiscoveryLocation(url);
+		assertEquals(m, discovery.forName(GeneralTest.class.getName()));
+	}
+
+	public static class ExtendsThread extends Thread {
+	}
+
+	@Test
+	public void testExtendsThroughUnknownClasses() throws Exception {
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(ClassDiscovery.GetClassContainer(GeneralTest.class));
+		// The hierarchy leaves the known classes through Thread
+		ClassMirror<?> m = discovery.forName(ExtendsThread.class.getName().replace('$', '.'));
+		assertTrue(discovery.doesClassExtend(m, Thread.class));
+		assertTrue(discovery.doesClassExtend(m, Runnable.class));
+		assertTrue(discovery.doesClassExtend(m, Object.class));
+		assertFalse(discovery.doesClassExtend(m, Comparable.class));
+		// And classes that aren't known at all work too
+		ClassMirror<?> list = new ClassMirror<>(java.util.ArrayList.class);
+		assertTrue(discovery.doesClassExtend(list, java.util.Collection.class));
+		assertTrue(discovery.doesClassExtend(list, java.util.AbstractCollection.class));
+		assertFalse(discovery.doesClassExtend(list, Runnable.class));
+	}
+
+	@Test
+	public void testForFuzzyName() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(GeneralTest.class);
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.addDiscoveryLocation(url);
+		assertEquals(new ClassMirror<>(GeneralTest.class), discovery.forFuzzyName(".*\\.ClassLoading", "GeneralTest"));
+		assertEquals(new ClassMirror<>(F.class), discovery.forFuzzyName(".*GeneralTest", "F"));
+		assertNull(discovery.forFuzzyName(".*\\.Common", "GeneralTest"));
+		assertNull(discovery.forFuzzyName(".*", "NoSuchClass"));
+		discovery.removeDiscoveryLocation(url);
+		assertNull(discovery.forFuzzyName(".*\\.ClassLoading", "GeneralTest"));
+	}
+
+	@Test
+	public void testForFuzzyNameInDefaultPackage() throws Exception {
+		File dir = Files.createTempDirectory("fuzzy").toFile();
+		try {
+			for(String name : new String[]{"Foo", "Outer$Foo"}) {
+				ClassWriter cw = new ClassWriter(0);
+				cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+				cw.visitEnd();
+				Files.write(new File(dir, name + ".class").toPath(), cw.toByteArray());
+			}
+			ClassDiscovery discovery = new ClassDiscovery();
+			discovery.addDiscoveryLocation(dir.toURI().toURL());
+			// Both are candidates, and the one in the default package is the closest match
+			assertEquals("Foo", discovery.forFuzzyName(".*", "Foo").getClassName());
+		} finally {
+			FileUtils.deleteDirectory(dir);
+		}
+	}
+
+	public static class Unreferenced {
+
+		public int field;
+	}
+
+	@Test
+	public void testPrefilter() throws Exception {
+		URL url = ClassDiscovery.GetClassContainer(GeneralTest.class);
+		ClassDiscovery unfiltered = new ClassDiscovery();
+		unfiltered.addDiscoveryLocation(url);
+		ClassDiscovery discovery = new ClassDiscovery();
+		discovery.setPrefilter(TestAnnotation.class);
+		assertEquals(Collections.singleton(ClassUtils.getJVMName(TestAnnotation.class)), discovery.getPrefilter());
+		discovery.addDiscoveryLocation(url);
+		assertEquals(unfiltered.getClassesWithAnnotation(TestAnnotation.class),
+				discovery.getClassesWithAnnotation(TestAnnotation.class));
+		assertEquals(unfiltered.getFieldsWithAnnotation(TestAnnotation.class).size(),
+				discovery.getFieldsWithAnnotation(TestAnnotation.class).size());
+		// Classes that don't reference the annotation only keep their supertypes
+		String plain = Unreferenced.class.getName().replace('$', '.');
+		assertEquals(1, unfiltered.forName(plain).getFields().length);
+		assertEquals(0, discovery.forName(plain).getFields().length);
+		assertEquals(unfiltered.getClassesThatExtend(Thread.class), discovery.getClassesThatExtend(Thread.class));
+
+		// Jars scanned in parallel, where supertypes are matched by their internal name
+		URL jar = ClassDiscovery.GetClassContainer(ClassReader.class);
+		unfiltered.addDiscoveryLocation(jar);
+		discovery.setPrefilter(org.objectweb.asm.ClassVisitor.class);
+		discovery.setParallelism(2);
+		discovery.addDiscoveryLocation(jar);
+		assertFalse(discovery.getClassesThatExtend(org.objectweb.asm.ClassVisitor.class).isEmpty());
+		assertEquals(unfiltered.getClassesThatExtend(org.objectweb.asm.ClassVisitor.class),
+				discovery.getClassesThatExtend(org.objectweb.asm.ClassVisitor.class));
+		discovery.setPrefilter();
+		assertTrue(discovery.getPrefilter().isEmpty());
+	}
 }